@@ -0,0 +1,166 @@
+package com.github.wolfie.bob;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.github.wolfie.bob.Log.LogLevel;
+import com.github.wolfie.bob.action.IncrementalAction;
+
+/**
+ * The fingerprints of the {@link IncrementalAction}s that have been processed,
+ * persisted between invocations.
+ * <p/>
+ * A fingerprint is a digest of the contents of an action's inputs. Along with
+ * it, the length and the modification time of the action's output are
+ * remembered, so that an output that was changed or deleted since gets
+ * written again. Of an output directory, the lengths and modification times of
+ * only the files the action wrote into it are remembered, since other actions
+ * may write into the same directory, such as {@value Defaults#ARTIFACTS_PATH}.
+ */
+final class ActionFingerprints {
+  
+  private final File file;
+  private final Properties properties = new Properties();
+  
+  ActionFingerprints(final File file) {
+    Util.checkNulls(file);
+    this.file = file;
+    
+    if (file.isFile()) {
+      try {
+        properties.putAll(Util.readProperties(file));
+      } catch (final IOException e) {
+        Log.get().log("Could not read " + file.getAbsolutePath()
+            + ", processing all actions: " + e.getMessage(), LogLevel.WARNING);
+      }
+    }
+  }
+  
+  /**
+   * Calculate the fingerprint of an action's inputs. The fingerprint depends
+   * only on the kind of the action, its settings and the contents of the
+   * inputs, so that it can be used as a key in the {@link BuildCache}. Only
+   * the inputs that have changed since they were last hashed are read, as told
+   * by the {@link FileStateIndex}.
+   * 
+   * @throws IOException
+   *           if an input could not be read.
+   */
+  static String getFingerprint(final IncrementalAction action)
+      throws IOException {
+    final Map<String, File> inputs = action.getInputs();
+    final List<String> names = new ArrayList<String>(inputs.keySet());
+    Collections.sort(names);
+    
+    final Map<File, String> hashes = FileStateIndex.get().getHashes(
+        inputs.values());
+    
+    final StringBuilder builder = new StringBuilder();
+    builder.append(Bob.getVersionString()).append('\n');
+    builder.append(action.getClass().getName()).append('\n');
+    builder.append(action.getSettings()).append('\n');
+    for (final String name : names) {
+      builder.append(name).append('=');
+      builder.append(hashes.get(inputs.get(name))).append('\n');
+    }
+    return Util.getHash(builder.toString());
+  }
+  
+  /**
+   * Whether <tt>action</tt> was processed with the same inputs before, and
+   * its output has been left as it was.
+   */
+  synchronized boolean isUpToDate(final IncrementalAction action,
+      final String fingerprint) {
+    final String stored = properties.getProperty(getKey(action));
+    return stored != null
+        && stored.equals(getStoredValue(action, fingerprint));
+  }
+  
+  /**
+   * Remember that <tt>action</tt> was successfully processed with the inputs
+   * of <tt>fingerprint</tt>.
+   * <p/>
+   * Actions that write into the temporary directory aren't remembered, since
+   * their outputs are never written to the same place again.
+   */
+  synchronized void remember(final IncrementalAction action,
+      final String fingerprint) {
+    final File output = action.getOutput();
+    if (output != null && Util.isInTemporaryDirectory(output)) {
+      return;
+    }
+    
+    properties.setProperty(getKey(action), getStoredValue(action,
+        fingerprint));
+    try {
+      Util.writeProperties(file, properties, "action fingerprints");
+    } catch (final IOException e) {
+      Log.get().log("Could not write " + file.getAbsolutePath() + ": "
+          + e.getMessage(), LogLevel.WARNING);
+    }
+  }
+  
+  /**
+   * An action is identified by its class and its output. An action without an
+   * output is identified by the names of its inputs instead.
+   */
+  private static String getKey(final IncrementalAction action) {
+    final File output = action.getOutput();
+    if (output != null) {
+      return action.getClass().getName() + ":" + output.getAbsolutePath();
+    } else {
+      final List<String> names = new ArrayList<String>(action.getInputs()
+          .keySet());
+      Collections.sort(names);
+      return action.getClass().getName() + ":"
+          + Util.getHash(Util.implode("\n", names));
+    }
+  }
+  
+  private static String getStoredValue(final IncrementalAction action,
+      final String fingerprint) {
+    final File output = action.getOutput();
+    if (output == null) {
+      return fingerprint;
+    } else if (!output.exists()) {
+      return fingerprint + " missing";
+    } else if (output.isDirectory()) {
+      return fingerprint + " directory "
+          + getWrittenFilesState(output, action.getWrittenFiles());
+    } else {
+      return fingerprint + " " + getFileState(output);
+    }
+  }
+  
+  /**
+   * A digest of the lengths and the modification times of <tt>names</tt>
+   * under <tt>directory</tt>.
+   */
+  private static String getWrittenFilesState(final File directory,
+      final Collection<String> names) {
+    final List<String> sortedNames = new ArrayList<String>(names);
+    Collections.sort(sortedNames);
+    
+    final StringBuilder builder = new StringBuilder();
+    for (final String name : sortedNames) {
+      builder.append(name).append('=');
+      builder.append(getFileState(new File(directory, name))).append('\n');
+    }
+    return Util.getHash(builder.toString());
+  }
+  
+  private static String getFileState(final File file) {
+    if (file.isFile()) {
+      return file.length() + " " + file.lastModified();
+    } else {
+      return "missing";
+    }
+  }
+}
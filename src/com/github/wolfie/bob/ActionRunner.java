@@ -0,0 +1,208 @@
+package com.github.wolfie.bob;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.github.wolfie.bob.Log.LogLevel;
+import com.github.wolfie.bob.action.Action;
+import com.github.wolfie.bob.action.IncrementalAction;
+import com.github.wolfie.bob.exception.ProcessingError;
+
+/**
+ * Processes each {@link Action} at most once per build.
+ * <p/>
+ * Actions that make use of other actions, like a
+ * {@link com.github.wolfie.bob.action.Jar Jar} using a
+ * {@link com.github.wolfie.bob.action.Compilation Compilation}, should process
+ * them through this class. This way an action that is shared by several
+ * targets or actions is processed only once. Whoever asks for an action that
+ * is being processed in another thread waits for it to finish, and if the
+ * processing fails, the failure is thrown to everyone that asked for it.
+ * <p/>
+ * An {@link IncrementalAction} is not processed at all if its inputs haven't
+ * changed since it was last processed, and its output is still in place. If
+ * the output is a file, it's stored in the {@link BuildCache}, and restored
+ * from there whenever the same inputs are seen again.
+ */
+public final class ActionRunner {
+  
+  /** The name of an action's output within its build cache entry */
+  private static final String OUTPUT_ENTRY_NAME = "output";
+  
+  private static final Map<Action, FutureTask<Void>> processedActions = new IdentityHashMap<Action, FutureTask<Void>>();
+  private static final Map<Class<?>, Action> defaultActions = new HashMap<Class<?>, Action>();
+  
+  /** Read once needed, and again for each build */
+  private static ActionFingerprints fingerprints = null;
+  
+  private ActionRunner() {
+  }
+  
+  /**
+   * Process <tt>action</tt>, unless it has already been processed during
+   * this build.
+   */
+  public static void process(final Action action) {
+    Util.checkNulls(action);
+    
+    FutureTask<Void> processing;
+    boolean isOwnProcessing = false;
+    synchronized (processedActions) {
+      processing = processedActions.get(action);
+      if (processing == null) {
+        processing = new FutureTask<Void>(new Runnable() {
+          @Override
+          public void run() {
+            if (action instanceof IncrementalAction) {
+              processIncrementally((IncrementalAction) action);
+            } else {
+              action.process();
+            }
+          }
+        }, null);
+        processedActions.put(action, processing);
+        isOwnProcessing = true;
+      }
+    }
+    
+    if (isOwnProcessing) {
+      processing.run();
+    } else {
+      Log.get().log(action + " was already processed", LogLevel.DEBUG);
+    }
+    
+    try {
+      processing.get();
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      } else {
+        throw new ProcessingError(e.getCause());
+      }
+    } catch (final InterruptedException e) {
+      throw new ProcessingError("Interrupted while waiting for " + action, e);
+    }
+  }
+  
+  private static void processIncrementally(final IncrementalAction action) {
+    final String fingerprint;
+    try {
+      fingerprint = ActionFingerprints.getFingerprint(action);
+    } catch (final IOException e) {
+      throw new ProcessingError("Could not read the inputs of " + action, e);
+    }
+    
+    if (getFingerprints().isUpToDate(action, fingerprint)) {
+      final File output = action.getOutput();
+      if (output != null) {
+        Log.get().log(output.getPath() + " is up to date", LogLevel.VERBOSE);
+      } else {
+        Log.get().log(action + " is up to date", LogLevel.VERBOSE);
+      }
+      return;
+    }
+    
+    final File output = action.getOutput();
+    if (output != null && restoreFromBuildCache(fingerprint, output)) {
+      getFingerprints().remember(action, fingerprint);
+      return;
+    }
+    
+    action.process();
+    getFingerprints().remember(action, fingerprint);
+    
+    if (output != null && output.isFile()) {
+      storeInBuildCache(fingerprint, output);
+    }
+  }
+  
+  private static boolean restoreFromBuildCache(final String fingerprint,
+      final File output) {
+    try {
+      final File entry = BuildCache.get().get(fingerprint);
+      if (entry == null || !new File(entry, OUTPUT_ENTRY_NAME).isFile()) {
+        return false;
+      }
+      
+      if (output.isDirectory()) {
+        Util.delete(output);
+      }
+      BuildCache.copy(new File(entry, OUTPUT_ENTRY_NAME), output);
+      Log.get().log("Restored " + output.getPath() + " from the build cache",
+          LogLevel.INFO);
+      return true;
+    } catch (final IOException e) {
+      Log.get().log("Could not restore " + output.getPath()
+          + " from the build cache: " + e.getMessage(), LogLevel.WARNING);
+      return false;
+    }
+  }
+  
+  private static void storeInBuildCache(final String fingerprint,
+      final File output) {
+    try {
+      BuildCache.get().put(fingerprint,
+          Collections.singletonMap(OUTPUT_ENTRY_NAME, output));
+    } catch (final IOException e) {
+      Log.get().log("Could not store " + output.getPath()
+          + " in the build cache: " + e.getMessage(), LogLevel.WARNING);
+    }
+  }
+  
+  private static ActionFingerprints getFingerprints() {
+    synchronized (processedActions) {
+      if (fingerprints == null) {
+        fingerprints = new ActionFingerprints(new File(
+            Defaults.ACTION_FINGERPRINTS_PATH));
+      }
+      return fingerprints;
+    }
+  }
+  
+  /**
+   * Get an instance of <tt>actionClass</tt> that is shared by everyone asking
+   * for one during this build. Actions use this for the other actions they
+   * use by default, so that those are processed only once.
+   * 
+   * @param actionClass
+   *          a class with a public no-argument constructor
+   */
+  public static <T extends Action> T getDefault(final Class<T> actionClass) {
+    synchronized (defaultActions) {
+      Action action = defaultActions.get(actionClass);
+      if (action == null) {
+        try {
+          action = actionClass.getDeclaredConstructor().newInstance();
+        } catch (final InvocationTargetException e) {
+          throw new ProcessingError("Could not create a default instance of "
+              + actionClass.getName(), e.getCause());
+        } catch (final Exception e) {
+          throw new ProcessingError("Could not create a default instance of "
+              + actionClass.getName(), e);
+        }
+        defaultActions.put(actionClass, action);
+      }
+      return actionClass.cast(action);
+    }
+  }
+  
+  /** Forget the processed actions, before a new build in the same JVM */
+  static void reset() {
+    synchronized (processedActions) {
+      processedActions.clear();
+      fingerprints = null;
+    }
+    synchronized (defaultActions) {
+      defaultActions.clear();
+    }
+  }
+}
@@ -8,16 +8,15 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
-import java.net.URI;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Queue;
@@ -25,7 +24,6 @@ import java.util.Set;
 
 import javax.tools.Diagnostic;
 import javax.tools.DiagnosticCollector;
-import javax.tools.DiagnosticListener;
 import javax.tools.JavaCompiler;
 import javax.tools.JavaFileObject;
 import javax.tools.StandardJavaFileManager;
@@ -33,7 +31,6 @@ import javax.tools.StandardLocation;
 import javax.tools.ToolProvider;
 
 import com.github.wolfie.bob.BuildFileUtil.TargetInfo;
-import com.github.wolfie.bob.CompilationCache.Builder;
 import com.github.wolfie.bob.Log.LogLevel;
 import com.github.wolfie.bob.action.Action;
 import com.github.wolfie.bob.action.optional.JavaLauncher;
@@ -43,7 +40,7 @@ import com.github.wolfie.bob.exception.CompilationFailedException;
 import com.github.wolfie.bob.exception.IncompatibleReturnTypeException;
 import com.github.wolfie.bob.exception.NoBuildFileFoundException;
 import com.github.wolfie.bob.exception.NoDefaultBuildTargetMethodFoundException;
-import com.github.wolfie.bob.exception.NotADirectoryOrCouldNotReadException;
+import com.github.wolfie.bob.exception.ProcessingError;
 import com.github.wolfie.bob.exception.SeveralDefaultBuildTargetMethodsFoundException;
 import com.github.wolfie.bob.exception.UnexpectedArgumentAmountException;
 import com.github.wolfie.bob.exception.UnrecognizedArgumentException;
@@ -56,24 +53,6 @@ import com.github.wolfie.bob.exception.UnrecognizedArgumentException;
  */
 public final class Bob {
   
-  private static class BobDiagnosticListener implements
-      DiagnosticListener<JavaFileObject> {
-    private final List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<Diagnostic<? extends JavaFileObject>>();
-    
-    @Override
-    public void report(final Diagnostic<? extends JavaFileObject> diagnostic) {
-      diagnostics.add(diagnostic);
-    }
-    
-    public boolean hasProblems() {
-      return !diagnostics.isEmpty();
-    }
-    
-    public List<Diagnostic<? extends JavaFileObject>> getProblems() {
-      return Collections.unmodifiableList(diagnostics);
-    }
-  }
-  
   public static final int VERSION_MAJOR = 0;
   public static final int VERSION_MINOR = 0;
   public static final int VERSION_MAINTENANCE = 0;
@@ -87,6 +66,28 @@ public final class Bob {
   private static boolean success = false;
   private static boolean listTargets = false;
   
+  /**
+   * Whether the build should be run in a new JVM, instead of in an isolated
+   * {@link ClassLoader} within this one.
+   */
+  private static boolean fork = false;
+  
+  /** Whether to build again whenever the project's files change */
+  private static boolean watch = false;
+  
+  /** The maximum number of things Bob may do concurrently */
+  private static int jobs = getDefaultJobs();
+  
+  /** Which one of the {@link #shardCount} slices of the tests to run */
+  private static int shardIndex = 1;
+  private static int shardCount = 1;
+  
+  /**
+   * Test timings shared by all machines running shards, or <code>null</code>
+   * if none were given.
+   */
+  private static File shardTimings = null;
+  
   /**
    * A path to the desired build file. Guaranteed to have a non-
    * <code>null</code> value
@@ -114,20 +115,85 @@ public final class Bob {
   }
   
   public static final void main(final String[] args) {
+    if (shouldBeBootstrapped() && DaemonClient.isUsable(args)) {
+      System.exit(new DaemonClient().run(args));
+    } else {
+      final int exitCode = execute(args);
+      if (watch && !skipBuilding && shouldBeBootstrapped()) {
+        watch(args);
+      }
+      System.exit(exitCode);
+    }
+  }
+  
+  /**
+   * Run the build again whenever the project's files change. Each build only
+   * does what the changes require, like any build.
+   * <p/>
+   * This returns only if the files can't be watched.
+   * 
+   * @see BuildWatcher
+   */
+  private static void watch(final String[] args) {
+    final BuildWatcher watcher;
+    try {
+      watcher = new BuildWatcher(getBuildFile());
+    } catch (final NoBuildFileFoundException e) {
+      return;
+    }
+    
+    try {
+      while (true) {
+        Log.get().enter("Watch");
+        try {
+          watcher.awaitChanges();
+        } finally {
+          Log.get().exit();
+        }
+        execute(args);
+      }
+    } catch (final IOException e) {
+      Log.get().log("Could not watch for changes: " + e.getMessage(),
+          LogLevel.SEVERE);
+    } catch (final InterruptedException e) {
+      Log.get().log("Interrupted while watching for changes", LogLevel.DEBUG);
+    } finally {
+      try {
+        watcher.close();
+      } catch (final IOException e) {
+        Log.get().log("Could not stop watching: " + e, LogLevel.DEBUG);
+      }
+    }
+  }
+  
+  /**
+   * Run Bob once with the given arguments. This may be called several times
+   * within the same JVM, as is done by {@link BobDaemon}.
+   * 
+   * @return the exit code of the invocation
+   */
+  static int execute(final String[] args) {
+    resetState();
+    
+    Log.get().enter("Bob");
     try {
-      Log.get().enter("Bob");
       handleArgs(args);
       
       if (!skipBuilding) {
         if (shouldBeBootstrapped()) {
+          final BootstrapInfo info;
           Log.get().enter("Boot");
           try {
-            bootstrap();
+            info = bootstrap();
+            if (fork) {
+              return reboot(info);
+            }
           } finally {
             Log.get().exit();
           }
+          run(info);
         } else {
-          run();
+          run(getBootstrapInfo());
         }
       }
       
@@ -147,75 +213,140 @@ public final class Bob {
       System.err.println(e.getMessage());
     } catch (final UnexpectedArgumentAmountException e) {
       System.err.println(e.getMessage());
+    } catch (final CompilationFailedException e) {
+      // the compiler has already explained what went wrong
+      System.err.println(e.getMessage());
     } catch (final Exception e) {
       e.printStackTrace();
+    } catch (final BootstrapError e) {
+      e.printStackTrace();
+    } catch (final ProcessingError e) {
+      e.printStackTrace();
     }
     
-    if (!skipBuilding) {
-      if (success) {
-        Log.get().log("Build successful", LogLevel.VERBOSE);
+    FileStateIndex.storeIfLoaded();
+    
+    try {
+      if (!skipBuilding) {
+        if (success) {
+          Log.get().log("Build successful", LogLevel.VERBOSE);
+          return 0;
+        } else {
+          Log.get().log("Build FAILED!", LogLevel.SEVERE);
+          return 1;
+        }
       } else {
-        Log.get().log("Build FAILED!", LogLevel.SEVERE);
-        System.exit(1);
+        Log.get().log("Didn't build anything", LogLevel.VERBOSE);
+        return 0;
       }
-    } else {
-      Log.get().log("Didn't build anything", LogLevel.VERBOSE);
+    } finally {
+      Log.get().exit();
     }
-    Log.get().exit();
+  }
+  
+  /** Bring all state back to the defaults, before a new invocation */
+  private static void resetState() {
+    showHelp = false;
+    skipBuilding = false;
+    success = false;
+    listTargets = false;
+    fork = false;
+    watch = false;
+    jobs = getDefaultJobs();
+    shardIndex = 1;
+    shardCount = 1;
+    shardTimings = null;
+    buildfile = Defaults.DEFAULT_BUILD_SRC_PATH;
+    buildfileIsExplicit = false;
+    buildtarget = null;
+    rawArgs = null;
+    
+    Log.get().reset();
+    CompilationCache.reset();
+    ActionRunner.reset();
+    BuildCache.reset();
+    FileStateIndex.reset();
   }
   
   private static boolean shouldBeBootstrapped() {
     return !System.getProperties().containsKey(CACHE_SYSTEM_PROPERTY);
   }
   
-  private static void run() {
-    final BootstrapInfo info = getBootstrapInfo();
-    
+  /**
+   * Run the build against the compiled project.
+   * <p/>
+   * The project's classes are loaded in a {@link URLClassLoader} of their
+   * own. The build file is compiled into memory, and loaded from there by a
+   * {@link BootClassLoader} on top of the project's class loader. That is also
+   * used as the context class loader while the build is being processed.
+   */
+  private static void run(final BootstrapInfo info) {
     CompilationCache.set(info.getCache());
     
     final File buildFile = getBuildFile();
-    final File buildClassFile = compileBuildFile(buildFile, info.getClasspath());
+    final Map<String, byte[]> buildClasses = compileBuildFile(buildFile, info
+        .getClasspath());
+    
+    final URLClassLoader projectClassLoader = getProjectClassLoader(info
+        .getClasspath());
+    final ClassLoader buildClassLoader = BootClassLoader.get(buildClasses,
+        projectClassLoader);
+    final Thread thread = Thread.currentThread();
+    final ClassLoader originalContextClassLoader = thread
+        .getContextClassLoader();
+    thread.setContextClassLoader(buildClassLoader);
     
-    Class<? extends BobBuild> buildClass;
     try {
-      buildClass = getBuildClass(buildClassFile);
-    } catch (final ClassNotFoundException e) {
-      throw new BootstrapError(buildClassFile.getAbsolutePath()
-          + " didn't contain a valid build class", e);
-    }
-    
-    final Method buildMethod = getBuildMethod(buildClass);
-    final Action action = getAction(buildMethod, buildClass);
-    
-    if (action != null) {
-      Log.get().log("Processing " + action, LogLevel.DEBUG);
-      Log.get().enter(action.getClass().getSimpleName());
+      Class<? extends BobBuild> buildClass;
       try {
-        action.process();
-      } finally {
-        Log.get().exit();
+        buildClass = getBuildClass(buildClassLoader);
+      } catch (final ClassNotFoundException e) {
+        throw new BootstrapError(buildFile.getAbsolutePath()
+            + " didn't contain a valid build class", e);
       }
+      
+      final Method buildMethod = getBuildMethod(buildClass);
+      new TargetExecutor(buildClass, jobs).execute(buildMethod);
       success = true;
-    } else {
-      throw new NullPointerException(String.format("%s.%s() returned null.",
-          buildClass.getName(), buildMethod.getName()));
+    } finally {
+      thread.setContextClassLoader(originalContextClassLoader);
+      try {
+        projectClassLoader.close();
+      } catch (final IOException e) {
+        Log.get().log("Could not close the project class loader: " + e,
+            LogLevel.DEBUG);
+      }
     }
   }
   
-  private static Class<? extends BobBuild> getBuildClass(
-      final File buildClassFile) throws ClassNotFoundException {
-    
+  /**
+   * Get a class loader for the project's classpath. Classes are looked up from
+   * Bob's own class loader first, so that the build and Bob share the same
+   * {@link Action} and {@link CompilationCache} classes.
+   */
+  private static URLClassLoader getProjectClassLoader(
+      final Collection<File> classPath) {
+    final List<URL> urls = new ArrayList<URL>();
     try {
-      final URLClassLoader urlClassLoader = new URLClassLoader(
-          new URL[] { buildClassFile.toURI().toURL() });
-      @SuppressWarnings("unchecked")
-      final Class<? extends BobBuild> buildClass =
-          (Class<? extends BobBuild>) urlClassLoader
-              .loadClass(getBuildClassName());
-      return buildClass;
+      for (final File classPathEntry : classPath) {
+        urls.add(classPathEntry.toURI().toURL());
+      }
     } catch (final MalformedURLException e) {
       throw new BootstrapError("This really shouldn't happen", e);
     }
+    
+    Log.get().log("Project class loader: " + urls, LogLevel.DEBUG);
+    return new URLClassLoader(urls.toArray(new URL[urls.size()]), Bob.class
+        .getClassLoader());
+  }
+  
+  private static Class<? extends BobBuild> getBuildClass(
+      final ClassLoader projectClassLoader) throws ClassNotFoundException {
+    @SuppressWarnings("unchecked")
+    final Class<? extends BobBuild> buildClass =
+        (Class<? extends BobBuild>) projectClassLoader
+            .loadClass(getBuildClassName());
+    return buildClass;
   }
   
   /**
@@ -239,15 +370,13 @@ public final class Bob {
   /**
    * Bootstraps Bob
    * <p/>
-   * This method will try to compile the project, and restart Bob with the
-   * compiled project in its classpath. It will also build a
-   * {@link CompilationCache} object, which will be serialized into a file. This
-   * file will, in turn, be given to the rebooted Bob as a system property
-   * <tt>{@value #CACHE_SYSTEM_PROPERTY}</tt>.
-   * <p/>
-   * This method will never return, but terminate before returning.
+   * This method will try to compile the project, and build a
+   * {@link CompilationCache} object of the result.
+   * 
+   * @return the information needed to run the build against the compiled
+   *         project.
    */
-  private static void bootstrap() {
+  private static BootstrapInfo bootstrap() {
     
     Log.get().log("Bootstrapping", LogLevel.DEBUG);
     
@@ -267,7 +396,22 @@ public final class Bob {
           .getProjectDescription(buildFile);
     
     try {
-      final BootstrapInfo info = compileAndGetBootstrapInfo(desc);
+      return new ModuleScheduler(desc, jobs).compile();
+    } catch (final IOException e) {
+      throw new BootstrapError(e);
+    }
+  }
+  
+  /**
+   * Restart Bob in a new JVM, with the compiled project in its classpath. The
+   * {@link CompilationCache} will be serialized into a file. This file will,
+   * in turn, be given to the rebooted Bob as a system property
+   * <tt>{@value #CACHE_SYSTEM_PROPERTY}</tt>.
+   * 
+   * @return the exit code of the rebooted Bob
+   */
+  private static int reboot(final BootstrapInfo info) {
+    try {
       final File serializedCache = serializeBootstrapInfoIntoFile(info);
       
       Log.get().log("Serialized compilation cache into "
@@ -285,12 +429,13 @@ public final class Bob {
             .userProvidedForcedClassPath(classpathFile.getAbsolutePath());
       }
       
+      // stored before the rebooted Bob reads it, not after it has written it
+      FileStateIndex.storeIfLoaded();
+      
       Log.get().log("Rebooting Bob with " + bobRebooter, LogLevel.DEBUG);
-      System.exit(bobRebooter.run());
+      return bobRebooter.run();
     } catch (final IOException e) {
-      // TODO: print via the logger instead.
-      e.printStackTrace();
-      System.exit(1);
+      throw new BootstrapError(e);
     }
   }
   
@@ -324,145 +469,6 @@ public final class Bob {
     return (BootstrapInfo) ois.readObject();
   }
   
-  private static Action getAction(final Method buildMethod,
-      final Class<? extends BobBuild> buildClass) {
-    try {
-      try {
-        return (Action) buildMethod.invoke(null);
-      } catch (final NullPointerException e) {
-        return (Action) buildMethod.invoke(buildClass
-            .newInstance());
-      }
-    } catch (final Exception e) {
-      throw new BootstrapError(e);
-    }
-  }
-  
-  private static BootstrapInfo compileAndGetBootstrapInfo(
-      final ProjectDescription desc)
-      throws IOException {
-    final Collection<File> classPath = getClassPath(desc);
-    final File classOutputDir = Util.getTemporaryDirectory();
-    classPath.add(classOutputDir);
-    
-    final Builder cacheBuilder = new CompilationCache.Builder(classOutputDir);
-    
-    for (final String sourcePath : desc.getSourcePaths()) {
-      Tuple<Set<File>, Set<URI>> tuple;
-      try {
-        tuple = compile(sourcePath, classPath, classOutputDir);
-      } catch (final NotADirectoryOrCouldNotReadException e) {
-        if (desc.isSourcePathOptional(sourcePath)) {
-          continue;
-        } else {
-          throw new BootstrapError(e);
-        }
-      }
-      
-      cacheBuilder.add(sourcePath, tuple.getFirst(), tuple.getSecond());
-    }
-    
-    final BootstrapInfo info = new BootstrapInfo(cacheBuilder.commit(),
-        classPath);
-    return info;
-  }
-  
-  /**
-   * 
-   * @param sourcePath
-   * @param classPath
-   * @param classOutputDir
-   * @return A {@link Tuple} of source files to their respective class file
-   *         URIs
-   * @throws IOException
-   * @throws NotADirectoryOrCouldNotReadException
-   */
-  private static Tuple<Set<File>, Set<URI>> compile(
-      final String sourcePath,
-      final Iterable<File> classPath, final File classOutputDir)
-      throws IOException, NotADirectoryOrCouldNotReadException {
-    
-    Log.get().log("Preparing to compile source path " + sourcePath,
-        LogLevel.DEBUG);
-    
-    final Set<File> sourceFiles = Util.getFilesRecursively(new File(
-        sourcePath), Util.JAVA_SOURCE_FILE);
-    Log.get().log("Found " + sourceFiles.size() + " file(s) recursively",
-        LogLevel.DEBUG);
-    
-    if (sourceFiles.isEmpty()) {
-      Log.get().log("Nothing to compile, returning...", LogLevel.DEBUG);
-      return Tuple.of((Set<File>) new HashSet<File>(),
-          (Set<URI>) new HashSet<URI>());
-    }
-    
-    final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-    
-    final BobDiagnosticListener diagnosticListener = new BobDiagnosticListener();
-    final BobWrappedJavaFileManager fileManager = new BobWrappedJavaFileManager(
-        compiler.getStandardFileManager(diagnosticListener, null, null));
-    fileManager.setLocation(StandardLocation.CLASS_PATH, classPath);
-    fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections
-        .singleton(classOutputDir));
-    final Iterable<? extends JavaFileObject> sourceFileObjects = fileManager
-        .getJavaFileObjectsFromFiles(sourceFiles);
-    
-    Log.get().log("Compiling " + sourcePath + " ...", LogLevel.DEBUG);
-    
-    compiler.getTask(null, fileManager, diagnosticListener, null, null,
-        sourceFileObjects).call();
-    
-    Log.get().log("Done", LogLevel.DEBUG);
-    
-    if (diagnosticListener.hasProblems()) {
-      for (final Diagnostic<? extends JavaFileObject> problem : diagnosticListener
-          .getProblems()) {
-        System.err.println(problem);
-      }
-      System.exit(1);
-      return Tuple.ofNull();
-    } else {
-      return Tuple.of(sourceFiles, fileManager
-          .getJavaFileURIs());
-    }
-  }
-  
-  private static Collection<File> getClassPath(final ProjectDescription desc) {
-    final Collection<File> jarFiles = new HashSet<File>();
-    
-    Log.get().log("Calculating classpath", LogLevel.DEBUG);
-    
-    for (final String jarFileName : desc.getJarFiles()) {
-      final File jarFile = new File(jarFileName);
-      if (jarFile.canRead()) {
-        Log.get().log("Added " + jarFile.getAbsolutePath(), LogLevel.DEBUG);
-        jarFiles.add(jarFile);
-      } else {
-        Log.get().log("Could not be read: " + jarFile.getAbsolutePath(),
-            LogLevel.WARNING);
-      }
-    }
-    
-    for (final String jarPathName : desc.getJarPaths()) {
-      final File jarPath = new File(jarPathName);
-      if (jarPath.canRead() && jarPath.isDirectory()) {
-        Log.get().log("Adding all jars from " + jarPath.getAbsolutePath(),
-            LogLevel.DEBUG);
-        for (final File jarFile : jarPath.listFiles()) {
-          if (jarFile.getName().endsWith(".jar")) {
-            Log.get().log("Added " + jarFile.getName(), LogLevel.DEBUG);
-            jarFiles.add(jarFile);
-          }
-        }
-      } else if (!desc.isJarPathOptional(jarPathName)) {
-        Log.get().log("Could not read directory "
-            + jarPath.getAbsolutePath(), LogLevel.WARNING);
-      }
-    }
-    
-    return jarFiles;
-  }
-  
   /**
    * <p>
    * Get the build method to call in the build class file.
@@ -559,7 +565,14 @@ public final class Bob {
         buildfile.lastIndexOf("."));
   }
   
-  private static File compileBuildFile(final File buildFile,
+  /**
+   * Compile the build file into memory, unless it has been compiled against
+   * the same classpath before.
+   * 
+   * @return binary name &rarr; class file contents, for the build class and
+   *         its nested classes.
+   */
+  private static Map<String, byte[]> compileBuildFile(final File buildFile,
       final Collection<File> givenClasspath)
       throws CompilationFailedException {
     
@@ -577,28 +590,42 @@ public final class Bob {
       final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
       
       try {
-        final File tempDir = Util.getTemporaryDirectory();
+        final String key = BuildFileCache.getKey(getBuildClassName(),
+            buildFile, classpath);
+        final Map<String, byte[]> cachedClasses = BuildFileCache.get(key);
+        if (cachedClasses != null) {
+          Log.get().log("Using the previously compiled build file",
+              LogLevel.DEBUG);
+          return cachedClasses;
+        }
         
         final DiagnosticCollector<JavaFileObject> diagnosticListener = new DiagnosticCollector<JavaFileObject>();
-        final StandardJavaFileManager fileManager = compiler
+        final StandardJavaFileManager standardFileManager = compiler
             .getStandardFileManager(diagnosticListener, null, null);
-        fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections
-            .singleton(tempDir));
-        fileManager.setLocation(StandardLocation.CLASS_PATH, classpath);
+        standardFileManager.setLocation(StandardLocation.CLASS_PATH,
+            classpath);
+        final InMemoryJavaFileManager fileManager = new InMemoryJavaFileManager(
+            standardFileManager);
         
-        final Iterable<? extends JavaFileObject> javaFiles = fileManager
+        final Iterable<? extends JavaFileObject> javaFiles = standardFileManager
             .getJavaFileObjects(buildFile);
         
         // add debug info
         final List<String> options = Arrays.asList("-g");
         
-        compiler.getTask(null, fileManager, diagnosticListener, options, null,
-            javaFiles).call();
+        try {
+          compiler.getTask(null, fileManager, diagnosticListener, options,
+              null, javaFiles).call();
+        } finally {
+          fileManager.close();
+        }
         
         final List<Diagnostic<? extends JavaFileObject>> diagnostics = diagnosticListener
             .getDiagnostics();
         if (diagnostics.isEmpty()) {
-          return tempDir;
+          final Map<String, byte[]> classes = fileManager.getClasses();
+          BuildFileCache.put(key, classes);
+          return classes;
         } else {
           final StringBuilder causeBuilder = new StringBuilder(
               "The following halted compilation:\n");
@@ -669,6 +696,89 @@ public final class Bob {
         skipBuilding = true;
       }
 
+      else if (Util.isAnyOf(arg, "--fork")) {
+        fork = true;
+      }
+      
+      else if (Util.isAnyOf(arg, BuildWatcher.WATCH_ARG)) {
+        watch = true;
+      }
+      
+      else if (Util.isAnyOf(arg, "-j", "--jobs")) {
+        try {
+          jobs = Integer.parseInt(argQueue.remove());
+          if (jobs < 1) {
+            throw new NumberFormatException();
+          }
+        } catch (final NoSuchElementException e) {
+          showHelp = true;
+          skipBuilding = true;
+          throw new UnrecognizedArgumentException(arg
+              + " was given without a proper argument");
+        } catch (final NumberFormatException e) {
+          showHelp = true;
+          skipBuilding = true;
+          throw new UnrecognizedArgumentException(arg
+              + " needs a positive number as its argument");
+        }
+      }
+      
+      else if (Util.isAnyOf(arg, "--shard")) {
+        try {
+          final String[] shard = argQueue.remove().split("/");
+          if (shard.length != 2) {
+            throw new NumberFormatException();
+          }
+          shardIndex = Integer.parseInt(shard[0]);
+          shardCount = Integer.parseInt(shard[1]);
+          if (shardIndex < 1 || shardIndex > shardCount) {
+            throw new NumberFormatException();
+          }
+        } catch (final NoSuchElementException e) {
+          showHelp = true;
+          skipBuilding = true;
+          throw new UnrecognizedArgumentException(arg
+              + " was given without a proper argument");
+        } catch (final NumberFormatException e) {
+          showHelp = true;
+          skipBuilding = true;
+          throw new UnrecognizedArgumentException(arg
+              + " needs an argument like 2/4, for the second of four shards");
+        }
+      }
+      
+      else if (Util.isAnyOf(arg, "--timings")) {
+        try {
+          shardTimings = new File(argQueue.remove());
+        } catch (final NoSuchElementException e) {
+          showHelp = true;
+          skipBuilding = true;
+          throw new UnrecognizedArgumentException(arg
+              + " was given without a proper argument");
+        }
+      }
+      
+      else if (Util.isAnyOf(arg, "--remote-cache")) {
+        try {
+          BuildCache.set(new BuildCache(new File(Defaults.BUILD_CACHE_PATH),
+              new File(argQueue.remove())));
+        } catch (final NoSuchElementException e) {
+          showHelp = true;
+          skipBuilding = true;
+          throw new UnrecognizedArgumentException(arg
+              + " was given without a proper argument");
+        }
+      }
+      
+      else if (Util.isAnyOf(arg, DaemonClient.NO_DAEMON_ARG)) {
+        // handled by the client already
+      }
+      
+      else if (Util.isAnyOf(arg, DaemonClient.STOP_DAEMON_ARG)) {
+        // handled by the client already
+        skipBuilding = true;
+      }
+      
       else if (Util.isAnyOf(arg, "-f", "--build-file")) {
         try {
           buildfile = argQueue.remove();
@@ -712,6 +822,48 @@ public final class Bob {
     System.out.println(Util.wordWrap("        list targets in a buildfile. " +
                     "Any defined buildtarget will be ignored."));
     System.out.println();
+    System.out.println(" --fork                 ");
+    System.out.println(Util.wordWrap("        run the build in a new JVM, "
+        + "instead of within the JVM that compiled the project."));
+    System.out.println();
+    System.out.println(" --watch                ");
+    System.out.println(Util.wordWrap("        build again whenever the "
+        + "sources, the web content or the build file change. Implies "
+        + "--no-daemon."));
+    System.out.println();
+    System.out.println(" -j, --jobs <n>         ");
+    System.out.println(Util.wordWrap("        do at most n things at the "
+        + "same time. Defaults to the number of processors."));
+    System.out.println();
+    System.out.println(" --shard <i>/<n>        ");
+    System.out.println(Util.wordWrap("        run only the i:th of n slices "
+        + "of the test classes, all of them, whether affected by changes or "
+        + "not. Without --timings, a class is put in a slice by its name "
+        + "alone, so the slices have about as many classes, but not as much "
+        + "to run."));
+    System.out.println();
+    System.out.println(" --timings <file>       ");
+    System.out.println(Util.wordWrap("        split the test classes of "
+        + "--shard into slices that take about as long to run, by the test "
+        + "timings in the given file. Every machine running a slice must be "
+        + "given the same file, such as one committed with the project or "
+        + "copied from " + Defaults.TEST_TIMINGS_PATH + " of an earlier "
+        + "run."));
+    System.out.println();
+    System.out.println(" --remote-cache <dir>   ");
+    System.out.println(Util.wordWrap("        share the outputs of builds "
+        + "through the given directory, in addition to the project's own "
+        + "cache."));
+    System.out.println();
+    System.out.println(" --no-daemon            ");
+    System.out.println(Util.wordWrap("        don't use a background Bob "
+        + "process that keeps compiled classes and the compiler warm "
+        + "between builds."));
+    System.out.println();
+    System.out.println(" --stop-daemon          ");
+    System.out.println(Util.wordWrap("        stop the background Bob "
+        + "process of the project, if one is running."));
+    System.out.println();
     System.out.println(" -f, --build-file <file>");
     System.out.println(Util.wordWrap("        the given file will be " +
                 "used as the build file, instead of the default "
@@ -748,7 +900,39 @@ public final class Bob {
     }
   }
   
+  private static int getDefaultJobs() {
+    return Runtime.getRuntime().availableProcessors();
+  }
+  
   public static String getVersionString() {
     return "Bob " + VERSION;
   }
+  
+  /** The maximum number of things Bob may do concurrently */
+  public static int getJobs() {
+    return jobs;
+  }
+  
+  /**
+   * Which slice of the tests to run, from 1 up to {@link #getShardCount()}
+   */
+  public static int getShardIndex() {
+    return shardIndex;
+  }
+  
+  /** How many slices the tests are split into; 1 to run them all */
+  public static int getShardCount() {
+    return shardCount;
+  }
+  
+  /**
+   * The test timings to split the tests into slices by, shared by all
+   * machines running them.
+   * 
+   * @return the timings file, or <code>null</code> if the tests are to be
+   *         split by their names alone.
+   */
+  public static File getShardTimings() {
+    return shardTimings;
+  }
 }
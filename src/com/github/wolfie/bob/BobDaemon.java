@@ -0,0 +1,254 @@
+package com.github.wolfie.bob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Properties;
+
+import com.github.wolfie.bob.Log.LogLevel;
+
+/**
+ * A long-lived Bob process that runs builds on behalf of a
+ * {@link DaemonClient}.
+ * <p/>
+ * Running one build after another in the same JVM keeps the compiler loaded,
+ * its file manager populated, and the hot code paths compiled by the JIT. A
+ * daemon serves one project only: it runs in the project's directory, and
+ * announces itself in {@value Defaults#DAEMON_PROPERTIES_PATH} with the
+ * loopback port it listens to, a secret token the clients need to present,
+ * and hashes of the Bob jar and the environment it was started from. Only the
+ * user running the daemon may read the file, and clients ignore it otherwise.
+ * <p/>
+ * Builds are run one at a time, with their output sent back to the client.
+ * The daemon stops once it has been idle for
+ * {@value Defaults#DAEMON_IDLE_TIMEOUT_MINUTES} minutes, when a client asks it
+ * to stop, or when another daemon has taken its place.
+ */
+public final class BobDaemon {
+  
+  /**
+   * Sends everything written to it to the client, in frames of the given type.
+   */
+  private static class FrameOutputStream extends OutputStream {
+    private final DataOutputStream out;
+    private final int frameType;
+    
+    public FrameOutputStream(final DataOutputStream out, final int frameType) {
+      this.out = out;
+      this.frameType = frameType;
+    }
+    
+    @Override
+    public void write(final int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+    
+    @Override
+    public void write(final byte[] b, final int off, final int len)
+        throws IOException {
+      synchronized (out) {
+        out.writeByte(frameType);
+        out.writeInt(len);
+        out.write(b, off, len);
+      }
+    }
+    
+    @Override
+    public void flush() throws IOException {
+      synchronized (out) {
+        out.flush();
+      }
+    }
+  }
+  
+  static final String PORT_PROPERTY = "port";
+  static final String TOKEN_PROPERTY = "token";
+  static final String JAR_HASH_PROPERTY = "jarHash";
+  static final String ENVIRONMENT_HASH_PROPERTY = "environmentHash";
+  
+  static final String BUILD_COMMAND = "build";
+  static final String STOP_COMMAND = "stop";
+  
+  /** The frame that ends a conversation, followed by the exit code */
+  static final int EXIT_FRAME = 0;
+  static final int STDOUT_FRAME = 1;
+  static final int STDERR_FRAME = 2;
+  
+  private final File propertiesFile = new File(
+      Defaults.DAEMON_PROPERTIES_PATH);
+  private final String token = new BigInteger(130, new SecureRandom())
+      .toString(32);
+  private final String jarHash;
+  private boolean running = true;
+  
+  private BobDaemon(final String jarHash) {
+    this.jarHash = jarHash;
+  }
+  
+  public static void main(final String[] args) {
+    Log.get().enter("Daemon");
+    
+    try {
+      final File bobJar = DaemonClient.getBobJar();
+      if (bobJar == null) {
+        throw new BootstrapError("The daemon must be run from a Bob jar");
+      }
+      new BobDaemon(Util.getContentHash(bobJar)).serve();
+    } catch (final IOException e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+    
+    // there might be threads left over from the builds
+    System.exit(0);
+  }
+  
+  private void serve() throws IOException {
+    final ServerSocket serverSocket = new ServerSocket(0, 0, InetAddress
+        .getByName(null));
+    serverSocket
+        .setSoTimeout(Defaults.DAEMON_IDLE_TIMEOUT_MINUTES * 60 * 1000);
+    
+    try {
+      announce(serverSocket.getLocalPort());
+      Log.get().log("Listening to port " + serverSocket.getLocalPort(),
+          LogLevel.INFO);
+      
+      while (running) {
+        final Socket socket;
+        try {
+          socket = serverSocket.accept();
+        } catch (final SocketTimeoutException e) {
+          Log.get().log("Stopping after being idle for "
+              + Defaults.DAEMON_IDLE_TIMEOUT_MINUTES + " minutes",
+              LogLevel.INFO);
+          break;
+        }
+        
+        try {
+          serve(socket);
+        } catch (final IOException e) {
+          Log.get().log("Lost connection to the client: " + e,
+              LogLevel.WARNING);
+        } finally {
+          socket.close();
+        }
+        
+        if (running && !isAnnounced()) {
+          Log.get().log("Another daemon has taken over", LogLevel.INFO);
+          break;
+        }
+      }
+    } finally {
+      serverSocket.close();
+      withdraw();
+    }
+  }
+  
+  private void serve(final Socket socket) throws IOException {
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(
+        socket.getInputStream()));
+    final DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(socket.getOutputStream()));
+    
+    if (!token.equals(in.readUTF())) {
+      Log.get().log("A client gave the wrong token", LogLevel.WARNING);
+      return;
+    }
+    
+    final String command = in.readUTF();
+    final int exitCode;
+    if (STOP_COMMAND.equals(command)) {
+      Log.get().log("Stopping on request", LogLevel.INFO);
+      running = false;
+      withdraw();
+      exitCode = 0;
+    } else if (BUILD_COMMAND.equals(command)) {
+      final String[] args = new String[in.readInt()];
+      for (int i = 0; i < args.length; i++) {
+        args[i] = in.readUTF();
+      }
+      exitCode = build(args, out);
+    } else {
+      Log.get().log("Unknown command " + command, LogLevel.WARNING);
+      exitCode = 1;
+    }
+    
+    synchronized (out) {
+      out.writeByte(EXIT_FRAME);
+      out.writeInt(exitCode);
+      out.flush();
+    }
+  }
+  
+  /**
+   * Run a build, with its output redirected to the client.
+   * 
+   * @return the exit code of the build
+   */
+  private static int build(final String[] args, final DataOutputStream out) {
+    Log.get().log("Building with arguments " + Arrays.toString(args),
+        LogLevel.INFO);
+    
+    final PrintStream originalOut = System.out;
+    final PrintStream originalErr = System.err;
+    final PrintStream clientOut = new PrintStream(new FrameOutputStream(out,
+        STDOUT_FRAME), true);
+    final PrintStream clientErr = new PrintStream(new FrameOutputStream(out,
+        STDERR_FRAME), true);
+    
+    System.setOut(clientOut);
+    System.setErr(clientErr);
+    try {
+      return Bob.execute(args);
+    } catch (final Throwable e) {
+      e.printStackTrace();
+      return 1;
+    } finally {
+      clientOut.flush();
+      clientErr.flush();
+      System.setOut(originalOut);
+      System.setErr(originalErr);
+      Log.get().reset();
+    }
+  }
+  
+  private void announce(final int port) throws IOException {
+    final Properties properties = new Properties();
+    properties.setProperty(PORT_PROPERTY, String.valueOf(port));
+    properties.setProperty(TOKEN_PROPERTY, token);
+    properties.setProperty(JAR_HASH_PROPERTY, jarHash);
+    properties.setProperty(ENVIRONMENT_HASH_PROPERTY, DaemonClient
+        .getEnvironmentHash());
+    
+    // the file is private before the token is written into it
+    Util.writePrivately(propertiesFile, Util.getPropertiesWriter(properties,
+        "daemon"));
+  }
+  
+  /** Whether the properties file still points to this daemon */
+  private boolean isAnnounced() {
+    final Properties properties = DaemonClient.readProperties(propertiesFile);
+    return properties != null
+        && token.equals(properties.getProperty(TOKEN_PROPERTY));
+  }
+  
+  private void withdraw() {
+    if (isAnnounced() && !propertiesFile.delete()) {
+      Log.get().log("Could not delete " + propertiesFile.getAbsolutePath(),
+          LogLevel.WARNING);
+    }
+  }
+}
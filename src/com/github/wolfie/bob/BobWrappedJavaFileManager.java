@@ -4,113 +4,94 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
 import javax.tools.JavaFileObject;
 import javax.tools.JavaFileObject.Kind;
 import javax.tools.StandardJavaFileManager;
 
-public class BobWrappedJavaFileManager implements StandardJavaFileManager {
-  private final StandardJavaFileManager wrappedManager;
+/**
+ * A {@link StandardJavaFileManager} that keeps track of the class files the
+ * compiler writes, and from which source file each of them originates.
+ * <p/>
+ * Everything else is delegated to the wrapped file manager. Extending
+ * {@link ForwardingJavaFileManager} makes sure that also the methods added to
+ * {@link javax.tools.JavaFileManager} in newer JDKs get delegated, instead of
+ * falling back to their unsupported default implementations.
+ */
+public class BobWrappedJavaFileManager extends
+    ForwardingJavaFileManager<StandardJavaFileManager> implements
+    StandardJavaFileManager {
   private final HashSet<URI> classFileURIs = new HashSet<URI>();
   
-  public BobWrappedJavaFileManager(final StandardJavaFileManager wrappedManager) {
-    this.wrappedManager = wrappedManager;
-  }
-  
-  @Override
-  public int isSupportedOption(final String option) {
-    return wrappedManager.isSupportedOption(option);
-  }
+  /** source file URI &rarr; URIs of the class files compiled from it */
+  private final Map<URI, Set<URI>> classFileURIsBySource = new HashMap<URI, Set<URI>>();
   
-  @Override
-  public ClassLoader getClassLoader(final Location location) {
-    return wrappedManager.getClassLoader(location);
-  }
-  
-  @Override
-  public boolean isSameFile(final FileObject a, final FileObject b) {
-    return wrappedManager.isSameFile(a, b);
+  public BobWrappedJavaFileManager(final StandardJavaFileManager wrappedManager) {
+    super(wrappedManager);
   }
   
   @Override
   public Iterable<? extends JavaFileObject> getJavaFileObjectsFromFiles(
       final Iterable<? extends File> files) {
-    return wrappedManager.getJavaFileObjectsFromFiles(files);
-  }
-  
-  @Override
-  public Iterable<JavaFileObject> list(final Location location,
-      final String packageName,
-      final Set<Kind> kinds, final boolean recurse) throws IOException {
-    return wrappedManager.list(location, packageName, kinds, recurse);
+    return fileManager.getJavaFileObjectsFromFiles(files);
   }
   
   @Override
   public Iterable<? extends JavaFileObject> getJavaFileObjects(
       final File... files) {
-    return wrappedManager.getJavaFileObjects(files);
+    return fileManager.getJavaFileObjects(files);
   }
   
   @Override
   public Iterable<? extends JavaFileObject> getJavaFileObjectsFromStrings(
       final Iterable<String> names) {
-    return wrappedManager.getJavaFileObjectsFromStrings(names);
+    return fileManager.getJavaFileObjectsFromStrings(names);
   }
   
   @Override
   public Iterable<? extends JavaFileObject> getJavaFileObjects(
       final String... names) {
-    return wrappedManager.getJavaFileObjects(names);
-  }
-  
-  @Override
-  public String inferBinaryName(final Location location,
-      final JavaFileObject file) {
-    return wrappedManager.inferBinaryName(location, file);
+    return fileManager.getJavaFileObjects(names);
   }
   
   @Override
   public void setLocation(final Location location,
       final Iterable<? extends File> path)
       throws IOException {
-    wrappedManager.setLocation(location, path);
-  }
-  
-  @Override
-  public boolean handleOption(final String current,
-      final Iterator<String> remaining) {
-    return wrappedManager.handleOption(current, remaining);
+    fileManager.setLocation(location, path);
   }
   
   @Override
   public Iterable<? extends File> getLocation(final Location location) {
-    return wrappedManager.getLocation(location);
-  }
-  
-  @Override
-  public boolean hasLocation(final Location location) {
-    return wrappedManager.hasLocation(location);
-  }
-  
-  @Override
-  public JavaFileObject getJavaFileForInput(final Location location,
-      final String className, final Kind kind) throws IOException {
-    return wrappedManager.getJavaFileForInput(location, className, kind);
+    return fileManager.getLocation(location);
   }
   
   @Override
   public JavaFileObject getJavaFileForOutput(final Location location,
       final String className, final Kind kind, final FileObject sibling)
       throws IOException {
-    final JavaFileObject javaFileForOutput = wrappedManager
+    final JavaFileObject javaFileForOutput = fileManager
         .getJavaFileForOutput(location, className, kind,
             sibling);
     if (kind.equals(Kind.CLASS)) {
-      classFileURIs.add(getFixedUri(javaFileForOutput));
+      final URI classFileUri = getFixedUri(javaFileForOutput);
+      classFileURIs.add(classFileUri);
+      
+      if (sibling != null) {
+        final URI sourceUri = sibling.toUri();
+        Set<URI> classFilesForSource = classFileURIsBySource.get(sourceUri);
+        if (classFilesForSource == null) {
+          classFilesForSource = new HashSet<URI>();
+          classFileURIsBySource.put(sourceUri, classFilesForSource);
+        }
+        classFilesForSource.add(classFileUri);
+      }
     }
     return javaFileForOutput;
   }
@@ -138,32 +119,26 @@ public class BobWrappedJavaFileManager implements StandardJavaFileManager {
     }
   }
   
-  @Override
-  public FileObject getFileForInput(final Location location,
-      final String packageName,
-      final String relativeName) throws IOException {
-    return wrappedManager.getFileForInput(location, packageName, relativeName);
-  }
-  
-  @Override
-  public FileObject getFileForOutput(final Location location,
-      final String packageName,
-      final String relativeName, final FileObject sibling) throws IOException {
-    return wrappedManager.getFileForOutput(location, packageName, relativeName,
-        sibling);
-  }
-  
-  @Override
-  public void flush() throws IOException {
-    wrappedManager.flush();
-  }
-  
-  @Override
-  public void close() throws IOException {
-    wrappedManager.close();
-  }
-  
   public Set<URI> getJavaFileURIs() {
     return Collections.unmodifiableSet(classFileURIs);
   }
+  
+  /**
+   * Get the class files that were written for a source file during
+   * compilation.
+   * 
+   * @param sourceFile
+   *          a source file that was handed to the compiler.
+   * @return the URIs of the class files compiled from <tt>sourceFile</tt>. Never
+   *         <code>null</code>.
+   */
+  public Set<URI> getJavaFileURIs(final File sourceFile) {
+    final Set<URI> uris = classFileURIsBySource.get(sourceFile
+        .getAbsoluteFile().toURI());
+    if (uris != null) {
+      return Collections.unmodifiableSet(uris);
+    } else {
+      return Collections.emptySet();
+    }
+  }
 }
@@ -6,24 +6,30 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Map;
 
+/**
+ * Loads classes that were compiled into memory, like the build file. All
+ * other classes are loaded by its parent.
+ * 
+ * @see InMemoryJavaFileManager
+ */
 public class BootClassLoader extends ClassLoader {
   
-  private final File methodClassFile;
-  private byte[] bytes = null;
+  /** binary name &rarr; class file contents */
+  private final Map<String, byte[]> classes;
   
-  private BootClassLoader(final File methodClassFile) {
-    this.methodClassFile = methodClassFile;
+  private BootClassLoader(final Map<String, byte[]> classes,
+      final ClassLoader parent) {
+    super(parent);
+    this.classes = classes;
   }
   
   @Override
   protected Class<?> findClass(final String name) throws ClassNotFoundException {
+    final byte[] bytes = classes.get(name);
     if (bytes == null) {
-      try {
-        bytes = getBytesFromFile(methodClassFile);
-      } catch (final IOException e) {
-        throw new ClassNotFoundException(name, e);
-      }
+      throw new ClassNotFoundException(name);
     }
     return defineClass(name, bytes, 0, bytes.length);
   }
@@ -68,12 +74,19 @@ public class BootClassLoader extends ClassLoader {
     }
   }
   
-  public static BootClassLoader get(final File classFile) {
+  /**
+   * @param classes
+   *          binary name &rarr; class file contents
+   * @param parent
+   *          the class loader for all other classes
+   */
+  public static BootClassLoader get(final Map<String, byte[]> classes,
+      final ClassLoader parent) {
     return AccessController
         .doPrivileged(new PrivilegedAction<BootClassLoader>() {
           @Override
           public BootClassLoader run() {
-            return new BootClassLoader(classFile);
+            return new BootClassLoader(classes, parent);
           }
         });
   }
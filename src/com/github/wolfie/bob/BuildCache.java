@@ -0,0 +1,173 @@
+package com.github.wolfie.bob;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Pattern;
+
+import com.github.wolfie.bob.Log.LogLevel;
+import com.github.wolfie.bob.exception.NotADirectoryOrCouldNotReadException;
+
+/**
+ * A content-addressed store of things Bob has built before.
+ * <p/>
+ * Each entry is a directory of files, stored under a key that is a digest of
+ * everything the files were built from. An entry is never changed once it has
+ * been stored, so the same key always gives the same files, whichever branch
+ * or checkout they were built in.
+ * <p/>
+ * The entries are kept in the project's
+ * {@value Defaults#BUILD_CACHE_PATH}. A remote cache, which is just another
+ * directory, can be shared by several machines: everything stored is stored
+ * there too, and the entries missing locally are fetched from there.
+ */
+final class BuildCache {
+  
+  private static final Pattern VALID_KEY = Pattern.compile("[0-9a-f]+");
+  
+  private static BuildCache singleton = null;
+  
+  private final File localDir;
+  private final File remoteDir;
+  
+  /**
+   * @param remoteDir
+   *          the directory of the remote cache, or <code>null</code> if there
+   *          is none.
+   */
+  BuildCache(final File localDir, final File remoteDir) {
+    Util.checkNulls(localDir);
+    this.localDir = localDir;
+    this.remoteDir = remoteDir;
+  }
+  
+  static BuildCache get() {
+    synchronized (BuildCache.class) {
+      if (singleton == null) {
+        singleton = new BuildCache(new File(Defaults.BUILD_CACHE_PATH), null);
+      }
+      return singleton;
+    }
+  }
+  
+  static void set(final BuildCache cache) {
+    synchronized (BuildCache.class) {
+      singleton = cache;
+    }
+  }
+  
+  static void reset() {
+    set(null);
+  }
+  
+  /**
+   * Find an entry, fetching it from the remote cache if it's not found
+   * locally.
+   * 
+   * @return the directory of the entry, or <code>null</code> if there's no
+   *         entry for <tt>key</tt>. The directory must not be modified.
+   */
+  File get(final String key) throws IOException {
+    checkKey(key);
+    
+    final File localEntry = new File(localDir, key);
+    if (localEntry.isDirectory()) {
+      return localEntry;
+    }
+    
+    if (remoteDir != null) {
+      final File remoteEntry = new File(remoteDir, key);
+      if (remoteEntry.isDirectory()) {
+        Log.get().log("Fetching " + key + " from the remote cache",
+            LogLevel.DEBUG);
+        put(localDir, key, getFiles(remoteEntry));
+        return localEntry;
+      }
+    }
+    
+    return null;
+  }
+  
+  /**
+   * Store an entry, unless there already is one for <tt>key</tt>.
+   * 
+   * @param files
+   *          the path of a file within the entry &rarr; the file to copy there
+   */
+  void put(final String key, final Map<String, File> files)
+      throws IOException {
+    checkKey(key);
+    put(localDir, key, files);
+    if (remoteDir != null) {
+      put(remoteDir, key, files);
+    }
+  }
+  
+  /**
+   * The entry is written aside and renamed into place, so that no-one ever
+   * sees a partial entry, even if several builds store the same entry at
+   * once.
+   */
+  private static void put(final File cacheDir, final String key,
+      final Map<String, File> files) throws IOException {
+    final File entry = new File(cacheDir, key);
+    if (entry.isDirectory()) {
+      return;
+    }
+    
+    final File tempEntry = new File(cacheDir, key + ".tmp-"
+        + Thread.currentThread().getId() + "-" + System.nanoTime());
+    try {
+      for (final Entry<String, File> file : files.entrySet()) {
+        copy(file.getValue(), new File(tempEntry, file.getKey()));
+      }
+      if (!tempEntry.isDirectory() && !tempEntry.mkdirs()) {
+        throw new IOException("Could not create "
+            + tempEntry.getAbsolutePath());
+      }
+      
+      if (!tempEntry.renameTo(entry) && !entry.isDirectory()) {
+        throw new IOException("Could not store " + entry.getAbsolutePath());
+      }
+    } finally {
+      if (tempEntry.exists()) {
+        Util.delete(tempEntry);
+      }
+    }
+  }
+  
+  /**
+   * Get the files of a directory.
+   * 
+   * @return the path of each file within <tt>dir</tt> &rarr; the file
+   */
+  static Map<String, File> getFiles(final File dir) throws IOException {
+    final Map<String, File> files = new HashMap<String, File>();
+    try {
+      for (final File file : Util.getFilesRecursively(dir)) {
+        files.put(Util.relativeFileName(dir, file), file);
+      }
+    } catch (final NotADirectoryOrCouldNotReadException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+    return files;
+  }
+  
+  /** Copy a file, replacing <tt>destination</tt> if it exists */
+  static void copy(final File source, final File destination)
+      throws IOException {
+    Util.makeParentDirs(destination);
+    Files.copy(source.toPath(), destination.toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+  
+  private static void checkKey(final String key) {
+    if (!VALID_KEY.matcher(key).matches()) {
+      throw new IllegalArgumentException("Invalid key: " + key);
+    }
+  }
+}
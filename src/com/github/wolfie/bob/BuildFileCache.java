@@ -0,0 +1,174 @@
+package com.github.wolfie.bob;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.github.wolfie.bob.Log.LogLevel;
+import com.github.wolfie.bob.exception.NotADirectoryOrCouldNotReadException;
+
+/**
+ * Keeps the classes compiled from the build file, so that the build file
+ * needs to be compiled only when it, or what it's compiled against, changes.
+ * <p/>
+ * The classes are stored in the {@link BuildCache}, under a key that is a
+ * digest of Bob's version and jar, the Java version, the build file and the
+ * contents of the classpath. The classes used most recently are also kept in
+ * memory, for the daemon and {@value BuildWatcher#WATCH_ARG}, which read the
+ * same build file over and over again.
+ */
+final class BuildFileCache {
+  
+  private static final String CLASS_SUFFIX = ".class";
+  
+  /** How many sets of classes are kept in memory */
+  private static final int MEMORY_ENTRIES = 4;
+  
+  /** key &rarr; binary name &rarr; class file contents */
+  private static final Map<String, Map<String, byte[]>> recentClasses = new LinkedHashMap<String, Map<String, byte[]>>(
+      MEMORY_ENTRIES, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+    
+    @Override
+    protected boolean removeEldestEntry(
+        final Entry<String, Map<String, byte[]>> eldest) {
+      return size() > MEMORY_ENTRIES;
+    }
+  };
+  
+  private BuildFileCache() {
+  }
+  
+  /**
+   * Get the key of the classes compiled from the build file.
+   * 
+   * @param className
+   *          the name of the class compiled, to tell apart the different
+   *          classes compiled from the same build file
+   * @param classPath
+   *          the files and directories the build file is compiled against,
+   *          besides Bob itself
+   */
+  static String getKey(final String className, final File buildFile,
+      final Collection<File> classPath) throws IOException {
+    final FileStateIndex index = FileStateIndex.get();
+    
+    final StringBuilder builder = new StringBuilder();
+    builder.append(Bob.getVersionString()).append('\n');
+    final File bobJar = DaemonClient.getBobJar();
+    if (bobJar != null) {
+      builder.append(index.getHash(bobJar)).append('\n');
+    }
+    builder.append(System.getProperty("java.version")).append('\n');
+    builder.append(className).append('\n');
+    builder.append(index.getHash(buildFile)).append('\n');
+    
+    final List<String> classPathHashes = new ArrayList<String>();
+    for (final File entry : classPath) {
+      if (entry.isDirectory()) {
+        final Collection<File> files;
+        try {
+          files = Util.getFilesRecursively(entry);
+        } catch (final NotADirectoryOrCouldNotReadException e) {
+          throw new IOException(e.getMessage(), e);
+        }
+        for (final Entry<File, String> hash : index.getHashes(files)
+            .entrySet()) {
+          classPathHashes.add(hash.getKey().getAbsolutePath() + "="
+              + hash.getValue());
+        }
+      } else if (entry.isFile()) {
+        classPathHashes.add(entry.getAbsolutePath() + "="
+            + index.getHash(entry));
+      }
+    }
+    Collections.sort(classPathHashes);
+    builder.append(Util.implode("\n", classPathHashes));
+    
+    return Util.getHash(builder.toString());
+  }
+  
+  /**
+   * Get the classes stored under <tt>key</tt>.
+   * 
+   * @return binary name &rarr; class file contents, or <code>null</code> if
+   *         nothing has been stored under <tt>key</tt>.
+   */
+  static Map<String, byte[]> get(final String key) {
+    synchronized (recentClasses) {
+      final Map<String, byte[]> classes = recentClasses.get(key);
+      if (classes != null) {
+        return classes;
+      }
+    }
+    
+    try {
+      final File entry = BuildCache.get().get(key);
+      if (entry == null) {
+        return null;
+      }
+      
+      final Map<String, byte[]> classes = new HashMap<String, byte[]>();
+      for (final Entry<String, File> file : BuildCache.getFiles(entry)
+          .entrySet()) {
+        final String path = file.getKey();
+        final String className = path.substring(0,
+            path.length() - CLASS_SUFFIX.length()).replace(File.separatorChar,
+            '.');
+        classes.put(className, Files.readAllBytes(file.getValue().toPath()));
+      }
+      remember(key, classes);
+      return classes;
+    } catch (final IOException e) {
+      Log.get().log("Could not read the compiled build file from the build "
+          + "cache: " + e.getMessage(), LogLevel.WARNING);
+      return null;
+    }
+  }
+  
+  /**
+   * Store classes under <tt>key</tt>.
+   * 
+   * @param classes
+   *          binary name &rarr; class file contents
+   */
+  static void put(final String key, final Map<String, byte[]> classes) {
+    remember(key, classes);
+    
+    try {
+      final File tempDir = Util.getTemporaryDirectory();
+      try {
+        final Map<String, File> files = new HashMap<String, File>();
+        for (final Entry<String, byte[]> entry : classes.entrySet()) {
+          final String path = entry.getKey().replace('.', File.separatorChar)
+              + CLASS_SUFFIX;
+          final File file = new File(tempDir, path);
+          Util.makeParentDirs(file);
+          Files.write(file.toPath(), entry.getValue());
+          files.put(path, file);
+        }
+        BuildCache.get().put(key, files);
+      } finally {
+        Util.delete(tempDir);
+      }
+    } catch (final IOException e) {
+      Log.get().log("Could not store the compiled build file in the build "
+          + "cache: " + e.getMessage(), LogLevel.WARNING);
+    }
+  }
+  
+  private static void remember(final String key,
+      final Map<String, byte[]> classes) {
+    synchronized (recentClasses) {
+      recentClasses.put(key, Collections.unmodifiableMap(classes));
+    }
+  }
+}
@@ -1,7 +1,6 @@
 package com.github.wolfie.bob;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.annotation.Annotation;
@@ -13,6 +12,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -110,73 +110,63 @@ public class BuildFileUtil {
   
   private static final String DESCRIBE_PROJECT_METHOD_NAME = "describeProject";
   
-  private BuildFileUtil() {
-  }
+  /** The name of the class that is compiled around the description method */
+  private static final String DESCRIPTION_CLASS_NAME = "BobBuildDescription";
   
-  private static File getDescriptionMethodClassFile(final File buildFile)
-      throws IOException {
-    final File sourceFile = getDescriptionMethodSourceFile(buildFile);
-    return compile(sourceFile);
+  private BuildFileUtil() {
   }
   
-  private static File compile(final File sourceFile) {
+  /**
+   * Compile the description method of the build file, in a class of its own.
+   * Both the source and the class files are kept in memory.
+   * 
+   * @return binary name &rarr; class file contents
+   */
+  private static Map<String, byte[]> compileDescriptionMethod(
+      final File buildFile) throws IOException {
+    final String source = getDescriptionMethodSource(buildFile);
+    
     final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
     
     final DiagnosticCollector<JavaFileObject> diagnosticCollector = new DiagnosticCollector<JavaFileObject>();
     
-    final StandardJavaFileManager fileManager = compiler
+    final StandardJavaFileManager standardFileManager = compiler
         .getStandardFileManager(diagnosticCollector, null, null);
-    final Iterable<? extends JavaFileObject> javaFileObjects = fileManager
-        .getJavaFileObjects(sourceFile);
-    
-    compiler.getTask(null, fileManager, diagnosticCollector, null, null,
-        javaFileObjects).call();
+    final InMemoryJavaFileManager fileManager = new InMemoryJavaFileManager(
+        standardFileManager);
+    try {
+      compiler.getTask(null, fileManager, diagnosticCollector, null, null,
+          Collections.singleton(InMemoryJavaFileManager.getSource(
+              DESCRIPTION_CLASS_NAME, source))).call();
+    } finally {
+      fileManager.close();
+    }
     
     final List<Diagnostic<? extends JavaFileObject>> diagnostics = diagnosticCollector
         .getDiagnostics();
-    if (diagnostics.isEmpty()) {
-      final String classFileName = sourceFile.getAbsolutePath().replaceAll(
-          ".java$", ".class");
-      final File classFile = new File(classFileName);
-      if (classFile.exists()) {
-        return classFile;
-      } else {
-        System.err.println("class file not found: " + classFileName);
-        return null;
+    if (!diagnostics.isEmpty()) {
+      for (final Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+        System.err.println(diagnostic.toString());
       }
+      throw new BobRuntimeException("Could not compile the "
+          + DESCRIBE_PROJECT_METHOD_NAME + "() method of "
+          + buildFile.getAbsolutePath());
     }
     
-    for (final Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
-      System.err.println(diagnostic.toString());
-    }
-    
-    return null;
+    return fileManager.getClasses();
   }
   
-  private static File getDescriptionMethodSourceFile(final File buildFile)
+  private static String getDescriptionMethodSource(final File buildFile)
       throws IOException {
     final String methodBodyString = getDescriptionMethod(buildFile);
-    final File methodSourceFile = File.createTempFile("BobBuildDesc", ".java");
-    final String methodClassName = getClassName(methodSourceFile);
     
-    final String classString = String.format(
-        "import %s;\npublic class %s extends %s { %s }",
+    return String.format(
+        "import %s;\nimport %s;\npublic class %s extends %s { %s }",
         ProjectDescription.class.getName(),
-        methodClassName,
+        ModuleDescription.class.getName(),
+        DESCRIPTION_CLASS_NAME,
         BobBuild.class.getName(),
         methodBodyString);
-    
-    final FileWriter sourceWriter = new FileWriter(methodSourceFile);
-    sourceWriter.write(classString);
-    sourceWriter.close();
-    return methodSourceFile;
-  }
-  
-  private static String getClassName(final File methodSourceFile) {
-    final String absolutePath = methodSourceFile.getAbsolutePath();
-    final String parentPath = methodSourceFile.getParent();
-    return absolutePath.substring(parentPath.length() + 1, absolutePath
-        .lastIndexOf('.'));
   }
   
   private static String getDescriptionMethod(final File file)
@@ -321,14 +311,21 @@ public class BuildFileUtil {
               + buildFile.getAbsolutePath(), LogLevel.DEBUG);
       Log.get().indentMore();
       
-      final File descClassFile = getDescriptionMethodClassFile(buildFile);
-      
-      Log.get().log("Classfile: " + descClassFile.getAbsolutePath(),
-          LogLevel.DEBUG);
+      final String key = BuildFileCache.getKey(DESCRIPTION_CLASS_NAME,
+          buildFile, Collections.<File> emptyList());
+      Map<String, byte[]> descClasses = BuildFileCache.get(key);
+      if (descClasses != null) {
+        Log.get().log("Using the previously compiled description method",
+            LogLevel.DEBUG);
+      } else {
+        descClasses = compileDescriptionMethod(buildFile);
+        BuildFileCache.put(key, descClasses);
+      }
       
-      final ClassLoader descClassLoader = BootClassLoader.get(descClassFile);
-      final String descClassName = getClassName(descClassFile);
-      final Class<?> descClass = descClassLoader.loadClass(descClassName);
+      final ClassLoader descClassLoader = BootClassLoader.get(descClasses,
+          BuildFileUtil.class.getClassLoader());
+      final Class<?> descClass = descClassLoader
+          .loadClass(DESCRIPTION_CLASS_NAME);
       final Method method = descClass
           .getDeclaredMethod(DESCRIBE_PROJECT_METHOD_NAME);
       method.setAccessible(true);
@@ -0,0 +1,223 @@
+package com.github.wolfie.bob;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.github.wolfie.bob.Log.LogLevel;
+import com.github.wolfie.bob.exception.BobRuntimeException;
+
+/**
+ * Waits for changes in the files a build depends on: the source paths and
+ * library directories of all modules, the web content, and the build file.
+ * <p/>
+ * The directories are watched with a {@link WatchService}, so nothing is
+ * scanned while waiting. Saving a file often causes a burst of changes, so
+ * the watcher waits until nothing has changed for a while before it returns.
+ * Directories whose names start with a dot, and the artifacts directory, are
+ * not watched, and neither are changes to files whose names start with a dot,
+ * like the swap files of editors.
+ * <p/>
+ * The watched directories are read from the build file's project description
+ * before each wait, so that modules added to the build file are watched too.
+ */
+final class BuildWatcher {
+  
+  static final String WATCH_ARG = "--watch";
+  
+  /** How long nothing needs to change before the build is run again */
+  private static final long QUIET_PERIOD_MILLIS = 300;
+  
+  private final File buildFile;
+  
+  private WatchService watchService = null;
+  private Set<Path> watchedRoots = null;
+  
+  /** The watched directories, by their keys */
+  private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+  
+  /** The keys of the directories in which every change matters */
+  private final Set<WatchKey> recursiveKeys = new HashSet<WatchKey>();
+  
+  BuildWatcher(final File buildFile) {
+    Util.checkNulls(buildFile);
+    this.buildFile = buildFile.getAbsoluteFile();
+  }
+  
+  /**
+   * Wait until some of the files the build depends on have changed, and then
+   * until they have stopped changing.
+   */
+  void awaitChanges() throws IOException, InterruptedException {
+    final Set<Path> roots = getWatchedRoots();
+    if (!roots.equals(watchedRoots)) {
+      watch(roots);
+    }
+    
+    Log.get().log("Waiting for changes", LogLevel.INFO);
+    
+    boolean changed = false;
+    while (!changed) {
+      changed = handle(watchService.take());
+    }
+    
+    WatchKey key;
+    while ((key = watchService.poll(QUIET_PERIOD_MILLIS,
+        TimeUnit.MILLISECONDS)) != null) {
+      handle(key);
+    }
+  }
+  
+  private Set<Path> getWatchedRoots() {
+    final Set<Path> roots = new HashSet<Path>();
+    
+    try {
+      final ProjectDescription desc = BuildFileUtil
+          .getProjectDescription(buildFile);
+      for (final ModuleDescription module : ModuleScheduler.getModules(desc)
+          .values()) {
+        for (final String sourcePath : module.getSourcePaths()) {
+          addRoot(roots, sourcePath);
+        }
+        for (final String jarPath : module.getJarPaths()) {
+          addRoot(roots, jarPath);
+        }
+      }
+    } catch (final BobRuntimeException e) {
+      Log.get().log("Could not read the project description, so only the "
+          + "build file is watched: " + e.getMessage(), LogLevel.WARNING);
+    }
+    addRoot(roots, Defaults.WEB_CONTENT_PATH);
+    
+    return roots;
+  }
+  
+  private static void addRoot(final Set<Path> roots, final String path) {
+    final File dir = new File(path).getAbsoluteFile();
+    if (dir.isDirectory()) {
+      roots.add(dir.toPath().normalize());
+    }
+  }
+  
+  private void watch(final Set<Path> roots) throws IOException {
+    close();
+    watchService = FileSystems.getDefault().newWatchService();
+    
+    for (final Path root : roots) {
+      registerAll(root);
+    }
+    
+    final Path buildFileDir = buildFile.toPath().getParent();
+    final WatchKey buildFileKey = buildFileDir.register(watchService,
+        ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+    directories.put(buildFileKey, buildFileDir);
+    
+    watchedRoots = roots;
+    Log.get().log("Watching " + directories.size() + " directories",
+        LogLevel.DEBUG);
+  }
+  
+  /** Watch a directory and all its subdirectories */
+  private void registerAll(final Path root) throws IOException {
+    final Path artifactsDir = new File(Defaults.ARTIFACTS_PATH)
+        .getAbsoluteFile().toPath().normalize();
+    
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(final Path dir,
+          final BasicFileAttributes attrs) throws IOException {
+        if (dir.equals(artifactsDir)
+            || (!dir.equals(root) && isHidden(dir.getFileName()))) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        
+        final WatchKey key = dir.register(watchService, ENTRY_CREATE,
+            ENTRY_DELETE, ENTRY_MODIFY);
+        directories.put(key, dir);
+        recursiveKeys.add(key);
+        return FileVisitResult.CONTINUE;
+      }
+      
+      @Override
+      public FileVisitResult visitFileFailed(final Path file,
+          final IOException e) {
+        Log.get().log("Could not watch " + file + ": " + e, LogLevel.DEBUG);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+  
+  /**
+   * Handle the events of a directory.
+   * 
+   * @return whether any of the events was a change that matters to the build
+   */
+  private boolean handle(final WatchKey key) throws IOException {
+    final Path dir = directories.get(key);
+    final boolean recursive = recursiveKeys.contains(key);
+    
+    boolean changed = false;
+    for (final WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW) {
+        changed = true;
+        continue;
+      }
+      
+      final Path name = (Path) event.context();
+      if (isHidden(name)) {
+        continue;
+      }
+      
+      if (recursive) {
+        final Path child = dir.resolve(name);
+        if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+          registerAll(child);
+        }
+        Log.get().log("Changed: " + child, LogLevel.DEBUG);
+        changed = true;
+      } else if (name.toString().equals(buildFile.getName())) {
+        Log.get().log("Changed: " + buildFile.getPath(), LogLevel.DEBUG);
+        changed = true;
+      }
+    }
+    
+    if (!key.reset()) {
+      directories.remove(key);
+      recursiveKeys.remove(key);
+    }
+    return changed;
+  }
+  
+  private static boolean isHidden(final Path name) {
+    return name != null && name.toString().startsWith(".");
+  }
+  
+  /** Stop watching */
+  void close() throws IOException {
+    if (watchService != null) {
+      watchService.close();
+      watchService = null;
+    }
+    directories.clear();
+    recursiveKeys.clear();
+    watchedRoots = null;
+  }
+}
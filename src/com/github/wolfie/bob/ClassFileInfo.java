@@ -0,0 +1,553 @@
+package com.github.wolfie.bob;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The parts of a compiled class file that Bob is interested in, read straight
+ * from the bytecode without loading the class.
+ * <p/>
+ * All class names are binary names, such as
+ * <tt>com.example.Outer$Inner</tt>.
+ * 
+ * @see <a
+ *      href="http://java.sun.com/docs/books/jvms/second_edition/html/ClassFile.doc.html">The
+ *      class File Format</a>
+ */
+public final class ClassFileInfo {
+  
+  private static final int MAGIC = 0xCAFEBABE;
+  
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_INTEGER = 3;
+  private static final int CONSTANT_FLOAT = 4;
+  private static final int CONSTANT_LONG = 5;
+  private static final int CONSTANT_DOUBLE = 6;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_FIELDREF = 9;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_INTERFACE_METHODREF = 11;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+  private static final int CONSTANT_METHOD_HANDLE = 15;
+  private static final int CONSTANT_METHOD_TYPE = 16;
+  private static final int CONSTANT_DYNAMIC = 17;
+  private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+  private static final int CONSTANT_MODULE = 19;
+  private static final int CONSTANT_PACKAGE = 20;
+  
+  /** Finds the class names in field and method descriptors and signatures */
+  private static final Pattern DESCRIPTOR_CLASS_PATTERN = Pattern
+      .compile("L([^;<]+)[;<]");
+  
+  private static final int ACC_PUBLIC = 0x0001;
+  private static final int ACC_PRIVATE = 0x0002;
+  private static final int ACC_PROTECTED = 0x0004;
+  private static final int ACC_STATIC = 0x0008;
+  private static final int ACC_FINAL = 0x0010;
+  private static final int ACC_VOLATILE = 0x0040;
+  private static final int ACC_VARARGS = 0x0080;
+  private static final int ACC_INTERFACE = 0x0200;
+  private static final int ACC_ABSTRACT = 0x0400;
+  private static final int ACC_SYNTHETIC = 0x1000;
+  private static final int ACC_ANNOTATION = 0x2000;
+  private static final int ACC_ENUM = 0x4000;
+  
+  /** The access flags that are part of a class' API */
+  private static final int CLASS_ACCESS_MASK = ACC_PUBLIC | ACC_FINAL
+      | ACC_INTERFACE | ACC_ABSTRACT | ACC_ANNOTATION | ACC_ENUM;
+  private static final int INNER_CLASS_ACCESS_MASK = CLASS_ACCESS_MASK
+      | ACC_PRIVATE | ACC_PROTECTED | ACC_STATIC;
+  private static final int FIELD_ACCESS_MASK = ACC_PUBLIC | ACC_PROTECTED
+      | ACC_STATIC | ACC_FINAL | ACC_VOLATILE | ACC_ENUM;
+  private static final int METHOD_ACCESS_MASK = ACC_PUBLIC | ACC_PROTECTED
+      | ACC_STATIC | ACC_FINAL | ACC_ABSTRACT | ACC_VARARGS;
+  
+  private static final String STATIC_INITIALIZER_NAME = "<clinit>";
+  
+  private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+  private static final String RUNTIME_INVISIBLE_ANNOTATIONS = "RuntimeInvisibleAnnotations";
+  private static final String RUNTIME_VISIBLE_PARAMETER_ANNOTATIONS = "RuntimeVisibleParameterAnnotations";
+  private static final String RUNTIME_INVISIBLE_PARAMETER_ANNOTATIONS = "RuntimeInvisibleParameterAnnotations";
+  private static final String SIGNATURE = "Signature";
+  private static final String EXCEPTIONS = "Exceptions";
+  private static final String CONSTANT_VALUE = "ConstantValue";
+  private static final String ANNOTATION_DEFAULT = "AnnotationDefault";
+  private static final String INNER_CLASSES = "InnerClasses";
+  
+  private final String className;
+  private final String superClassName;
+  private final Set<String> interfaceNames = new LinkedHashSet<String>();
+  private final int accessFlags;
+  private final Set<String> referencedClassNames = new HashSet<String>();
+  private final Set<String> annotationNames = new HashSet<String>();
+  private final Set<String> methodAnnotationNames = new HashSet<String>();
+  private final String apiFingerprint;
+  private final String constantsFingerprint;
+  
+  /** the constant pool, indexed like in the class file. */
+  private final Object[] constants;
+  
+  private ClassFileInfo(final DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a class file");
+    }
+    
+    // minor and major versions
+    in.readUnsignedShort();
+    in.readUnsignedShort();
+    
+    constants = readConstantPool(in);
+    
+    accessFlags = in.readUnsignedShort();
+    className = getClassConstant(in.readUnsignedShort());
+    superClassName = getClassConstant(in.readUnsignedShort());
+    
+    final int interfaceCount = in.readUnsignedShort();
+    for (int i = 0; i < interfaceCount; i++) {
+      interfaceNames.add(getClassConstant(in.readUnsignedShort()));
+    }
+    
+    final List<String> api = new ArrayList<String>();
+    final List<String> constantFields = new ArrayList<String>();
+    
+    final int fieldCount = in.readUnsignedShort();
+    for (int i = 0; i < fieldCount; i++) {
+      final String field = readMember(in, FIELD_ACCESS_MASK, null);
+      if (field != null) {
+        api.add(field);
+        if (field.contains(CONSTANT_VALUE + "=")) {
+          constantFields.add(field);
+        }
+      }
+    }
+    
+    final int methodCount = in.readUnsignedShort();
+    for (int i = 0; i < methodCount; i++) {
+      final String method = readMember(in, METHOD_ACCESS_MASK,
+          methodAnnotationNames);
+      if (method != null) {
+        api.add(method);
+      }
+    }
+    
+    // the order of members doesn't matter
+    Collections.sort(api);
+    api.add(0, (accessFlags & CLASS_ACCESS_MASK) + " " + className + " "
+        + superClassName + " " + interfaceNames + " "
+        + readAttributes(in, annotationNames));
+    
+    collectReferencesFromConstants();
+    referencedClassNames.remove(className);
+    
+    apiFingerprint = Util.getHash(Util.implode("\n", api));
+    if (!constantFields.isEmpty()) {
+      Collections.sort(constantFields);
+      constantsFingerprint = Util.getHash(Util.implode("\n", constantFields));
+    } else {
+      constantsFingerprint = null;
+    }
+  }
+  
+  public static ClassFileInfo read(final byte[] bytes) throws IOException {
+    return new ClassFileInfo(new DataInputStream(new ByteArrayInputStream(
+        bytes)));
+  }
+  
+  public static ClassFileInfo read(final File classFile) throws IOException {
+    try {
+      return read(BootClassLoader.getBytesFromFile(classFile));
+    } catch (final IOException e) {
+      throw new IOException("Could not read class file "
+          + classFile.getAbsolutePath() + ": " + e.getMessage());
+    }
+  }
+  
+  private static Object[] readConstantPool(final DataInputStream in)
+      throws IOException {
+    final int count = in.readUnsignedShort();
+    final Object[] constants = new Object[count];
+    
+    for (int i = 1; i < count; i++) {
+      final int tag = in.readUnsignedByte();
+      switch (tag) {
+      case CONSTANT_UTF8:
+        constants[i] = in.readUTF();
+        break;
+      case CONSTANT_INTEGER:
+        constants[i] = Integer.valueOf(in.readInt());
+        break;
+      case CONSTANT_FLOAT:
+        constants[i] = Float.valueOf(in.readFloat());
+        break;
+      case CONSTANT_LONG:
+        constants[i] = Long.valueOf(in.readLong());
+        // 8-byte constants take two slots
+        i++;
+        break;
+      case CONSTANT_DOUBLE:
+        constants[i] = Double.valueOf(in.readDouble());
+        i++;
+        break;
+      case CONSTANT_CLASS:
+      case CONSTANT_STRING:
+      case CONSTANT_METHOD_TYPE:
+      case CONSTANT_MODULE:
+      case CONSTANT_PACKAGE:
+        constants[i] = new Reference(tag, in.readUnsignedShort(), 0);
+        break;
+      case CONSTANT_FIELDREF:
+      case CONSTANT_METHODREF:
+      case CONSTANT_INTERFACE_METHODREF:
+      case CONSTANT_NAME_AND_TYPE:
+      case CONSTANT_DYNAMIC:
+      case CONSTANT_INVOKE_DYNAMIC:
+        constants[i] = new Reference(tag, in.readUnsignedShort(), in
+            .readUnsignedShort());
+        break;
+      case CONSTANT_METHOD_HANDLE:
+        constants[i] = new Reference(tag, in.readUnsignedByte(), in
+            .readUnsignedShort());
+        break;
+      default:
+        throw new IOException("Unknown constant pool tag " + tag
+            + " at index " + i);
+      }
+    }
+    
+    return constants;
+  }
+  
+  /** A constant pool entry that refers to other entries */
+  private static final class Reference {
+    private final int tag;
+    private final int first;
+    private final int second;
+    
+    private Reference(final int tag, final int first, final int second) {
+      this.tag = tag;
+      this.first = first;
+      this.second = second;
+    }
+  }
+  
+  /**
+   * Read a field or a method.
+   * 
+   * @param annotationNames
+   *          where to add the names of the member's runtime visible
+   *          annotations, or <code>null</code>
+   * @return a description of the member's API, or <code>null</code> if the
+   *         member isn't visible outside of the class
+   */
+  private String readMember(final DataInputStream in, final int accessMask,
+      final Set<String> annotationNames) throws IOException {
+    final int memberAccessFlags = in.readUnsignedShort();
+    final String name = getUtf8Constant(in.readUnsignedShort());
+    final String descriptor = getUtf8Constant(in.readUnsignedShort());
+    addReferencesFromDescriptor(descriptor);
+    final String attributes = readAttributes(in, annotationNames);
+    
+    if ((memberAccessFlags & (ACC_PRIVATE | ACC_SYNTHETIC)) != 0
+        || STATIC_INITIALIZER_NAME.equals(name)) {
+      return null;
+    } else {
+      return (memberAccessFlags & accessMask) + " " + name + " " + descriptor
+          + " " + attributes;
+    }
+  }
+  
+  /**
+   * Read the attributes of a class or a member.
+   * 
+   * @param annotationNames
+   *          where to add the names of the runtime visible annotations, or
+   *          <code>null</code>
+   * @return a description of the attributes that affect the API
+   */
+  private String readAttributes(final DataInputStream in,
+      final Set<String> annotationNames) throws IOException {
+    final List<String> apiAttributes = new ArrayList<String>();
+    
+    final int attributeCount = in.readUnsignedShort();
+    for (int i = 0; i < attributeCount; i++) {
+      final String name = getUtf8Constant(in.readUnsignedShort());
+      final byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      final DataInputStream attributeIn = new DataInputStream(
+          new ByteArrayInputStream(bytes));
+      
+      if (RUNTIME_VISIBLE_ANNOTATIONS.equals(name)) {
+        apiAttributes.add(name + "="
+            + readAnnotations(attributeIn, annotationNames));
+      } else if (RUNTIME_INVISIBLE_ANNOTATIONS.equals(name)) {
+        apiAttributes.add(name + "=" + readAnnotations(attributeIn, null));
+      } else if (RUNTIME_VISIBLE_PARAMETER_ANNOTATIONS.equals(name)
+          || RUNTIME_INVISIBLE_PARAMETER_ANNOTATIONS.equals(name)) {
+        final int parameterCount = attributeIn.readUnsignedByte();
+        final StringBuilder builder = new StringBuilder();
+        for (int parameter = 0; parameter < parameterCount; parameter++) {
+          builder.append(readAnnotations(attributeIn, null));
+        }
+        apiAttributes.add(name + "=" + builder);
+      } else if (SIGNATURE.equals(name)) {
+        final String signature = getUtf8Constant(attributeIn
+            .readUnsignedShort());
+        addReferencesFromDescriptor(signature);
+        apiAttributes.add(name + "=" + signature);
+      } else if (EXCEPTIONS.equals(name)) {
+        final Set<String> exceptions = new TreeSet<String>();
+        final int exceptionCount = attributeIn.readUnsignedShort();
+        for (int exception = 0; exception < exceptionCount; exception++) {
+          exceptions.add(getClassConstant(attributeIn.readUnsignedShort()));
+        }
+        apiAttributes.add(name + "=" + exceptions);
+      } else if (CONSTANT_VALUE.equals(name)) {
+        apiAttributes.add(name + "="
+            + getConstantValue(attributeIn.readUnsignedShort()));
+      } else if (ANNOTATION_DEFAULT.equals(name)) {
+        apiAttributes.add(name + "=" + readElementValue(attributeIn));
+      } else if (INNER_CLASSES.equals(name)) {
+        final String ownFlags = readOwnInnerClassFlags(attributeIn);
+        if (ownFlags != null) {
+          apiAttributes.add(name + "=" + ownFlags);
+        }
+      }
+    }
+    
+    Collections.sort(apiAttributes);
+    return apiAttributes.toString();
+  }
+  
+  /**
+   * Nested classes have their actual access flags stored in the InnerClasses
+   * attribute, instead of the class' own access flags.
+   * 
+   * @return the access flags of this class, if it's a nested class.
+   *         Otherwise <code>null</code>.
+   */
+  private String readOwnInnerClassFlags(final DataInputStream in)
+      throws IOException {
+    String ownFlags = null;
+    final int classCount = in.readUnsignedShort();
+    for (int i = 0; i < classCount; i++) {
+      final int innerClassIndex = in.readUnsignedShort();
+      // outer class and simple name
+      in.readUnsignedShort();
+      in.readUnsignedShort();
+      final int innerClassFlags = in.readUnsignedShort();
+      
+      if (className.equals(getClassConstant(innerClassIndex))) {
+        ownFlags = String.valueOf(innerClassFlags & INNER_CLASS_ACCESS_MASK);
+      }
+    }
+    return ownFlags;
+  }
+  
+  private String readAnnotations(final DataInputStream in,
+      final Set<String> annotationNames) throws IOException {
+    final List<String> annotations = new ArrayList<String>();
+    final int annotationCount = in.readUnsignedShort();
+    for (int i = 0; i < annotationCount; i++) {
+      annotations.add(readAnnotation(in, annotationNames));
+    }
+    Collections.sort(annotations);
+    return annotations.toString();
+  }
+  
+  private String readAnnotation(final DataInputStream in,
+      final Set<String> annotationNames) throws IOException {
+    final String type = getUtf8Constant(in.readUnsignedShort());
+    addReferencesFromDescriptor(type);
+    if (annotationNames != null) {
+      // a descriptor like Lorg/junit/Test;
+      annotationNames.add(toBinaryName(type.substring(1, type.length() - 1)));
+    }
+    
+    final List<String> elements = new ArrayList<String>();
+    final int pairCount = in.readUnsignedShort();
+    for (int i = 0; i < pairCount; i++) {
+      final String elementName = getUtf8Constant(in.readUnsignedShort());
+      elements.add(elementName + "=" + readElementValue(in));
+    }
+    Collections.sort(elements);
+    return "@" + type + elements;
+  }
+  
+  private String readElementValue(final DataInputStream in)
+      throws IOException {
+    final char tag = (char) in.readUnsignedByte();
+    switch (tag) {
+    case 'e':
+      final String enumType = getUtf8Constant(in.readUnsignedShort());
+      addReferencesFromDescriptor(enumType);
+      return enumType + "." + getUtf8Constant(in.readUnsignedShort());
+    case 'c':
+      final String classDescriptor = getUtf8Constant(in.readUnsignedShort());
+      addReferencesFromDescriptor(classDescriptor);
+      return classDescriptor;
+    case '@':
+      return readAnnotation(in, null);
+    case '[':
+      final List<String> values = new ArrayList<String>();
+      final int valueCount = in.readUnsignedShort();
+      for (int i = 0; i < valueCount; i++) {
+        values.add(readElementValue(in));
+      }
+      return values.toString();
+    default:
+      // a primitive or a String constant
+      return tag + String.valueOf(constants[in.readUnsignedShort()]);
+    }
+  }
+  
+  private void collectReferencesFromConstants() {
+    for (final Object constant : constants) {
+      if (constant instanceof Reference) {
+        final Reference reference = (Reference) constant;
+        if (reference.tag == CONSTANT_CLASS) {
+          addReferencedClass(getUtf8Constant(reference.first));
+        } else if (reference.tag == CONSTANT_NAME_AND_TYPE) {
+          addReferencesFromDescriptor(getUtf8Constant(reference.second));
+        } else if (reference.tag == CONSTANT_METHOD_TYPE) {
+          addReferencesFromDescriptor(getUtf8Constant(reference.first));
+        }
+      }
+    }
+  }
+  
+  /**
+   * @param internalName
+   *          a class name like <tt>java/lang/String</tt>, or an array type
+   *          like <tt>[Ljava/lang/String;</tt>
+   */
+  private void addReferencedClass(final String internalName) {
+    if (internalName.startsWith("[")) {
+      addReferencesFromDescriptor(internalName);
+    } else {
+      referencedClassNames.add(toBinaryName(internalName));
+    }
+  }
+  
+  private void addReferencesFromDescriptor(final String descriptor) {
+    final Matcher matcher = DESCRIPTOR_CLASS_PATTERN.matcher(descriptor);
+    while (matcher.find()) {
+      referencedClassNames.add(toBinaryName(matcher.group(1)));
+    }
+  }
+  
+  private static String toBinaryName(final String internalName) {
+    return internalName.replace('/', '.');
+  }
+  
+  private String getUtf8Constant(final int index) {
+    return (String) constants[index];
+  }
+  
+  /** @return the value of a field's <tt>ConstantValue</tt>, as a String */
+  private String getConstantValue(final int index) {
+    final Object constant = constants[index];
+    if (constant instanceof Reference) {
+      // CONSTANT_String
+      return "\"" + getUtf8Constant(((Reference) constant).first) + "\"";
+    } else {
+      return String.valueOf(constant);
+    }
+  }
+  
+  /**
+   * @return the binary name of the class in the given constant pool index, or
+   *         <code>null</code> if <tt>index</tt> is 0.
+   */
+  private String getClassConstant(final int index) {
+    if (index == 0) {
+      return null;
+    }
+    final Reference reference = (Reference) constants[index];
+    return toBinaryName(getUtf8Constant(reference.first));
+  }
+  
+  /** The binary name of the class */
+  public String getClassName() {
+    return className;
+  }
+  
+  /**
+   * The binary name of the superclass, or <code>null</code> for
+   * {@link Object}.
+   */
+  public String getSuperClassName() {
+    return superClassName;
+  }
+  
+  public Set<String> getInterfaceNames() {
+    return Collections.unmodifiableSet(interfaceNames);
+  }
+  
+  /** @see java.lang.reflect.Modifier */
+  public int getAccessFlags() {
+    return accessFlags;
+  }
+  
+  /**
+   * Get the names of the runtime visible annotations on the class itself.
+   */
+  public Set<String> getAnnotationNames() {
+    return Collections.unmodifiableSet(annotationNames);
+  }
+  
+  /**
+   * Get the names of the runtime visible annotations on any of the methods
+   * the class declares.
+   */
+  public Set<String> getMethodAnnotationNames() {
+    return Collections.unmodifiableSet(methodAnnotationNames);
+  }
+  
+  /**
+   * Get the names of all classes this class refers to in any way: in its code,
+   * its members' signatures, or its annotations. The class itself is not
+   * included.
+   */
+  public Set<String> getReferencedClassNames() {
+    return Collections.unmodifiableSet(referencedClassNames);
+  }
+  
+  /**
+   * Get a fingerprint of the class' API, as seen by other classes: its
+   * signature, the signatures of its non-private members, the values of its
+   * constants, and all annotations on them. Changes in method bodies or
+   * private members don't affect the fingerprint.
+   */
+  public String getApiFingerprint() {
+    return apiFingerprint;
+  }
+  
+  /**
+   * Get a fingerprint of the compile-time constants the class exposes to other
+   * classes. The compiler inlines the values of such constants into the
+   * classes using them, without leaving a reference behind.
+   * 
+   * @return the fingerprint, or <code>null</code> if the class has no such
+   *         constants.
+   */
+  public String getConstantsFingerprint() {
+    return constantsFingerprint;
+  }
+  
+  @Override
+  public String toString() {
+    return ClassFileInfo.class.getSimpleName() + "[" + className + "]";
+  }
+}
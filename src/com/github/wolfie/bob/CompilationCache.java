@@ -3,6 +3,8 @@ package com.github.wolfie.bob;
 import java.io.File;
 import java.io.Serializable;
 import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -43,9 +45,39 @@ public final class CompilationCache implements Serializable {
      */
     public Builder add(final String srcPath, final Set<File> sourceFiles,
         final Set<URI> set) {
+      return add(srcPath, cache.baseDirForClasses, sourceFiles, set);
+    }
+    
+    /**
+     * Add a source path whose classes were compiled into a base directory of
+     * their own, such as a module's.
+     * 
+     * @throws IllegalStateException
+     *           if {@link #commit()} has been called.
+     */
+    public Builder add(final String srcPath, final File baseDirForClasses,
+        final Set<File> sourceFiles, final Set<URI> set) {
       if (!isBuilt) {
         cache.sourceFiles.put(srcPath, sourceFiles);
         cache.classFiles.put(srcPath, set);
+        cache.baseDirsForClasses.put(srcPath, baseDirForClasses);
+        return this;
+      } else {
+        throw new IllegalStateException("The "
+            + CompilationCache.class.getSimpleName()
+            + " was already built. Cannot add to it anymore.");
+      }
+    }
+    
+    /**
+     * Add jar files that the compiled classes were compiled against.
+     * 
+     * @throws IllegalStateException
+     *           if {@link #commit()} has been called.
+     */
+    public Builder addJars(final Collection<File> jars) {
+      if (!isBuilt) {
+        cache.jars.addAll(jars);
         return this;
       } else {
         throw new IllegalStateException("The "
@@ -60,12 +92,14 @@ public final class CompilationCache implements Serializable {
     }
   }
   
-  private static final long serialVersionUID = -8990384639233236252L;
+  private static final long serialVersionUID = 6384011259390815540L;
   
   private static CompilationCache singleton;
   
   private final Map<String, Set<File>> sourceFiles = new HashMap<String, Set<File>>();
   private final HashMap<String, Set<URI>> classFiles = new HashMap<String, Set<URI>>();
+  private final Map<String, File> baseDirsForClasses = new HashMap<String, File>();
+  private final Set<File> jars = new HashSet<File>();
   private final File baseDirForClasses;
   
   private CompilationCache(final File baseDirForClasses) {
@@ -115,12 +149,41 @@ public final class CompilationCache implements Serializable {
   /**
    * Get the base directory where all the compiled classes are found from.
    * <p/>
-   * With a good likelihood, you shouldn't use this method.
+   * With a good likelihood, you shouldn't use this method. In a project with
+   * modules, the classes of each module are in a base directory of their own.
+   * 
+   * @see #getBaseDirForClasses(String)
    */
   public File getBaseDirForClasses() {
     return baseDirForClasses;
   }
   
+  /**
+   * Get the base directory of the classfiles that have been precompiled for
+   * <tt>srcPath</tt>.
+   * 
+   * @throws NotCompiledException
+   *           if the requested <tt>srcPath</tt> hasn't been precompiled.
+   */
+  public File getBaseDirForClasses(final String srcPath)
+      throws NotCompiledException {
+    if (isSrcPathCompiled(srcPath)) {
+      return baseDirsForClasses.get(srcPath);
+    } else {
+      throw new NotCompiledException(srcPath);
+    }
+  }
+  
+  /**
+   * Get the jar files on the classpath of the compiled classes, of all
+   * modules.
+   */
+  public Set<File> getJars() {
+    // not there in a cache serialized by an older version
+    return jars != null ? Collections.unmodifiableSet(jars) : Collections
+        .<File> emptySet();
+  }
+  
   public static CompilationCache get() {
     if (singleton == null) {
       throw new IllegalStateException("The singleton instance of "
@@ -136,4 +199,9 @@ public final class CompilationCache implements Serializable {
     }
     singleton = cache;
   }
+  
+  /** Forget the singleton instance, before a new build in the same JVM */
+  static void reset() {
+    singleton = null;
+  }
 }
@@ -0,0 +1,323 @@
+package com.github.wolfie.bob;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.wolfie.bob.Log.LogLevel;
+
+/**
+ * The on-disk record of what has been compiled during earlier runs of Bob.
+ * <p/>
+ * For each source file, the index remembers the file's size, modification time
+ * and content hash, together with the class files that were compiled from it,
+ * the classes defined in them, the classes they refer to, and fingerprints of
+ * their APIs. This information is valid only as long as the classpath and the
+ * compiler options stay the same, which is why each index carries a key that
+ * describes them.
+ * <p/>
+ * The classes of the modules a module depends on are not part of the key.
+ * Instead, the index remembers the API fingerprints of those classes, as they
+ * were when the module was compiled against them.
+ */
+final class CompilationIndex implements Serializable {
+  
+  /**
+   * The size and modification time of a source file. The stat must be taken
+   * before the file is hashed, so that a file changed in between is told
+   * apart from the hash the next time.
+   */
+  static final class SourceStat {
+    private final long length;
+    private final long lastModified;
+    
+    SourceStat(final File file) {
+      this(file.length(), file.lastModified());
+    }
+    
+    private SourceStat(final long length, final long lastModified) {
+      this.length = length;
+      this.lastModified = lastModified;
+    }
+  }
+  
+  static final class SourceEntry implements Serializable {
+    private static final long serialVersionUID = 3417829925608237115L;
+    
+    private final long length;
+    private final long lastModified;
+    private final String hash;
+    private final Set<URI> classFiles;
+    private final Set<String> classNames;
+    private final Set<String> referencedClassNames;
+    private final String apiHash;
+    private final String constantsHash;
+    
+    /**
+     * @param stat
+     *          the stat of the source file, taken before <tt>hash</tt>
+     */
+    SourceEntry(final SourceStat stat, final String hash,
+        final Set<URI> classFiles, final Set<String> classNames,
+        final Set<String> referencedClassNames, final String apiHash,
+        final String constantsHash) {
+      length = stat.length;
+      lastModified = stat.lastModified;
+      this.hash = hash;
+      this.classFiles = new HashSet<URI>(classFiles);
+      this.classNames = new HashSet<String>(classNames);
+      this.referencedClassNames = new HashSet<String>(referencedClassNames);
+      this.apiHash = apiHash;
+      this.constantsHash = constantsHash;
+    }
+    
+    /**
+     * Whether <tt>file</tt> still has the same size and modification time as
+     * when this entry was created. This is a mere <tt>stat</tt>, and doesn't
+     * require reading the file.
+     */
+    boolean hasSameStat(final File file) {
+      return file.length() == length && file.lastModified() == lastModified;
+    }
+    
+    /** Get a copy of this entry, with another size and time */
+    SourceEntry withStat(final SourceStat stat) {
+      return new SourceEntry(stat, hash, classFiles, classNames,
+          referencedClassNames, apiHash, constantsHash);
+    }
+    
+    /** The size and modification time the file had when it was hashed */
+    SourceStat getStat() {
+      return new SourceStat(length, lastModified);
+    }
+    
+    String getHash() {
+      return hash;
+    }
+    
+    Set<URI> getClassFiles() {
+      return Collections.unmodifiableSet(classFiles);
+    }
+    
+    /** The binary names of the classes compiled from the source file */
+    Set<String> getClassNames() {
+      return Collections.unmodifiableSet(classNames);
+    }
+    
+    /**
+     * The binary names of the classes that the source file's classes refer to,
+     * excluding the source file's own classes.
+     */
+    Set<String> getReferencedClassNames() {
+      return Collections.unmodifiableSet(referencedClassNames);
+    }
+    
+    /**
+     * A hash of the APIs of the source file's classes.
+     * 
+     * @see ClassFileInfo#getApiFingerprint()
+     */
+    String getApiHash() {
+      return apiHash;
+    }
+    
+    /**
+     * A hash of the compile-time constants in the source file's classes, or
+     * <code>null</code> if there are none.
+     * 
+     * @see ClassFileInfo#getConstantsFingerprint()
+     */
+    String getConstantsHash() {
+      return constantsHash;
+    }
+    
+    /** Whether the source file refers to any of the given classes */
+    boolean refersToAny(final Set<String> classNames) {
+      for (final String referencedClassName : referencedClassNames) {
+        if (classNames.contains(referencedClassName)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    
+    boolean classFilesExist() {
+      for (final URI classFile : classFiles) {
+        if (!new File(classFile).isFile()) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+  
+  private static final long serialVersionUID = -5265440133409606466L;
+  
+  private final String key;
+  
+  /** source path &rarr; source file &rarr; entry */
+  private final Map<String, Map<File, SourceEntry>> entries = new HashMap<String, Map<File, SourceEntry>>();
+  
+  /** upstream class &rarr; API hash of its source file */
+  private final Map<String, String> upstreamApiHashes = new HashMap<String, String>();
+  
+  /** upstream class &rarr; constants hash of its source file */
+  private final Map<String, String> upstreamConstantsHashes = new HashMap<String, String>();
+  
+  CompilationIndex(final String key) {
+    Util.checkNulls(key);
+    this.key = key;
+  }
+  
+  /**
+   * Load a previously saved index.
+   * 
+   * @param indexFile
+   *          the file the index was saved into.
+   * @param key
+   *          the key the loaded index must have.
+   * @return the loaded index, or <code>null</code> if there was no index, it
+   *         couldn't be read, or its key was not <tt>key</tt>.
+   */
+  static CompilationIndex load(final File indexFile, final String key) {
+    if (!indexFile.isFile()) {
+      return null;
+    }
+    
+    try {
+      final ObjectInputStream ois = new ObjectInputStream(new FileInputStream(
+          indexFile));
+      try {
+        final CompilationIndex index = (CompilationIndex) ois.readObject();
+        if (index.key.equals(key)) {
+          return index;
+        } else {
+          Log.get().log("Compilation index " + indexFile.getPath()
+              + " was made with a different classpath or options",
+              LogLevel.DEBUG);
+          return null;
+        }
+      } finally {
+        ois.close();
+      }
+    } catch (final Exception e) {
+      // most probably written by another version of Bob
+      Log.get().log("Could not read compilation index "
+          + indexFile.getAbsolutePath() + ": " + e, LogLevel.VERBOSE);
+      return null;
+    }
+  }
+  
+  void save(final File indexFile) throws IOException {
+    Util.makeParentDirs(indexFile);
+    final ObjectOutputStream oos = new ObjectOutputStream(
+        new FileOutputStream(indexFile));
+    try {
+      oos.writeObject(this);
+    } finally {
+      oos.close();
+    }
+  }
+  
+  /**
+   * Get the mutable entries for a source path. An empty map is created if the
+   * source path has not been indexed before.
+   */
+  Map<File, SourceEntry> getEntries(final String srcPath) {
+    Map<File, SourceEntry> pathEntries = entries.get(srcPath);
+    if (pathEntries == null) {
+      pathEntries = new HashMap<File, SourceEntry>();
+      entries.put(srcPath, pathEntries);
+    }
+    return pathEntries;
+  }
+  
+  Set<String> getSourcePaths() {
+    return Collections.unmodifiableSet(new HashSet<String>(entries.keySet()));
+  }
+  
+  /**
+   * Get the API hashes of all indexed classes.
+   * 
+   * @return class name &rarr; the API hash of the source file it was compiled
+   *         from
+   * @see SourceEntry#getApiHash()
+   */
+  Map<String, String> getApiHashesByClass() {
+    final Map<String, String> hashes = new HashMap<String, String>();
+    for (final Map<File, SourceEntry> pathEntries : entries.values()) {
+      for (final SourceEntry entry : pathEntries.values()) {
+        for (final String className : entry.getClassNames()) {
+          hashes.put(className, entry.getApiHash());
+        }
+      }
+    }
+    return hashes;
+  }
+  
+  /**
+   * Get the constants hashes of all indexed classes that have constants.
+   * 
+   * @return class name &rarr; the constants hash of the source file it was
+   *         compiled from
+   * @see SourceEntry#getConstantsHash()
+   */
+  Map<String, String> getConstantsHashesByClass() {
+    final Map<String, String> hashes = new HashMap<String, String>();
+    for (final Map<File, SourceEntry> pathEntries : entries.values()) {
+      for (final SourceEntry entry : pathEntries.values()) {
+        if (entry.getConstantsHash() != null) {
+          for (final String className : entry.getClassNames()) {
+            hashes.put(className, entry.getConstantsHash());
+          }
+        }
+      }
+    }
+    return hashes;
+  }
+  
+  /** The API hashes of the upstream classes the sources were compiled against */
+  Map<String, String> getUpstreamApiHashes() {
+    return Collections.unmodifiableMap(upstreamApiHashes);
+  }
+  
+  /**
+   * The constants hashes of the upstream classes the sources were compiled
+   * against
+   */
+  Map<String, String> getUpstreamConstantsHashes() {
+    return Collections.unmodifiableMap(upstreamConstantsHashes);
+  }
+  
+  void setUpstreamHashes(final Map<String, String> apiHashes,
+      final Map<String, String> constantsHashes) {
+    upstreamApiHashes.clear();
+    upstreamApiHashes.putAll(apiHashes);
+    upstreamConstantsHashes.clear();
+    upstreamConstantsHashes.putAll(constantsHashes);
+  }
+  
+  /**
+   * Forget a source path.
+   * 
+   * @return the entries that were removed
+   */
+  Map<File, SourceEntry> remove(final String srcPath) {
+    final Map<File, SourceEntry> removed = entries.remove(srcPath);
+    if (removed != null) {
+      return removed;
+    } else {
+      return Collections.emptyMap();
+    }
+  }
+}
@@ -0,0 +1,311 @@
+package com.github.wolfie.bob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import com.github.wolfie.bob.Log.LogLevel;
+
+/**
+ * Hands a Bob invocation over to the project's {@link BobDaemon}, starting
+ * one if needed, and relays the output and exit code of the build.
+ * <p/>
+ * A daemon that was started from a different Bob jar than the client's, or in
+ * a different environment, is stopped and replaced.
+ */
+final class DaemonClient {
+  
+  static final String NO_DAEMON_ARG = "--no-daemon";
+  static final String STOP_DAEMON_ARG = "--stop-daemon";
+  
+  /** How long to wait for a new daemon to announce itself */
+  private static final long STARTUP_TIMEOUT_MILLIS = 30 * 1000;
+  private static final long STARTUP_POLL_MILLIS = 50;
+  
+  private final File propertiesFile = new File(
+      Defaults.DAEMON_PROPERTIES_PATH);
+  
+  /**
+   * Whether the invocation can be handed over to a daemon. This is the case
+   * unless the user has asked otherwise, Bob is to keep watching for changes
+   * itself, or Bob isn't run from a jar.
+   */
+  static boolean isUsable(final String[] args) {
+    return !Arrays.asList(args).contains(NO_DAEMON_ARG)
+        && !Arrays.asList(args).contains(BuildWatcher.WATCH_ARG)
+        && getBobJar() != null;
+  }
+  
+  /**
+   * Get the jar Bob is being run from.
+   * 
+   * @return the jar file, or <code>null</code> if Bob's classes aren't loaded
+   *         from a jar.
+   */
+  static File getBobJar() {
+    final CodeSource codeSource = Bob.class.getProtectionDomain()
+        .getCodeSource();
+    if (codeSource == null) {
+      return null;
+    }
+    
+    try {
+      final File location = new File(codeSource.getLocation().toURI());
+      if (location.isFile() && location.getName().endsWith(".jar")) {
+        return location;
+      } else {
+        return null;
+      }
+    } catch (final URISyntaxException e) {
+      return null;
+    }
+  }
+  
+  /**
+   * Get a digest of what builds depend on besides their arguments: the Bob
+   * libraries in <tt>BOB_LIB</tt> and the Java installation. A daemon keeps
+   * the environment it was started in, so a daemon of another environment
+   * would build with stale settings.
+   */
+  static String getEnvironmentHash() {
+    return Util.getHash("BOB_LIB=" + System.getenv("BOB_LIB")
+        + "\njava.home=" + System.getProperty("java.home"));
+  }
+  
+  /**
+   * Whether a daemon was started from the same Bob jar, in the same
+   * environment, as this client.
+   */
+  private static boolean isCurrent(final Properties daemon,
+      final String jarHash, final String environmentHash) {
+    return jarHash.equals(daemon.getProperty(BobDaemon.JAR_HASH_PROPERTY))
+        && environmentHash.equals(daemon
+            .getProperty(BobDaemon.ENVIRONMENT_HASH_PROPERTY));
+  }
+  
+  /**
+   * @return the properties in <tt>file</tt>, or <code>null</code> if the file
+   *         doesn't exist, can't be read, or other users could have read it.
+   */
+  static Properties readProperties(final File file) {
+    if (!file.isFile()) {
+      return null;
+    }
+    
+    try {
+      // anyone knowing the token may run code as the daemon's owner
+      if (!isPrivate(file)) {
+        Log.get().log("Ignoring " + file.getPath()
+            + ", since it's not readable by its owner only", LogLevel.WARNING);
+        return null;
+      }
+    } catch (final IOException e) {
+      return null;
+    }
+    
+    try {
+      return Util.readProperties(file);
+    } catch (final IOException e) {
+      return null;
+    }
+  }
+  
+  /**
+   * Whether <tt>file</tt> is owned by the current user, and others have no
+   * permissions to it. Without POSIX permissions, this can't be told, and
+   * the file is trusted.
+   */
+  private static boolean isPrivate(final File file) throws IOException {
+    final Path path = file.toPath();
+    if (!Util.isPosix(path)) {
+      return true;
+    }
+    
+    final Set<PosixFilePermission> othersPermissions = Files
+        .getPosixFilePermissions(path);
+    othersPermissions.removeAll(EnumSet.of(PosixFilePermission.OWNER_READ,
+        PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE));
+    final UserPrincipal currentUser = path.getFileSystem()
+        .getUserPrincipalLookupService().lookupPrincipalByName(
+            System.getProperty("user.name"));
+    return othersPermissions.isEmpty()
+        && Files.getOwner(path).equals(currentUser);
+  }
+  
+  /**
+   * Run Bob in the daemon.
+   * 
+   * @return the exit code of the invocation
+   */
+  int run(final String[] args) {
+    Log.get().enter("Daemon");
+    try {
+      final String jarHash = Util.getContentHash(getBobJar());
+      final String environmentHash = getEnvironmentHash();
+      
+      Properties daemon = readProperties(propertiesFile);
+      if (daemon != null && !isCurrent(daemon, jarHash, environmentHash)) {
+        Log.get().log("Stopping a daemon of another Bob version or "
+            + "environment", LogLevel.VERBOSE);
+        stop(daemon);
+        daemon = null;
+      }
+      
+      if (Arrays.asList(args).contains(STOP_DAEMON_ARG)) {
+        if (daemon != null) {
+          stop(daemon);
+          Log.get().log("Daemon stopped", LogLevel.INFO);
+        } else {
+          Log.get().log("No daemon was running", LogLevel.INFO);
+        }
+        return 0;
+      }
+      
+      if (daemon != null) {
+        try {
+          return send(daemon, BobDaemon.BUILD_COMMAND, args);
+        } catch (final ConnectException e) {
+          Log.get().log("The daemon has died, starting a new one",
+              LogLevel.VERBOSE);
+          propertiesFile.delete();
+        }
+      }
+      
+      return send(start(jarHash, environmentHash), BobDaemon.BUILD_COMMAND,
+          args);
+    } catch (final EOFException e) {
+      Log.get().log("The daemon disappeared unexpectedly, see "
+          + Defaults.DAEMON_LOG_PATH, LogLevel.SEVERE);
+      return 1;
+    } catch (final IOException e) {
+      e.printStackTrace();
+      return 1;
+    } finally {
+      Log.get().exit();
+    }
+  }
+  
+  private void stop(final Properties daemon) {
+    try {
+      send(daemon, BobDaemon.STOP_COMMAND, new String[0]);
+    } catch (final IOException e) {
+      // it's gone already
+      propertiesFile.delete();
+    }
+  }
+  
+  /**
+   * Start a new daemon and wait for it to announce itself.
+   * 
+   * @return the properties of the new daemon
+   */
+  private Properties start(final String jarHash, final String environmentHash)
+      throws IOException {
+    Log.get().log("Starting a Bob daemon", LogLevel.INFO);
+    
+    final File logFile = new File(Defaults.DAEMON_LOG_PATH);
+    Util.makeParentDirs(logFile);
+    
+    String java = System.getProperty("java.home") + File.separator + "bin"
+        + File.separator + "java";
+    if (Util.systemIsWindows()) {
+      java += ".exe";
+    }
+    
+    final List<String> command = new ArrayList<String>();
+    command.add(java);
+    command.add("-cp");
+    command.add(getBobJar().getAbsolutePath());
+    command.add(BobDaemon.class.getName());
+    
+    // whatever was announced before, maybe a file that isn't private, is
+    // replaced by the new daemon
+    propertiesFile.delete();
+    
+    final ProcessBuilder processBuilder = new ProcessBuilder(command);
+    processBuilder.redirectErrorStream(true);
+    processBuilder.redirectOutput(Redirect.appendTo(logFile));
+    processBuilder.start();
+    
+    final long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+    while (System.currentTimeMillis() < deadline) {
+      final Properties daemon = readProperties(propertiesFile);
+      if (daemon != null && isCurrent(daemon, jarHash, environmentHash)) {
+        return daemon;
+      }
+      
+      try {
+        Thread.sleep(STARTUP_POLL_MILLIS);
+      } catch (final InterruptedException e) {
+        throw new BootstrapError("Interrupted while starting the daemon", e);
+      }
+    }
+    
+    throw new BootstrapError("The daemon did not start in time, see "
+        + logFile.getPath());
+  }
+  
+  /**
+   * Send a command to a daemon, and relay its output until it's done.
+   * 
+   * @return the exit code the daemon sent
+   */
+  private static int send(final Properties daemon, final String command,
+      final String[] args) throws IOException {
+    final int port = Integer.parseInt(daemon
+        .getProperty(BobDaemon.PORT_PROPERTY));
+    final Socket socket = new Socket(InetAddress.getByName(null), port);
+    try {
+      final DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(socket.getOutputStream()));
+      out.writeUTF(daemon.getProperty(BobDaemon.TOKEN_PROPERTY));
+      out.writeUTF(command);
+      if (BobDaemon.BUILD_COMMAND.equals(command)) {
+        out.writeInt(args.length);
+        for (final String arg : args) {
+          out.writeUTF(arg);
+        }
+      }
+      out.flush();
+      
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(
+          socket.getInputStream()));
+      while (true) {
+        final int frameType = in.readUnsignedByte();
+        if (frameType == BobDaemon.EXIT_FRAME) {
+          return in.readInt();
+        }
+        
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        final PrintStream stream = frameType == BobDaemon.STDERR_FRAME ? System.err
+            : System.out;
+        stream.write(bytes);
+        stream.flush();
+      }
+    } finally {
+      socket.close();
+    }
+  }
+}
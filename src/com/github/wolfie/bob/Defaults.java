@@ -14,6 +14,42 @@ public final class Defaults {
   
   public static final String ARTIFACTS_PATH = "artifacts";
   
+  /** Where Bob keeps the data it persists between invocations */
+  public static final String CACHE_PATH = ".bob" + File.separator + "cache";
+  
+  /** Where the outputs of earlier builds are kept, by their inputs */
+  public static final String BUILD_CACHE_PATH = CACHE_PATH + File.separator
+      + "outputs";
+  
+  /** The fingerprints of the actions processed in earlier builds */
+  public static final String ACTION_FINGERPRINTS_PATH = CACHE_PATH
+      + File.separator + "actions.properties";
+  
+  /** The states of the files and directories read in earlier builds */
+  public static final String FILE_STATES_PATH = CACHE_PATH + File.separator
+      + "files.idx";
+  
+  /** How long each test class took to run the last time */
+  public static final String TEST_TIMINGS_PATH = CACHE_PATH + File.separator
+      + "test-timings.properties";
+  
+  /** What the test classes depended on the last time they passed */
+  public static final String TEST_IMPACT_PATH = CACHE_PATH + File.separator
+      + "test-impact.properties";
+  
+  /** Which compiled classes are tests, by the digests of their class files */
+  public static final String TEST_CLASSES_PATH = CACHE_PATH + File.separator
+      + "test-classes.properties";
+  
+  // daemon
+  
+  /** Where a running daemon announces itself to clients */
+  public static final String DAEMON_PROPERTIES_PATH = ".bob" + File.separator
+      + "daemon.properties";
+  public static final String DAEMON_LOG_PATH = ".bob" + File.separator
+      + "daemon.log";
+  public static final int DAEMON_IDLE_TIMEOUT_MINUTES = 30;
+  
   // compilation
   
   public static final String SOURCE_PATH = "src";
@@ -0,0 +1,223 @@
+package com.github.wolfie.bob;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.github.wolfie.bob.FileStateIndex.Listing;
+import com.github.wolfie.bob.Log.LogLevel;
+import com.github.wolfie.bob.Util.FilePredicate;
+
+/**
+ * Finds the files under a directory, reading its subdirectories concurrently.
+ * <p/>
+ * Each directory is read with a {@link DirectoryStream}, and the attributes
+ * of each of its entries are read only once. Every subdirectory is read by a
+ * task of its own in a {@link ForkJoinPool}, and all tasks add the files they
+ * find into one shared queue, so no intermediate sets are built on the way.
+ * Reading several directories at once pays off on slow file systems, like
+ * network mounts, where most of the time is spent waiting for the disk.
+ * <p/>
+ * Symbolic links are followed, but a directory that is reached twice is read
+ * only once.
+ * <p/>
+ * The entries of the directories are remembered in the {@link FileStateIndex},
+ * so a directory that hasn't been modified since is not read again; only its
+ * subdirectories are looked at.
+ * 
+ * @see Util#getFilesRecursively(File, FilePredicate)
+ */
+final class FileScanner {
+  
+  /** Created once needed, and again if the number of jobs changes */
+  private static ForkJoinPool pool = null;
+  
+  private final FilePredicate predicate;
+  private final Queue<File> files = new ConcurrentLinkedQueue<File>();
+  private final Set<Object> visitedDirectories = Collections
+      .newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+  
+  /** The index to look directories up from, or <code>null</code> */
+  private final FileStateIndex index;
+  
+  private FileScanner(final FilePredicate predicate,
+      final FileStateIndex index) {
+    this.predicate = predicate;
+    this.index = index;
+  }
+  
+  /** Reads one directory, and forks a task for each of its subdirectories */
+  private final class DirectoryTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    
+    private final Path directory;
+    private final BasicFileAttributes attributes;
+    
+    private DirectoryTask(final Path directory,
+        final BasicFileAttributes attributes) {
+      this.directory = directory;
+      this.attributes = attributes;
+    }
+    
+    @Override
+    protected void compute() {
+      final List<DirectoryTask> subdirectoryTasks = new ArrayList<DirectoryTask>();
+      
+      final Listing listing = index != null ? index.getListing(directory,
+          attributes) : null;
+      if (listing != null) {
+        for (final String name : listing.getFiles()) {
+          addFile(directory.resolve(name));
+        }
+        for (final String name : listing.getDirectories()) {
+          addSubdirectory(subdirectoryTasks, directory.resolve(name));
+        }
+      } else {
+        read(subdirectoryTasks);
+      }
+      
+      invokeAll(subdirectoryTasks);
+    }
+    
+    private void read(final List<DirectoryTask> subdirectoryTasks) {
+      final List<String> fileNames = new ArrayList<String>();
+      final List<String> directoryNames = new ArrayList<String>();
+      boolean hasLinks = false;
+      
+      try {
+        final DirectoryStream<Path> entries = Files
+            .newDirectoryStream(directory);
+        try {
+          for (final Path entry : entries) {
+            BasicFileAttributes entryAttributes;
+            try {
+              entryAttributes = Files.readAttributes(entry,
+                  BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+              if (entryAttributes.isSymbolicLink()) {
+                // what a link points to can change without this directory
+                // changing, so it's never remembered
+                hasLinks = true;
+                entryAttributes = Files.readAttributes(entry,
+                    BasicFileAttributes.class);
+              }
+            } catch (final IOException e) {
+              Log.get().log("Could not read " + entry + ": " + e,
+                  LogLevel.DEBUG);
+              continue;
+            }
+            
+            if (entryAttributes.isDirectory()) {
+              directoryNames.add(entry.getFileName().toString());
+              if (isFirstVisit(entryAttributes)) {
+                subdirectoryTasks.add(new DirectoryTask(entry,
+                    entryAttributes));
+              }
+            } else {
+              fileNames.add(entry.getFileName().toString());
+              addFile(entry);
+            }
+          }
+        } finally {
+          entries.close();
+        }
+      } catch (final IOException e) {
+        Log.get().log("Could not read directory " + directory + ": " + e,
+            LogLevel.DEBUG);
+        return;
+      }
+      
+      if (index != null && !hasLinks) {
+        index.putListing(directory, attributes, fileNames, directoryNames);
+      }
+    }
+    
+    private void addSubdirectory(final List<DirectoryTask> subdirectoryTasks,
+        final Path subdirectory) {
+      try {
+        final BasicFileAttributes subdirectoryAttributes = Files
+            .readAttributes(subdirectory, BasicFileAttributes.class);
+        if (isFirstVisit(subdirectoryAttributes)) {
+          subdirectoryTasks.add(new DirectoryTask(subdirectory,
+              subdirectoryAttributes));
+        }
+      } catch (final IOException e) {
+        Log.get().log("Could not read directory " + subdirectory + ": " + e,
+            LogLevel.DEBUG);
+      }
+    }
+    
+    private void addFile(final Path path) {
+      final File file = path.toFile();
+      if ((predicate == null || predicate.accept(file))
+          && Util.HIDE_DOT_FILES.accept(file)) {
+        files.add(file);
+      }
+    }
+  }
+  
+  /**
+   * Get the files under a directory, in any of its subdirectories.
+   * <p/>
+   * The directories are looked up from the {@link FileStateIndex} first, and
+   * only the ones that have been modified since they were last read are read
+   * again. Directories in the temporary directory are always read.
+   * 
+   * @param predicate
+   *          the predicate the files need to fulfill, or <code>null</code> to
+   *          get all files. Files whose names start with a dot are left out in
+   *          any case.
+   */
+  static Set<File> scan(final File baseDir, final FilePredicate predicate) {
+    final FileStateIndex index = Util.isInTemporaryDirectory(baseDir) ? null
+        : FileStateIndex.get();
+    final FileScanner scanner = new FileScanner(predicate, index);
+    
+    final Path basePath = baseDir.toPath();
+    final BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(basePath, BasicFileAttributes.class);
+    } catch (final IOException e) {
+      Log.get().log("Could not read directory " + basePath + ": " + e,
+          LogLevel.DEBUG);
+      return new HashSet<File>();
+    }
+    scanner.isFirstVisit(attributes);
+    
+    getPool().invoke(scanner.new DirectoryTask(basePath, attributes));
+    return new HashSet<File>(scanner.files);
+  }
+  
+  /**
+   * Whether a directory hasn't been seen before, through another symbolic
+   * link. Without a file key, all directories are new.
+   */
+  private boolean isFirstVisit(final BasicFileAttributes attributes) {
+    final Object fileKey = attributes.fileKey();
+    return fileKey == null || visitedDirectories.add(fileKey);
+  }
+  
+  private static synchronized ForkJoinPool getPool() {
+    final int jobs = Math.max(1, Bob.getJobs());
+    if (pool == null || pool.getParallelism() != jobs) {
+      if (pool != null) {
+        pool.shutdown();
+      }
+      pool = new ForkJoinPool(jobs);
+    }
+    return pool;
+  }
+}
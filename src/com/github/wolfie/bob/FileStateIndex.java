@@ -0,0 +1,426 @@
+package com.github.wolfie.bob;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.github.wolfie.bob.Log.LogLevel;
+import com.github.wolfie.bob.Util.ContentWriter;
+import com.github.wolfie.bob.exception.BobRuntimeException;
+
+/**
+ * Remembers the state of the files and directories Bob has read, between
+ * invocations, so that what has changed can be told without reading them.
+ * <p/>
+ * For each file, the size, modification time and file key (the inode, where
+ * there is one) are kept together with a hash of its contents. As long as
+ * those stay the same, the hash is taken from here instead of reading the
+ * file again. For each directory, the names of its files and subdirectories
+ * are kept, so that a directory that hasn't been modified doesn't need to be
+ * read at all: adding, removing or renaming an entry modifies the directory.
+ * <p/>
+ * Files and directories modified within {@value #RACY_MILLIS} ms of being
+ * read aren't remembered, since a change made right after might not show in
+ * their modification time. Nothing is remembered about the temporary
+ * directory either.
+ * <p/>
+ * The index is read from the project's {@value Defaults#FILE_STATES_PATH}
+ * once needed, and written back by {@link #store()} if anything in it has
+ * changed.
+ */
+final class FileStateIndex {
+  
+  private static final int FORMAT_VERSION = 1;
+  
+  /**
+   * How long ago something needs to have been modified to be remembered; the
+   * coarsest modification time resolution of the common file systems
+   */
+  static final long RACY_MILLIS = 2000;
+  
+  private static FileStateIndex singleton = null;
+  
+  /** The size, modification time and file key of a file or a directory */
+  private static final class Stat {
+    private final long length;
+    private final long lastModified;
+    private final String fileKey;
+    
+    private Stat(final long length, final long lastModified,
+        final String fileKey) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.fileKey = fileKey;
+    }
+    
+    private Stat(final BasicFileAttributes attributes) {
+      this(attributes.size(), attributes.lastModifiedTime().toMillis(),
+          attributes.fileKey() != null ? attributes.fileKey().toString() : "");
+    }
+    
+    private boolean isRacy() {
+      return System.currentTimeMillis() - lastModified < RACY_MILLIS;
+    }
+    
+    @Override
+    public boolean equals(final Object obj) {
+      if (!(obj instanceof Stat)) {
+        return false;
+      }
+      final Stat other = (Stat) obj;
+      return length == other.length && lastModified == other.lastModified
+          && fileKey.equals(other.fileKey);
+    }
+    
+    @Override
+    public int hashCode() {
+      return (int) (length ^ lastModified) ^ fileKey.hashCode();
+    }
+    
+    private void write(final DataOutputStream out) throws IOException {
+      out.writeLong(length);
+      out.writeLong(lastModified);
+      out.writeUTF(fileKey);
+    }
+    
+    private static Stat read(final DataInputStream in) throws IOException {
+      return new Stat(in.readLong(), in.readLong(), in.readUTF());
+    }
+  }
+  
+  private static final class FileState {
+    private final Stat stat;
+    private final String hash;
+    
+    private FileState(final Stat stat, final String hash) {
+      this.stat = stat;
+      this.hash = hash;
+    }
+  }
+  
+  /** The names of the entries of a directory, split by their kind */
+  static final class Listing {
+    private final Stat stat;
+    private final List<String> files;
+    private final List<String> directories;
+    
+    private Listing(final Stat stat, final List<String> files,
+        final List<String> directories) {
+      this.stat = stat;
+      this.files = files;
+      this.directories = directories;
+    }
+    
+    List<String> getFiles() {
+      return files;
+    }
+    
+    List<String> getDirectories() {
+      return directories;
+    }
+  }
+  
+  private final File file;
+  
+  /** absolute path &rarr; state */
+  private final Map<String, FileState> files = new ConcurrentHashMap<String, FileState>();
+  
+  /** absolute path &rarr; listing */
+  private final Map<String, Listing> listings = new ConcurrentHashMap<String, Listing>();
+  
+  /** The paths looked up since the index was read */
+  private final Set<String> usedPaths = Collections
+      .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  
+  private volatile boolean changed = false;
+  
+  /**
+   * @param file
+   *          the file the index is read from, and written into. It doesn't
+   *          need to exist.
+   */
+  FileStateIndex(final File file) {
+    Util.checkNulls(file);
+    this.file = file;
+    
+    if (file.exists()) {
+      try {
+        read();
+      } catch (final IOException e) {
+        Log.get().log("Could not read " + file.getAbsolutePath()
+            + ", reading all files again: " + e.getMessage(),
+            LogLevel.WARNING);
+        files.clear();
+        listings.clear();
+      }
+    }
+  }
+  
+  static FileStateIndex get() {
+    synchronized (FileStateIndex.class) {
+      if (singleton == null) {
+        singleton = new FileStateIndex(new File(Defaults.FILE_STATES_PATH));
+      }
+      return singleton;
+    }
+  }
+  
+  static void reset() {
+    synchronized (FileStateIndex.class) {
+      singleton = null;
+    }
+  }
+  
+  /**
+   * Write the index back to where it was read from, if it has been read and
+   * anything in it has changed.
+   */
+  static void storeIfLoaded() {
+    final FileStateIndex index;
+    synchronized (FileStateIndex.class) {
+      index = singleton;
+    }
+    if (index != null) {
+      try {
+        index.store();
+      } catch (final IOException e) {
+        Log.get().log("Could not write " + index.file.getAbsolutePath()
+            + ": " + e.getMessage(), LogLevel.WARNING);
+      }
+    }
+  }
+  
+  /**
+   * Get the hash of a file's contents, reading the file only if it has
+   * changed since it was last hashed.
+   * 
+   * @see Util#getContentHash(File)
+   */
+  String getHash(final File file) throws IOException {
+    final Path path = file.toPath().toAbsolutePath();
+    final String key = path.toString();
+    usedPaths.add(key);
+    
+    final Stat stat = new Stat(Files.readAttributes(path,
+        BasicFileAttributes.class));
+    final FileState state = files.get(key);
+    if (state != null && state.stat.equals(stat)) {
+      return state.hash;
+    }
+    
+    final String hash = Util.getContentHash(file);
+    if (!stat.isRacy() && !Util.isInTemporaryDirectory(file)) {
+      files.put(key, new FileState(stat, hash));
+      changed = true;
+    } else if (state != null) {
+      files.remove(key);
+      changed = true;
+    }
+    return hash;
+  }
+  
+  /**
+   * Get the hashes of several files' contents. Only the files that have
+   * changed since they were last hashed are read, several of them at once.
+   * 
+   * @return file &rarr; the hash of its contents
+   * @see #getHash(File)
+   */
+  Map<File, String> getHashes(final Collection<File> files)
+      throws IOException {
+    final int threads = Math.min(Math.max(1, Bob.getJobs()), files.size());
+    final Map<File, String> hashes = new HashMap<File, String>();
+    if (threads <= 1) {
+      for (final File file : files) {
+        hashes.put(file, getHash(file));
+      }
+      return hashes;
+    }
+    
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final Map<File, Future<String>> futures = new HashMap<File, Future<String>>();
+      for (final File file : files) {
+        futures.put(file, executor.submit(new Callable<String>() {
+          @Override
+          public String call() throws IOException {
+            return getHash(file);
+          }
+        }));
+      }
+      
+      for (final Entry<File, Future<String>> entry : futures.entrySet()) {
+        hashes.put(entry.getKey(), entry.getValue().get());
+      }
+      return hashes;
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while hashing files", e);
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new BobRuntimeException("Could not hash files", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+  
+  /**
+   * Get the entries a directory had when it was last read.
+   * 
+   * @param attributes
+   *          the directory's current attributes
+   * @return the entries, or <code>null</code> if the directory hasn't been
+   *         read before, or it has been modified since.
+   */
+  Listing getListing(final Path directory,
+      final BasicFileAttributes attributes) {
+    final String key = directory.toAbsolutePath().toString();
+    usedPaths.add(key);
+    
+    final Listing listing = listings.get(key);
+    if (listing != null && listing.stat.equals(new Stat(attributes))) {
+      return listing;
+    } else {
+      return null;
+    }
+  }
+  
+  /**
+   * Remember the entries of a directory.
+   * 
+   * @param attributes
+   *          the attributes the directory had before it was read
+   */
+  void putListing(final Path directory, final BasicFileAttributes attributes,
+      final List<String> files, final List<String> directories) {
+    final String key = directory.toAbsolutePath().toString();
+    final Stat stat = new Stat(attributes);
+    if (!stat.isRacy()) {
+      listings.put(key, new Listing(stat, Collections
+          .unmodifiableList(files), Collections
+          .unmodifiableList(directories)));
+      changed = true;
+    } else if (listings.remove(key) != null) {
+      changed = true;
+    }
+  }
+  
+  /**
+   * Write the index, if anything in it has changed. What wasn't looked up
+   * since the index was read is left out if it doesn't exist anymore.
+   */
+  synchronized void store() throws IOException {
+    if (!changed) {
+      return;
+    }
+    
+    Util.writeAtomically(file, new ContentWriter() {
+      @Override
+      public void write(final OutputStream stream) throws IOException {
+        final DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(FORMAT_VERSION);
+        
+        final List<Entry<String, FileState>> fileEntries = new ArrayList<Entry<String, FileState>>();
+        for (final Entry<String, FileState> entry : files.entrySet()) {
+          if (isWorthKeeping(entry.getKey())) {
+            fileEntries.add(entry);
+          }
+        }
+        out.writeInt(fileEntries.size());
+        for (final Entry<String, FileState> entry : fileEntries) {
+          out.writeUTF(entry.getKey());
+          entry.getValue().stat.write(out);
+          out.writeUTF(entry.getValue().hash);
+        }
+        
+        final List<Entry<String, Listing>> listingEntries = new ArrayList<Entry<String, Listing>>();
+        for (final Entry<String, Listing> entry : listings.entrySet()) {
+          if (isWorthKeeping(entry.getKey())) {
+            listingEntries.add(entry);
+          }
+        }
+        out.writeInt(listingEntries.size());
+        for (final Entry<String, Listing> entry : listingEntries) {
+          out.writeUTF(entry.getKey());
+          entry.getValue().stat.write(out);
+          writeNames(out, entry.getValue().files);
+          writeNames(out, entry.getValue().directories);
+        }
+        out.flush();
+      }
+    });
+    changed = false;
+  }
+  
+  private boolean isWorthKeeping(final String path) {
+    return usedPaths.contains(path) || new File(path).exists();
+  }
+  
+  private void read() throws IOException {
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)));
+    try {
+      if (in.readInt() != FORMAT_VERSION) {
+        return;
+      }
+      
+      final int fileCount = in.readInt();
+      for (int i = 0; i < fileCount; i++) {
+        final String path = in.readUTF();
+        final Stat stat = Stat.read(in);
+        files.put(path, new FileState(stat, in.readUTF()));
+      }
+      
+      final int listingCount = in.readInt();
+      for (int i = 0; i < listingCount; i++) {
+        final String path = in.readUTF();
+        final Stat stat = Stat.read(in);
+        final List<String> fileNames = readNames(in);
+        listings.put(path, new Listing(stat, fileNames, readNames(in)));
+      }
+    } finally {
+      in.close();
+    }
+  }
+  
+  private static void writeNames(final DataOutputStream out,
+      final List<String> names) throws IOException {
+    out.writeInt(names.size());
+    for (final String name : names) {
+      out.writeUTF(name);
+    }
+  }
+  
+  private static List<String> readNames(final DataInputStream in)
+      throws IOException {
+    final int count = in.readInt();
+    final List<String> names = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      names.add(in.readUTF());
+    }
+    return names;
+  }
+}
@@ -0,0 +1,98 @@
+package com.github.wolfie.bob;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * A {@link JavaFileManager} that keeps the class files the compiler writes in
+ * memory, by their binary names, instead of writing them to disk.
+ * <p/>
+ * This is meant for classes that are only loaded into this JVM, like the
+ * compiled build file, which would otherwise be written into a temporary
+ * directory only to be read back from there. Everything else is delegated to
+ * the wrapped file manager.
+ * 
+ * @see BootClassLoader
+ */
+final class InMemoryJavaFileManager extends
+    ForwardingJavaFileManager<JavaFileManager> {
+  
+  private static final String URI_SCHEME = "bob-memory";
+  
+  /** binary name &rarr; class file contents */
+  private final Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+  
+  InMemoryJavaFileManager(final JavaFileManager fileManager) {
+    super(fileManager);
+  }
+  
+  @Override
+  public JavaFileObject getJavaFileForOutput(final Location location,
+      final String className, final Kind kind, final FileObject sibling)
+      throws IOException {
+    if (location != StandardLocation.CLASS_OUTPUT || kind != Kind.CLASS) {
+      return super.getJavaFileForOutput(location, className, kind, sibling);
+    }
+    
+    return new SimpleJavaFileObject(getUri(className, kind), kind) {
+      @Override
+      public OutputStream openOutputStream() {
+        return new ByteArrayOutputStream() {
+          @Override
+          public void close() throws IOException {
+            super.close();
+            synchronized (classes) {
+              classes.put(className, toByteArray());
+            }
+          }
+        };
+      }
+    };
+  }
+  
+  /**
+   * Get the compiled classes.
+   * 
+   * @return binary name &rarr; class file contents
+   */
+  Map<String, byte[]> getClasses() {
+    synchronized (classes) {
+      return Collections.unmodifiableMap(new LinkedHashMap<String, byte[]>(
+          classes));
+    }
+  }
+  
+  /**
+   * Get a source file to compile, with its contents given as a string.
+   * 
+   * @param className
+   *          the binary name of the class in the source
+   */
+  static JavaFileObject getSource(final String className, final String code) {
+    return new SimpleJavaFileObject(getUri(className, Kind.SOURCE),
+        Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+        return code;
+      }
+    };
+  }
+  
+  private static URI getUri(final String className, final Kind kind) {
+    return URI.create(URI_SCHEME + ":///" + className.replace('.', '/')
+        + kind.extension);
+  }
+}
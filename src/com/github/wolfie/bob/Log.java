@@ -75,37 +75,59 @@ public class Log {
     }
   }
   
-  private static final int MAX_LOCATION_LENGTH = 8;
+  public static final int MAX_LOCATION_LENGTH = 8;
   
   private static final int INDENT_MULTIPLIER = 2;
   
   // lazy initialization
   private volatile static Log singleton = null;
   
-  private final Stack<String> logStack = new Stack<String>();
+  /**
+   * Each thread has a location of its own. A new thread starts from the
+   * location of the thread that created it.
+   */
+  private final ThreadLocal<Stack<String>> logStack = new InheritableThreadLocal<Stack<String>>() {
+    @Override
+    protected Stack<String> initialValue() {
+      return new Stack<String>();
+    }
+    
+    @Override
+    protected Stack<String> childValue(final Stack<String> parentValue) {
+      final Stack<String> stack = new Stack<String>();
+      stack.addAll(parentValue);
+      return stack;
+    }
+  };
   
   private LogLevel logLevel = LogLevel.INFO;
   
-  private final PrintStream out = System.out;
-  private final PrintStream err = System.err;
-  
   private int indent = 0;
   
   private Log() {
   }
   
+  /**
+   * Bring the log level and indentation back to their initial state, as a new
+   * invocation of Bob is starting within the same JVM.
+   */
+  synchronized void reset() {
+    logLevel = LogLevel.INFO;
+    indent = 0;
+  }
+  
   public synchronized Log enter(final String location) {
     if (location.length() > MAX_LOCATION_LENGTH) {
       throw new IllegalArgumentException("Location may not be longer than "
           + MAX_LOCATION_LENGTH + " characters long: " + location);
     }
     
-    logStack.push(location);
+    logStack.get().push(location);
     return this;
   }
   
   public synchronized Log exit() {
-    logStack.pop();
+    logStack.get().pop();
     return this;
   }
   
@@ -126,7 +148,7 @@ public class Log {
       // }
       // logStackHasChangedSinceLastOutput = false;
       
-      final String alignedStack = Util.rightAlign(logStack.peek(),
+      final String alignedStack = Util.rightAlign(logStack.get().peek(),
           MAX_LOCATION_LENGTH);
       getPrintStream(level).format("[%s]%s%s\n", alignedStack,
           getIndentationString(), msg);
@@ -144,12 +166,16 @@ public class Log {
     return builder.toString();
   }
   
+  /**
+   * The streams are looked up every time, since a daemon redirects them for
+   * each build.
+   */
   private synchronized PrintStream getPrintStream(final LogLevel level) {
     final PrintStream usedStream;
     if (level.compareTo(LogLevel.WARNING) >= 0) {
-      usedStream = err;
+      usedStream = System.err;
     } else {
-      usedStream = out;
+      usedStream = System.out;
     }
     return usedStream;
   }
@@ -0,0 +1,154 @@
+package com.github.wolfie.bob;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * A part of the project that is compiled on its own, with its own source
+ * paths and libraries, into a class directory of its own.
+ * </p>
+ * 
+ * <p>
+ * A module sees the classes of the modules it {@link #dependsOn(String...)
+ * depends on}, and their libraries, but nothing else. Modules that don't
+ * depend on each other are compiled concurrently.
+ * </p>
+ * 
+ * @see ProjectDescription#module(ModuleDescription)
+ */
+public class ModuleDescription {
+  
+  private static final Pattern VALID_NAME = Pattern.compile("[\\w.-]+");
+  
+  private final String name;
+  private boolean finalized = false;
+  
+  private final LinkedHashSet<String> sourcePaths = new LinkedHashSet<String>();
+  private final Set<String> sourcePathsOptional = new HashSet<String>();
+  private final Set<String> jarPaths = new HashSet<String>();
+  private final Set<String> jarPathsOptional = new HashSet<String>();
+  private final Set<String> jarFiles = new HashSet<String>();
+  private final LinkedHashSet<String> dependencies = new LinkedHashSet<String>();
+  
+  /**
+   * @param name
+   *          the name of the module. It may consist of letters, digits,
+   *          underscores, dots and dashes.
+   * @throws IllegalArgumentException
+   *           if <tt>name</tt> is not a valid module name
+   */
+  public ModuleDescription(final String name) {
+    Util.checkNulls(name);
+    if (!VALID_NAME.matcher(name).matches()) {
+      throw new IllegalArgumentException("Invalid module name: " + name);
+    }
+    this.name = name;
+  }
+  
+  /**
+   * Define a source path of the module, relative to the project's root
+   * directory. A source path may belong to one module only.
+   * <p/>
+   * This method may be called several times to define several paths.
+   */
+  public ModuleDescription sourcePath(final String sourcePath) {
+    checkFinalized();
+    Util.checkNulls(sourcePath);
+    sourcePaths.add(sourcePath);
+    return this;
+  }
+  
+  ModuleDescription sourcePathOptional(final String sourcePath) {
+    sourcePath(sourcePath);
+    sourcePathsOptional.add(sourcePath);
+    return this;
+  }
+  
+  /**
+   * Define a directory, all jars of which are in the module's classpath.
+   * <p/>
+   * This method may be called several times to define several paths.
+   */
+  public ModuleDescription jarPath(final String jarPath) {
+    checkFinalized();
+    Util.checkNulls(jarPath);
+    jarPaths.add(jarPath);
+    return this;
+  }
+  
+  ModuleDescription jarPathOptional(final String jarPath) {
+    jarPath(jarPath);
+    jarPathsOptional.add(jarPath);
+    return this;
+  }
+  
+  public ModuleDescription jarFile(final String jarFile) {
+    checkFinalized();
+    Util.checkNulls(jarFile);
+    jarFiles.add(jarFile);
+    return this;
+  }
+  
+  /**
+   * Make the classes and libraries of other modules visible to this module.
+   * The other modules are compiled before this one.
+   * 
+   * @param moduleNames
+   *          the names of the modules this module depends on
+   */
+  public ModuleDescription dependsOn(final String... moduleNames) {
+    checkFinalized();
+    Util.checkNulls((Object[]) moduleNames);
+    dependencies.addAll(Arrays.asList(moduleNames));
+    return this;
+  }
+  
+  private void checkFinalized() {
+    if (finalized) {
+      throw new IllegalStateException("The description was already finalized");
+    }
+  }
+  
+  void setFinalized() {
+    finalized = true;
+  }
+  
+  public String getName() {
+    return name;
+  }
+  
+  Set<String> getSourcePaths() {
+    return Collections.unmodifiableSet(sourcePaths);
+  }
+  
+  boolean isSourcePathOptional(final String sourcePath) {
+    return sourcePathsOptional.contains(sourcePath);
+  }
+  
+  Set<String> getJarPaths() {
+    return Collections.unmodifiableSet(jarPaths);
+  }
+  
+  boolean isJarPathOptional(final String jarPath) {
+    return jarPathsOptional.contains(jarPath);
+  }
+  
+  Set<String> getJarFiles() {
+    return Collections.unmodifiableSet(jarFiles);
+  }
+  
+  /** The names of the modules this module directly depends on */
+  Set<String> getDependencies() {
+    return Collections.unmodifiableSet(dependencies);
+  }
+  
+  @Override
+  public String toString() {
+    return "module " + name;
+  }
+}
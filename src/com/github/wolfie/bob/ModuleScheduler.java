@@ -0,0 +1,341 @@
+package com.github.wolfie.bob;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.github.wolfie.bob.Log.LogLevel;
+import com.github.wolfie.bob.ProjectCompiler.CompiledModule;
+
+/**
+ * Compiles the modules of a {@link ProjectDescription}, each with a
+ * {@link ProjectCompiler} of its own.
+ * <p/>
+ * The modules form a graph by their dependencies. A module is started as soon
+ * as the modules it depends on are compiled, and modules that don't depend on
+ * each other are compiled concurrently. The project's own source paths form
+ * the {@value ProjectDescription#ROOT_MODULE_NAME} module, which is compiled
+ * last.
+ * <p/>
+ * Each module is compiled against its libraries, the libraries of the
+ * project, and the classes and libraries of the modules it depends on,
+ * directly or indirectly. The build is then run against all of them.
+ */
+final class ModuleScheduler {
+  
+  private static final String MODULES_DIR_NAME = "modules";
+  
+  private final ProjectDescription desc;
+  private final File cacheDir;
+  private final int jobs;
+  
+  /**
+   * @param jobs
+   *          the maximum number of modules to compile concurrently
+   */
+  ModuleScheduler(final ProjectDescription desc, final int jobs) {
+    this(desc, new File(Defaults.CACHE_PATH), jobs);
+  }
+  
+  ModuleScheduler(final ProjectDescription desc, final File cacheDir,
+      final int jobs) {
+    Util.checkNulls(desc, cacheDir);
+    this.desc = desc;
+    this.cacheDir = cacheDir;
+    this.jobs = jobs;
+  }
+  
+  /**
+   * Compile all changed sources in all modules of the project.
+   * 
+   * @return the information needed to run the build against the compiled
+   *         classes.
+   */
+  BootstrapInfo compile() throws IOException {
+    final Map<String, ModuleDescription> modules = getModules(desc);
+    final Map<String, Set<String>> upstreamModuleNames = getUpstreamModules(modules);
+    checkSourcePaths(modules.values());
+    
+    final Collection<File> projectJars = getJars(desc.getRootModule());
+    final Map<String, Collection<File>> jarsByModule = new HashMap<String, Collection<File>>();
+    for (final ModuleDescription module : modules.values()) {
+      if (module == desc.getRootModule()) {
+        jarsByModule.put(module.getName(), projectJars);
+      } else {
+        jarsByModule.put(module.getName(), getJars(module));
+      }
+    }
+    
+    final Map<String, CompiledModule> compiledModules = new LinkedHashMap<String, CompiledModule>();
+    final List<String> waitingModules = new ArrayList<String>(modules.keySet());
+    final Map<Future<CompiledModule>, String> runningModules = new HashMap<Future<CompiledModule>, String>();
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+        Math.min(jobs, modules.size())));
+    final CompletionService<CompiledModule> completionService = new ExecutorCompletionService<CompiledModule>(
+        executor);
+    
+    // the first failure stops new modules from starting
+    Throwable failure = null;
+    try {
+      while (true) {
+        if (failure == null) {
+          final Iterator<String> waitingIterator = waitingModules.iterator();
+          while (waitingIterator.hasNext()) {
+            final String moduleName = waitingIterator.next();
+            if (compiledModules.keySet().containsAll(
+                upstreamModuleNames.get(moduleName))) {
+              waitingIterator.remove();
+              runningModules.put(completionService.submit(getCompileTask(
+                  modules.get(moduleName), upstreamModuleNames.get(moduleName),
+                  projectJars, jarsByModule, compiledModules)), moduleName);
+            }
+          }
+        }
+        
+        if (runningModules.isEmpty()) {
+          break;
+        }
+        
+        final Future<CompiledModule> future = takeCompleted(completionService);
+        final String moduleName = runningModules.remove(future);
+        try {
+          compiledModules.put(moduleName, future.get());
+        } catch (final ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          } else {
+            Log.get().log("Compiling module " + moduleName + " failed too: "
+                + e.getCause(), LogLevel.DEBUG);
+          }
+        } catch (final InterruptedException e) {
+          throw new BootstrapError("Interrupted while compiling", e);
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+    
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    } else if (failure != null) {
+      throw new BootstrapError(failure);
+    }
+    
+    final LinkedHashSet<File> classPath = new LinkedHashSet<File>();
+    final CompilationCache.Builder cacheBuilder = new CompilationCache.Builder(
+        compiledModules.get(ProjectDescription.ROOT_MODULE_NAME)
+            .getClassOutputDir());
+    for (final CompiledModule compiledModule : compiledModules.values()) {
+      classPath.add(compiledModule.getClassOutputDir());
+      classPath.addAll(jarsByModule.get(compiledModule.getModule().getName()));
+      cacheBuilder.addJars(jarsByModule.get(compiledModule.getModule()
+          .getName()));
+      
+      for (final String sourcePath : compiledModule.getSourceFilesByPath()
+          .keySet()) {
+        cacheBuilder.add(sourcePath, compiledModule.getClassOutputDir(),
+            compiledModule.getSourceFilesByPath().get(sourcePath),
+            compiledModule.getClassFilesByPath().get(sourcePath));
+      }
+    }
+    
+    return new BootstrapInfo(cacheBuilder.commit(), classPath);
+  }
+  
+  /**
+   * Get a task that compiles a module, once the modules it depends on have
+   * been compiled.
+   */
+  private Callable<CompiledModule> getCompileTask(
+      final ModuleDescription module, final Set<String> upstreamModuleNames,
+      final Collection<File> projectJars,
+      final Map<String, Collection<File>> jarsByModule,
+      final Map<String, CompiledModule> compiledModules) {
+    
+    final LinkedHashSet<File> jars = new LinkedHashSet<File>(projectJars);
+    jars.addAll(jarsByModule.get(module.getName()));
+    final List<CompiledModule> upstreamModules = new ArrayList<CompiledModule>();
+    for (final String upstreamModuleName : upstreamModuleNames) {
+      jars.addAll(jarsByModule.get(upstreamModuleName));
+      upstreamModules.add(compiledModules.get(upstreamModuleName));
+    }
+    
+    final File moduleCacheDir;
+    if (module == desc.getRootModule()) {
+      moduleCacheDir = cacheDir;
+    } else {
+      moduleCacheDir = new File(new File(cacheDir, MODULES_DIR_NAME), module
+          .getName());
+    }
+    
+    Log.get().log("Compiling " + module, LogLevel.DEBUG);
+    return new Callable<CompiledModule>() {
+      @Override
+      public CompiledModule call() throws Exception {
+        return new ProjectCompiler(module, moduleCacheDir, jobs).compile(jars,
+            upstreamModules);
+      }
+    };
+  }
+  
+  private static Future<CompiledModule> takeCompleted(
+      final CompletionService<CompiledModule> completionService) {
+    try {
+      return completionService.take();
+    } catch (final InterruptedException e) {
+      throw new BootstrapError("Interrupted while compiling", e);
+    }
+  }
+  
+  /**
+   * Get all modules of the project, with the root module last.
+   * 
+   * @return module name &rarr; module
+   */
+  static Map<String, ModuleDescription> getModules(
+      final ProjectDescription desc) {
+    final Map<String, ModuleDescription> modules = new LinkedHashMap<String, ModuleDescription>();
+    for (final ModuleDescription module : desc.getModules()) {
+      modules.put(module.getName(), module);
+    }
+    modules.put(ProjectDescription.ROOT_MODULE_NAME, desc.getRootModule());
+    return modules;
+  }
+  
+  /**
+   * Find out which modules each module depends on, directly or indirectly. The
+   * root module depends on all other modules.
+   * 
+   * @return module name &rarr; the names of its upstream modules, each after
+   *         the modules it depends on.
+   * @throws BootstrapError
+   *           if a module depends on an unknown module, or the dependencies
+   *           are circular.
+   */
+  static Map<String, Set<String>> getUpstreamModules(
+      final Map<String, ModuleDescription> modules) {
+    final Map<String, Set<String>> upstreamModules = new HashMap<String, Set<String>>();
+    for (final String moduleName : modules.keySet()) {
+      addUpstreamModules(moduleName, modules, upstreamModules,
+          new LinkedHashSet<String>());
+    }
+    return upstreamModules;
+  }
+  
+  private static Set<String> addUpstreamModules(final String moduleName,
+      final Map<String, ModuleDescription> modules,
+      final Map<String, Set<String>> upstreamModules,
+      final LinkedHashSet<String> path) {
+    
+    if (upstreamModules.containsKey(moduleName)) {
+      return upstreamModules.get(moduleName);
+    }
+    
+    if (!path.add(moduleName)) {
+      final List<String> cycle = new ArrayList<String>(path);
+      cycle.add(moduleName);
+      throw new BootstrapError("The modules depend on each other: "
+          + Util.implode(" -> ", cycle.subList(cycle.indexOf(moduleName),
+              cycle.size())));
+    }
+    
+    final Collection<String> dependencies;
+    if (moduleName.equals(ProjectDescription.ROOT_MODULE_NAME)) {
+      dependencies = new ArrayList<String>(modules.keySet());
+      dependencies.remove(moduleName);
+    } else {
+      dependencies = modules.get(moduleName).getDependencies();
+    }
+    
+    final Set<String> moduleUpstream = new LinkedHashSet<String>();
+    for (final String dependency : dependencies) {
+      if (!modules.containsKey(dependency)
+          || dependency.equals(ProjectDescription.ROOT_MODULE_NAME)) {
+        throw new BootstrapError("Module " + moduleName
+            + " depends on an unknown module " + dependency);
+      }
+      moduleUpstream.addAll(addUpstreamModules(dependency, modules,
+          upstreamModules, path));
+      moduleUpstream.add(dependency);
+    }
+    
+    path.remove(moduleName);
+    upstreamModules.put(moduleName, moduleUpstream);
+    return moduleUpstream;
+  }
+  
+  /**
+   * @throws BootstrapError
+   *           if a source path belongs to more than one module
+   */
+  private static void checkSourcePaths(
+      final Collection<ModuleDescription> modules) {
+    final Map<String, ModuleDescription> modulesBySourcePath = new HashMap<String, ModuleDescription>();
+    for (final ModuleDescription module : modules) {
+      for (final String sourcePath : module.getSourcePaths()) {
+        final ModuleDescription otherModule = modulesBySourcePath.put(
+            sourcePath, module);
+        if (otherModule != null) {
+          throw new BootstrapError("Source path " + sourcePath
+              + " belongs to both " + otherModule + " and " + module);
+        }
+      }
+    }
+  }
+  
+  private static Collection<File> getJars(final ModuleDescription module) {
+    final Collection<File> jarFiles = new HashSet<File>();
+    
+    Log.get().log("Calculating classpath of " + module, LogLevel.DEBUG);
+    
+    for (final String jarFileName : module.getJarFiles()) {
+      final File jarFile = new File(jarFileName);
+      if (jarFile.canRead()) {
+        Log.get().log("Added " + jarFile.getAbsolutePath(), LogLevel.DEBUG);
+        jarFiles.add(jarFile);
+      } else {
+        Log.get().log("Could not be read: " + jarFile.getAbsolutePath(),
+            LogLevel.WARNING);
+      }
+    }
+    
+    for (final String jarPathName : module.getJarPaths()) {
+      final File jarPath = new File(jarPathName);
+      if (jarPath.canRead() && jarPath.isDirectory()) {
+        Log.get().log("Adding all jars from " + jarPath.getAbsolutePath(),
+            LogLevel.DEBUG);
+        for (final File jarFile : jarPath.listFiles()) {
+          if (jarFile.getName().endsWith(".jar")) {
+            Log.get().log("Added " + jarFile.getName(), LogLevel.DEBUG);
+            jarFiles.add(jarFile);
+          }
+        }
+      } else if (!module.isJarPathOptional(jarPathName)) {
+        Log.get().log("Could not read directory "
+            + jarPath.getAbsolutePath(), LogLevel.WARNING);
+      }
+    }
+    
+    return jarFiles;
+  }
+}
@@ -0,0 +1,1221 @@
+package com.github.wolfie.bob;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import com.github.wolfie.bob.CompilationIndex.SourceEntry;
+import com.github.wolfie.bob.CompilationIndex.SourceStat;
+import com.github.wolfie.bob.Log.LogLevel;
+import com.github.wolfie.bob.exception.CompilationFailedException;
+import com.github.wolfie.bob.exception.NotADirectoryOrCouldNotReadException;
+
+/**
+ * Compiles the source paths of a {@link ModuleDescription} before the build
+ * itself is run.
+ * <p/>
+ * The compiled classes are kept in a persistent directory of the module under
+ * {@link Defaults#CACHE_PATH}, together with a {@link CompilationIndex}. This
+ * way only the sources that have changed since the previous run are handed to
+ * the compiler. An unchanged source is recognized by its size and modification
+ * time, and only if those differ, its contents are hashed and compared.
+ * <p/>
+ * When a source is compiled, the classes it references and a fingerprint of
+ * its API are read from its class files. The sources that refer to a removed
+ * source's classes are recompiled, but a recompiled source affects the sources
+ * referring to it only if its API has changed. This is repeated in waves until
+ * the APIs settle, in all source paths, so that a change inside a method body
+ * never causes more than one file to be compiled.
+ * <p/>
+ * References to compile-time constants are inlined by the compiler, and leave
+ * no trace in the class file. Therefore all remaining sources are recompiled
+ * whenever the value of a non-private constant changes.
+ * <p/>
+ * Within a wave, the source paths are compiled concurrently, each with a file
+ * manager of its own. A source path waits for the earlier source paths it is
+ * known to refer to.
+ * <p/>
+ * The classes of the modules this module depends on are treated as if they
+ * were sources in an earlier wave: if their APIs have changed since the
+ * module was last compiled, the sources referring to them are recompiled.
+ * <p/>
+ * If the libraries, the compiler options or Bob itself change, the index is
+ * discarded and everything is compiled anew.
+ * <p/>
+ * Whenever something needs to be compiled, the {@link BuildCache} is checked
+ * first for the classes of the module, as compiled from exactly the current
+ * sources, libraries and upstream APIs. The classes of each compiled state of
+ * the module are stored there, so that returning to a state seen before, such
+ * as when switching branches, costs a copy instead of a compilation.
+ * 
+ * @see ModuleScheduler
+ */
+final class ProjectCompiler {
+  
+  private static class BobDiagnosticListener implements
+      DiagnosticListener<JavaFileObject> {
+    private final List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<Diagnostic<? extends JavaFileObject>>();
+    private boolean hasErrors = false;
+    
+    @Override
+    public void report(final Diagnostic<? extends JavaFileObject> diagnostic) {
+      diagnostics.add(diagnostic);
+      if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+        hasErrors = true;
+      }
+    }
+    
+    public boolean hasErrors() {
+      return hasErrors;
+    }
+    
+    public List<Diagnostic<? extends JavaFileObject>> getProblems() {
+      return Collections.unmodifiableList(diagnostics);
+    }
+  }
+  
+  /** The changes that a wave of compilation caused to the compiled APIs */
+  private static class ApiChanges {
+    /** classes whose API has changed or that have disappeared */
+    private final Set<String> affectedClasses = new HashSet<String>();
+    
+    /** whether the value of any non-private constant has changed */
+    private boolean constantsChanged = false;
+    
+    /** whether the compilation was done speculatively */
+    private boolean speculative = false;
+  }
+  
+  /** The classes compiled from a module, for the modules depending on it */
+  static final class CompiledModule {
+    private final ModuleDescription module;
+    private final File classOutputDir;
+    private final Map<String, Set<File>> sourceFilesByPath;
+    private final Map<String, Set<URI>> classFilesByPath;
+    private final Map<String, String> apiHashes;
+    private final Map<String, String> constantsHashes;
+    
+    private CompiledModule(final ModuleDescription module,
+        final File classOutputDir,
+        final Map<String, Set<File>> sourceFilesByPath,
+        final Map<String, Set<URI>> classFilesByPath,
+        final Map<String, String> apiHashes,
+        final Map<String, String> constantsHashes) {
+      this.module = module;
+      this.classOutputDir = classOutputDir;
+      this.sourceFilesByPath = sourceFilesByPath;
+      this.classFilesByPath = classFilesByPath;
+      this.apiHashes = apiHashes;
+      this.constantsHashes = constantsHashes;
+    }
+    
+    ModuleDescription getModule() {
+      return module;
+    }
+    
+    File getClassOutputDir() {
+      return classOutputDir;
+    }
+    
+    /** source path &rarr; the source files found in it */
+    Map<String, Set<File>> getSourceFilesByPath() {
+      return Collections.unmodifiableMap(sourceFilesByPath);
+    }
+    
+    /** source path &rarr; the class files compiled from it */
+    Map<String, Set<URI>> getClassFilesByPath() {
+      return Collections.unmodifiableMap(classFilesByPath);
+    }
+    
+    /** @see CompilationIndex#getApiHashesByClass() */
+    Map<String, String> getApiHashes() {
+      return Collections.unmodifiableMap(apiHashes);
+    }
+    
+    /** @see CompilationIndex#getConstantsHashesByClass() */
+    Map<String, String> getConstantsHashes() {
+      return Collections.unmodifiableMap(constantsHashes);
+    }
+  }
+  
+  /**
+   * A speculative compilation failed, and should be retried once the classes
+   * it might depend on are compiled.
+   */
+  private static class SpeculationFailedException extends Exception {
+    private static final long serialVersionUID = -1744935102384317286L;
+  }
+  
+  /** The options given to the compiler for each source path */
+  private static final List<String> COMPILER_OPTIONS = Collections.emptyList();
+  
+  private static final String CLASSES_DIR_NAME = "classes";
+  private static final String INDEX_FILE_NAME = "compilation.idx";
+  
+  /**
+   * The entry in the {@link BuildCache} that tells which class files were
+   * compiled from which source file.
+   */
+  private static final String SOURCES_ENTRY_NAME = "sources.ser";
+  
+  /**
+   * How many differing classpaths the idle file managers are kept for. Each
+   * module usually has a classpath of its own.
+   */
+  private static final int MAX_POOLED_CLASSPATHS = 64;
+  
+  /**
+   * The file managers are kept between compilations, so that a long-lived Bob
+   * doesn't need to open and index the platform classes and the jars each
+   * time. They are pooled by the key of the classpath they were used with,
+   * and discarded when the classpath changes. As a file manager can't be
+   * shared between concurrent compilations, there's one for each.
+   */
+  private static final LinkedHashMap<String, List<StandardJavaFileManager>> idleFileManagers = new LinkedHashMap<String, List<StandardJavaFileManager>>(
+      16, 0.75f, true);
+  
+  private final ModuleDescription module;
+  private final File classOutputDir;
+  private final File indexFile;
+  private final int jobs;
+  
+  /**
+   * The stat of each source file, taken before the file was hashed. Filled
+   * in before anything is compiled, and only read after that.
+   */
+  private final Map<File, SourceStat> sourceStats = new HashMap<File, SourceStat>();
+  
+  /**
+   * @param cacheDir
+   *          the directory in which the module's classes and index are kept
+   * @param jobs
+   *          the maximum number of source paths to compile concurrently
+   */
+  ProjectCompiler(final ModuleDescription module, final File cacheDir,
+      final int jobs) {
+    Util.checkNulls(module, cacheDir);
+    this.module = module;
+    classOutputDir = new File(cacheDir, CLASSES_DIR_NAME);
+    indexFile = new File(cacheDir, INDEX_FILE_NAME);
+    this.jobs = jobs;
+  }
+  
+  /**
+   * Compile all changed sources in the module.
+   * 
+   * @param jars
+   *          the libraries in the module's classpath
+   * @param upstreamModules
+   *          the compiled modules this module depends on, directly or
+   *          indirectly
+   * @return the compiled module
+   */
+  CompiledModule compile(final Collection<File> jars,
+      final Collection<CompiledModule> upstreamModules) throws IOException {
+    final String indexKey = getIndexKey(jars);
+    
+    final List<File> classPath = new ArrayList<File>(jars);
+    final Map<String, String> upstreamApiHashes = new HashMap<String, String>();
+    final Map<String, String> upstreamConstantsHashes = new HashMap<String, String>();
+    for (final CompiledModule upstreamModule : upstreamModules) {
+      classPath.add(upstreamModule.getClassOutputDir());
+      upstreamApiHashes.putAll(upstreamModule.getApiHashes());
+      upstreamConstantsHashes.putAll(upstreamModule.getConstantsHashes());
+    }
+    
+    CompilationIndex index = CompilationIndex.load(indexFile, indexKey);
+    if (index == null) {
+      Log.get().log("No usable compilation cache found for " + module
+          + ", compiling all sources", LogLevel.VERBOSE);
+      if (classOutputDir.exists()) {
+        Util.delete(classOutputDir);
+      }
+      index = new CompilationIndex(indexKey);
+    }
+    
+    if (!classOutputDir.isDirectory() && !classOutputDir.mkdirs()) {
+      throw new IOException("could not create directory "
+          + classOutputDir.getAbsolutePath());
+    }
+    classPath.add(classOutputDir);
+    
+    // find all sources first, so that changes can be traced across paths
+    final Map<String, Set<File>> sourceFilesByPath = new LinkedHashMap<String, Set<File>>();
+    for (final String sourcePath : module.getSourcePaths()) {
+      try {
+        sourceFilesByPath.put(sourcePath, Util.getFilesRecursively(new File(
+            sourcePath), Util.JAVA_SOURCE_FILE));
+      } catch (final NotADirectoryOrCouldNotReadException e) {
+        if (!module.isSourcePathOptional(sourcePath)) {
+          throw new BootstrapError(e);
+        }
+      }
+    }
+    
+    ApiChanges apiChanges = new ApiChanges();
+    addUpstreamChanges(index, upstreamApiHashes, upstreamConstantsHashes,
+        apiChanges);
+    
+    // get rid of classes from source paths that are no longer around.
+    for (final String indexedPath : index.getSourcePaths()) {
+      if (!sourceFilesByPath.containsKey(indexedPath)) {
+        Log.get().log("Forgetting classes compiled from " + indexedPath,
+            LogLevel.DEBUG);
+        for (final SourceEntry entry : index.remove(indexedPath).values()) {
+          removeEntry(entry, apiChanges);
+        }
+      }
+    }
+    
+    // the first wave consists of the changed sources
+    Map<String, Map<File, String>> wave = new HashMap<String, Map<File, String>>();
+    for (final Entry<String, Set<File>> sourcePathEntry : sourceFilesByPath
+        .entrySet()) {
+      final Set<File> sourceFiles = sourcePathEntry.getValue();
+      final Map<File, SourceEntry> entries = index.getEntries(sourcePathEntry
+          .getKey());
+      
+      removeVanishedSources(sourceFiles, entries, apiChanges);
+      wave.put(sourcePathEntry.getKey(), getChangedSources(sourceFiles,
+          entries));
+    }
+    
+    final Map<String, Set<File>> compiledSourcesByPath = new HashMap<String, Set<File>>();
+    final Map<String, Set<File>> settledSourcesByPath = new HashMap<String, Set<File>>();
+    for (final String sourcePath : sourceFilesByPath.keySet()) {
+      compiledSourcesByPath.put(sourcePath, new HashSet<File>());
+      settledSourcesByPath.put(sourcePath, new HashSet<File>());
+    }
+    
+    String moduleKey = null;
+    addDependents(index, wave, settledSourcesByPath, apiChanges);
+    if (!isEmpty(wave)) {
+      final Map<String, Map<File, String>> sourceHashesByPath = getSourceHashes(
+          sourceFilesByPath, index, wave);
+      moduleKey = getModuleKey(jars, upstreamApiHashes,
+          upstreamConstantsHashes, sourceHashesByPath);
+      
+      final CompilationIndex restoredIndex = restoreFromBuildCache(moduleKey,
+          indexKey, sourceHashesByPath);
+      if (restoredIndex != null) {
+        index = restoredIndex;
+        apiChanges = new ApiChanges();
+        moduleKey = null;
+        for (final String sourcePath : sourceFilesByPath.keySet()) {
+          wave.put(sourcePath, new HashMap<File, String>());
+        }
+      }
+    }
+    
+    int waveNumber = 1;
+    while (true) {
+      addDependents(index, wave, settledSourcesByPath, apiChanges);
+      if (isEmpty(wave)) {
+        break;
+      }
+      
+      Log.get().log("Compilation wave " + waveNumber++, LogLevel.DEBUG);
+      apiChanges = compileWave(new ArrayList<String>(sourceFilesByPath
+          .keySet()), wave, index, classPath, indexKey, settledSourcesByPath);
+      for (final String sourcePath : sourceFilesByPath.keySet()) {
+        compiledSourcesByPath.get(sourcePath).addAll(
+            wave.get(sourcePath).keySet());
+      }
+      
+      wave = new HashMap<String, Map<File, String>>();
+      for (final String sourcePath : sourceFilesByPath.keySet()) {
+        wave.put(sourcePath, new HashMap<File, String>());
+      }
+    }
+    
+    final Map<String, Set<URI>> classFilesByPath = new HashMap<String, Set<URI>>();
+    boolean compiledAnything = false;
+    for (final Entry<String, Set<File>> sourcePathEntry : sourceFilesByPath
+        .entrySet()) {
+      final String sourcePath = sourcePathEntry.getKey();
+      final Set<File> sourceFiles = sourcePathEntry.getValue();
+      final Set<File> compiledSources = compiledSourcesByPath.get(sourcePath);
+      
+      if (compiledSources.isEmpty()) {
+        Log.get().log(sourcePath + " is up to date", LogLevel.VERBOSE);
+      } else {
+        compiledAnything = true;
+        Log.get().log(String.format("Compiled %d of %d source file(s) in %s",
+            compiledSources.size(), sourceFiles.size(), sourcePath),
+            LogLevel.VERBOSE);
+      }
+      
+      final Set<URI> classFiles = new HashSet<URI>();
+      for (final SourceEntry entry : index.getEntries(sourcePath).values()) {
+        classFiles.addAll(entry.getClassFiles());
+      }
+      classFilesByPath.put(sourcePath, classFiles);
+    }
+    
+    index.setUpstreamHashes(upstreamApiHashes, upstreamConstantsHashes);
+    index.save(indexFile);
+    
+    if (moduleKey != null && compiledAnything) {
+      storeInBuildCache(moduleKey, index);
+    }
+    
+    return new CompiledModule(module, classOutputDir, sourceFilesByPath,
+        classFilesByPath, index.getApiHashesByClass(), index
+            .getConstantsHashesByClass());
+  }
+  
+  /**
+   * Find the classes of the upstream modules that have changed since this
+   * module was last compiled against them.
+   * 
+   * @param apiHashes
+   *          the current API hashes of the upstream classes
+   * @param constantsHashes
+   *          the current constants hashes of the upstream classes
+   */
+  private static void addUpstreamChanges(final CompilationIndex index,
+      final Map<String, String> apiHashes,
+      final Map<String, String> constantsHashes, final ApiChanges apiChanges) {
+    final Map<String, String> oldApiHashes = index.getUpstreamApiHashes();
+    
+    final Set<String> classNames = new HashSet<String>(apiHashes.keySet());
+    classNames.addAll(oldApiHashes.keySet());
+    for (final String className : classNames) {
+      final String oldApiHash = oldApiHashes.get(className);
+      if (oldApiHash == null || !oldApiHash.equals(apiHashes.get(className))) {
+        apiChanges.affectedClasses.add(className);
+      }
+    }
+    
+    if (!index.getUpstreamConstantsHashes().equals(constantsHashes)) {
+      Log.get().log("The constants of the upstream modules have changed",
+          LogLevel.DEBUG);
+      apiChanges.constantsChanged = true;
+    }
+  }
+  
+  /**
+   * Forget the sources that have disappeared since the last compilation, and
+   * delete the classes compiled from them.
+   */
+  private static void removeVanishedSources(final Set<File> sourceFiles,
+      final Map<File, SourceEntry> entries, final ApiChanges apiChanges) {
+    final Iterator<Entry<File, SourceEntry>> entryIterator = entries
+        .entrySet().iterator();
+    while (entryIterator.hasNext()) {
+      final Entry<File, SourceEntry> entry = entryIterator.next();
+      if (!sourceFiles.contains(entry.getKey())) {
+        Log.get().log(entry.getKey().getPath() + " was removed",
+            LogLevel.DEBUG);
+        removeEntry(entry.getValue(), apiChanges);
+        entryIterator.remove();
+      }
+    }
+  }
+  
+  private static void removeEntry(final SourceEntry entry,
+      final ApiChanges apiChanges) {
+    deleteClassFiles(entry);
+    apiChanges.affectedClasses.addAll(entry.getClassNames());
+    if (entry.getConstantsHash() != null) {
+      apiChanges.constantsChanged = true;
+    }
+  }
+  
+  /**
+   * Add the sources that are affected by the API changes of the previous wave
+   * to the next wave, in all source paths. Sources that have already been
+   * compiled during this run are not added again.
+   * 
+   * @param wave
+   *          source path &rarr; source file to compile &rarr; content hash.
+   *          The dependents are added into this map.
+   * @param compiledSourcesByPath
+   *          source path &rarr; the sources compiled so far.
+   */
+  private static void addDependents(final CompilationIndex index,
+      final Map<String, Map<File, String>> wave,
+      final Map<String, Set<File>> compiledSourcesByPath,
+      final ApiChanges apiChanges) {
+    
+    for (final Entry<String, Map<File, String>> pathEntry : wave.entrySet()) {
+      final Map<File, String> sourcesToCompile = pathEntry.getValue();
+      final Set<File> compiledSources = compiledSourcesByPath.get(pathEntry
+          .getKey());
+      
+      for (final Entry<File, SourceEntry> entry : index.getEntries(
+          pathEntry.getKey()).entrySet()) {
+        final File sourceFile = entry.getKey();
+        final SourceEntry sourceEntry = entry.getValue();
+        if (sourcesToCompile.containsKey(sourceFile)
+            || compiledSources.contains(sourceFile)) {
+          continue;
+        }
+        
+        if (apiChanges.constantsChanged) {
+          Log.get().log(sourceFile.getPath()
+              + " may use changed constants", LogLevel.DEBUG);
+          sourcesToCompile.put(sourceFile, sourceEntry.getHash());
+        } else if (sourceEntry.refersToAny(apiChanges.affectedClasses)) {
+          Log.get().log(sourceFile.getPath()
+              + " depends on changed classes", LogLevel.DEBUG);
+          sourcesToCompile.put(sourceFile, sourceEntry.getHash());
+        }
+      }
+    }
+  }
+  
+  private static boolean isEmpty(final Map<String, Map<File, String>> wave) {
+    for (final Map<File, String> sourcesToCompile : wave.values()) {
+      if (!sourcesToCompile.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Compile a wave of sources, with the source paths compiled concurrently.
+   * <p/>
+   * A source path is started only after the earlier source paths it refers to
+   * are done, as far as the index knows. When a source path is started while
+   * some earlier source path is still being compiled, the compilation is
+   * speculative: if it fails, it's retried silently once all earlier source
+   * paths are done. If it succeeds, but an earlier source path changed its
+   * API meanwhile, the sources that refer to the changed classes are allowed
+   * to be compiled again in the next wave.
+   * 
+   * @param sourcePaths
+   *          all source paths, in the order they were declared in
+   * @param settledSourcesByPath
+   *          source path &rarr; the sources that won't need to be compiled
+   *          again during this run. The compiled sources are added here.
+   * @return the API changes caused by the wave
+   */
+  private ApiChanges compileWave(final List<String> sourcePaths,
+      final Map<String, Map<File, String>> wave,
+      final CompilationIndex index, final Iterable<File> classPath,
+      final String indexKey, final Map<String, Set<File>> settledSourcesByPath)
+      throws IOException {
+    
+    final List<String> pathsToCompile = new ArrayList<String>();
+    for (final String sourcePath : sourcePaths) {
+      if (!wave.get(sourcePath).isEmpty()) {
+        pathsToCompile.add(sourcePath);
+      }
+    }
+    
+    final Map<String, Set<String>> dependencies = getDependencies(
+        pathsToCompile, index);
+    final Set<String> donePaths = Collections
+        .synchronizedSet(new HashSet<String>());
+    final Map<String, ApiChanges> apiChangesByPath = new HashMap<String, ApiChanges>();
+    final Set<String> speculativePaths = new HashSet<String>();
+    
+    final Set<File> replacedClassFiles = Collections
+        .synchronizedSet(new HashSet<File>());
+    
+    final List<String> waitingPaths = new ArrayList<String>(pathsToCompile);
+    final Map<Future<ApiChanges>, String> runningPaths = new HashMap<Future<ApiChanges>, String>();
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+        Math.min(jobs, pathsToCompile.size())));
+    final CompletionService<ApiChanges> completionService = new ExecutorCompletionService<ApiChanges>(
+        executor);
+    
+    try {
+      while (!waitingPaths.isEmpty() || !runningPaths.isEmpty()) {
+        final Iterator<String> waitingIterator = waitingPaths.iterator();
+        while (waitingIterator.hasNext()) {
+          final String sourcePath = waitingIterator.next();
+          if (donePaths.containsAll(dependencies.get(sourcePath))) {
+            waitingIterator.remove();
+            final Set<String> earlierPaths = new HashSet<String>(
+                pathsToCompile.subList(0, pathsToCompile.indexOf(sourcePath)));
+            runningPaths.put(completionService.submit(new Callable<ApiChanges>() {
+              @Override
+              public ApiChanges call() throws Exception {
+                final boolean speculative = !donePaths.containsAll(earlierPaths);
+                final ApiChanges apiChanges = compile(sourcePath, wave
+                    .get(sourcePath), index.getEntries(sourcePath), classPath,
+                    indexKey, speculative, replacedClassFiles);
+                apiChanges.speculative = speculative;
+                donePaths.add(sourcePath);
+                return apiChanges;
+              }
+            }), sourcePath);
+          }
+        }
+        
+        final Future<ApiChanges> future = takeCompleted(completionService);
+        final String sourcePath = runningPaths.remove(future);
+        try {
+          final ApiChanges apiChanges = future.get();
+          apiChangesByPath.put(sourcePath, apiChanges);
+          if (apiChanges.speculative) {
+            speculativePaths.add(sourcePath);
+          }
+        } catch (final ExecutionException e) {
+          if (e.getCause() instanceof SpeculationFailedException) {
+            Log.get().log("Compiling " + sourcePath + " again, after the "
+                + "source paths before it", LogLevel.DEBUG);
+            dependencies.put(sourcePath, new HashSet<String>(pathsToCompile
+                .subList(0, pathsToCompile.indexOf(sourcePath))));
+            waitingPaths.add(sourcePath);
+          } else if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          } else if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+          } else {
+            throw new BootstrapError(e.getCause());
+          }
+        } catch (final InterruptedException e) {
+          throw new BootstrapError("Interrupted while compiling", e);
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+    
+    deleteStaleClassFiles(replacedClassFiles, index);
+    
+    final ApiChanges waveApiChanges = new ApiChanges();
+    for (final String sourcePath : pathsToCompile) {
+      final ApiChanges apiChanges = apiChangesByPath.get(sourcePath);
+      waveApiChanges.affectedClasses.addAll(apiChanges.affectedClasses);
+      waveApiChanges.constantsChanged |= apiChanges.constantsChanged;
+      settledSourcesByPath.get(sourcePath).addAll(
+          wave.get(sourcePath).keySet());
+    }
+    
+    // the speculative compilations may have seen outdated classes
+    for (final String sourcePath : speculativePaths) {
+      final ApiChanges earlierApiChanges = new ApiChanges();
+      for (final String earlierPath : pathsToCompile.subList(0,
+          pathsToCompile.indexOf(sourcePath))) {
+        earlierApiChanges.affectedClasses.addAll(apiChangesByPath
+            .get(earlierPath).affectedClasses);
+        earlierApiChanges.constantsChanged |= apiChangesByPath
+            .get(earlierPath).constantsChanged;
+      }
+      
+      final Map<File, SourceEntry> entries = index.getEntries(sourcePath);
+      for (final File sourceFile : wave.get(sourcePath).keySet()) {
+        if (earlierApiChanges.constantsChanged
+            || entries.get(sourceFile).refersToAny(
+                earlierApiChanges.affectedClasses)) {
+          settledSourcesByPath.get(sourcePath).remove(sourceFile);
+        }
+      }
+    }
+    
+    return waveApiChanges;
+  }
+  
+  /**
+   * Find out which of the earlier source paths each source path refers to,
+   * according to the index.
+   * 
+   * @param sourcePaths
+   *          the source paths, in the order they were declared in
+   * @return source path &rarr; the earlier source paths it depends on
+   */
+  private static Map<String, Set<String>> getDependencies(
+      final List<String> sourcePaths, final CompilationIndex index) {
+    
+    final Map<String, String> sourcePathsByClass = new HashMap<String, String>();
+    for (final String sourcePath : sourcePaths) {
+      for (final SourceEntry entry : index.getEntries(sourcePath).values()) {
+        for (final String className : entry.getClassNames()) {
+          sourcePathsByClass.put(className, sourcePath);
+        }
+      }
+    }
+    
+    final Map<String, Set<String>> dependencies = new HashMap<String, Set<String>>();
+    for (int i = 0; i < sourcePaths.size(); i++) {
+      final String sourcePath = sourcePaths.get(i);
+      final List<String> earlierPaths = sourcePaths.subList(0, i);
+      final Set<String> pathDependencies = new HashSet<String>();
+      
+      for (final SourceEntry entry : index.getEntries(sourcePath).values()) {
+        for (final String className : entry.getReferencedClassNames()) {
+          final String referencedPath = sourcePathsByClass.get(className);
+          if (referencedPath != null && earlierPaths.contains(referencedPath)) {
+            pathDependencies.add(referencedPath);
+          }
+        }
+      }
+      
+      dependencies.put(sourcePath, pathDependencies);
+    }
+    return dependencies;
+  }
+  
+  private static Future<ApiChanges> takeCompleted(
+      final CompletionService<ApiChanges> completionService) {
+    try {
+      return completionService.take();
+    } catch (final InterruptedException e) {
+      throw new BootstrapError("Interrupted while compiling", e);
+    }
+  }
+  
+  /**
+   * Compile some of the sources of a single source path.
+   * 
+   * @param sourcePath
+   *          the source path being compiled
+   * @param sourcesToCompile
+   *          the sources to compile, mapped to their content hashes
+   * @param entries
+   *          the index entries of <tt>sourcePath</tt>. These will be updated
+   *          to reflect the compilation.
+   * @param classPath
+   *          the classpath to compile against
+   * @param indexKey
+   *          the key describing <tt>classPath</tt>
+   * @param speculative
+   *          whether the compilation may fail because of classes not yet
+   *          compiled. Errors are then not reported, but a
+   *          {@link SpeculationFailedException} is thrown.
+   * @param replacedClassFiles
+   *          where to add the class files the sources were compiled into
+   *          before. They are deleted once the whole wave is done, unless
+   *          some source compiles into them now.
+   * @return the changes the compilation caused to the APIs of the classes
+   * @throws IOException
+   */
+  private ApiChanges compile(final String sourcePath,
+      final Map<File, String> sourcesToCompile,
+      final Map<File, SourceEntry> entries, final Iterable<File> classPath,
+      final String indexKey, final boolean speculative,
+      final Set<File> replacedClassFiles) throws IOException,
+      SpeculationFailedException {
+    
+    final ApiChanges apiChanges = new ApiChanges();
+    if (sourcesToCompile.isEmpty()) {
+      return apiChanges;
+    }
+    
+    Log.get().log(String.format("Compiling %d source file(s) in %s%s",
+        sourcesToCompile.size(), sourcePath, speculative ? " speculatively"
+            : ""), LogLevel.DEBUG);
+    
+    // nothing is touched until the compilation has succeeded
+    final Map<File, SourceEntry> oldEntries = new HashMap<File, SourceEntry>();
+    for (final File sourceFile : sourcesToCompile.keySet()) {
+      final SourceEntry oldEntry = entries.get(sourceFile);
+      if (oldEntry != null) {
+        oldEntries.put(sourceFile, oldEntry);
+      }
+    }
+    
+    final BobWrappedJavaFileManager fileManager = compileFiles(
+        sourcesToCompile.keySet(), classPath, indexKey, speculative);
+    
+    for (final Entry<File, String> sourceToCompile : sourcesToCompile
+        .entrySet()) {
+      final File sourceFile = sourceToCompile.getKey();
+      final SourceEntry newEntry = createEntry(sourceFile, sourceStats
+          .get(sourceFile), sourceToCompile.getValue(), fileManager
+          .getJavaFileURIs(sourceFile));
+      entries.put(sourceFile, newEntry);
+      
+      final SourceEntry oldEntry = oldEntries.get(sourceFile);
+      if (oldEntry != null) {
+        for (final URI classFileUri : oldEntry.getClassFiles()) {
+          replacedClassFiles.add(new File(classFileUri));
+        }
+        if (!oldEntry.getApiHash().equals(newEntry.getApiHash())) {
+          Log.get().log("The API of " + sourceFile.getPath() + " has changed",
+              LogLevel.DEBUG);
+          apiChanges.affectedClasses.addAll(oldEntry.getClassNames());
+          apiChanges.affectedClasses.addAll(newEntry.getClassNames());
+        }
+        final String oldConstantsHash = oldEntry.getConstantsHash();
+        final String newConstantsHash = newEntry.getConstantsHash();
+        if (oldConstantsHash == null ? newConstantsHash != null
+            : !oldConstantsHash.equals(newConstantsHash)) {
+          Log.get().log("The constants of " + sourceFile.getPath()
+              + " have changed", LogLevel.DEBUG);
+          apiChanges.constantsChanged = true;
+        }
+      }
+    }
+    return apiChanges;
+  }
+  
+  /**
+   * Create an index entry for a freshly compiled source file, reading the
+   * names of its classes, their dependencies and their APIs from the class
+   * files.
+   */
+  private static SourceEntry createEntry(final File sourceFile,
+      final SourceStat stat, final String hash, final Set<URI> classFiles)
+      throws IOException {
+    final Map<String, ClassFileInfo> infos = new TreeMap<String, ClassFileInfo>();
+    final Set<String> referencedClassNames = new HashSet<String>();
+    
+    for (final URI classFile : classFiles) {
+      final ClassFileInfo info = ClassFileInfo.read(new File(classFile));
+      infos.put(info.getClassName(), info);
+      referencedClassNames.addAll(info.getReferencedClassNames());
+    }
+    referencedClassNames.removeAll(infos.keySet());
+    
+    final List<String> apiFingerprints = new ArrayList<String>();
+    final List<String> constantsFingerprints = new ArrayList<String>();
+    for (final ClassFileInfo info : infos.values()) {
+      apiFingerprints.add(info.getClassName() + ":"
+          + info.getApiFingerprint());
+      if (info.getConstantsFingerprint() != null) {
+        constantsFingerprints.add(info.getClassName() + ":"
+            + info.getConstantsFingerprint());
+      }
+    }
+    
+    final String apiHash = Util.getHash(Util.implode("\n", apiFingerprints));
+    final String constantsHash;
+    if (!constantsFingerprints.isEmpty()) {
+      constantsHash = Util.getHash(Util.implode("\n", constantsFingerprints));
+    } else {
+      constantsHash = null;
+    }
+    
+    return new SourceEntry(stat, hash, classFiles, infos.keySet(),
+        referencedClassNames, apiHash, constantsHash);
+  }
+  
+  /**
+   * Find out which of the source files need to be compiled. Files with an
+   * unchanged size and modification time are considered unchanged without
+   * reading them. The rest are hashed concurrently. The stats of all source
+   * files are recorded in {@link #sourceStats}.
+   * 
+   * @return changed source file &rarr; its content hash
+   */
+  private Map<File, String> getChangedSources(final Set<File> sourceFiles,
+      final Map<File, SourceEntry> entries) throws IOException {
+    
+    final List<File> candidates = new ArrayList<File>();
+    for (final File sourceFile : sourceFiles) {
+      final SourceEntry entry = entries.get(sourceFile);
+      if (entry == null || !entry.hasSameStat(sourceFile)
+          || !entry.classFilesExist()) {
+        // taken before hashing, so a change made meanwhile shows next time
+        sourceStats.put(sourceFile, new SourceStat(sourceFile));
+        candidates.add(sourceFile);
+      } else {
+        sourceStats.put(sourceFile, entry.getStat());
+      }
+    }
+    
+    final Map<File, String> hashes = FileStateIndex.get().getHashes(
+        candidates);
+    final Map<File, String> changedSources = new HashMap<File, String>();
+    for (final File sourceFile : candidates) {
+      final SourceEntry entry = entries.get(sourceFile);
+      final String hash = hashes.get(sourceFile);
+      if (entry != null && entry.getHash().equals(hash)
+          && entry.classFilesExist()) {
+        // touched, but not changed.
+        entries.put(sourceFile, entry.withStat(sourceStats.get(sourceFile)));
+      } else {
+        changedSources.put(sourceFile, hash);
+      }
+    }
+    return changedSources;
+  }
+  
+  private BobWrappedJavaFileManager compileFiles(
+      final Collection<File> sourceFiles, final Iterable<File> classPath,
+      final String indexKey, final boolean speculative) throws IOException,
+      SpeculationFailedException {
+    
+    final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    
+    final BobDiagnosticListener diagnosticListener = new BobDiagnosticListener();
+    final StandardJavaFileManager standardFileManager = acquireFileManager(
+        compiler, indexKey);
+    final BobWrappedJavaFileManager fileManager;
+    try {
+      fileManager = new BobWrappedJavaFileManager(standardFileManager);
+      fileManager.setLocation(StandardLocation.CLASS_PATH, classPath);
+      fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections
+          .singleton(classOutputDir));
+      final Iterable<? extends JavaFileObject> sourceFileObjects = fileManager
+          .getJavaFileObjectsFromFiles(sourceFiles);
+      
+      compiler.getTask(null, fileManager, diagnosticListener,
+          COMPILER_OPTIONS, null, sourceFileObjects).call();
+    } finally {
+      releaseFileManager(standardFileManager, indexKey);
+    }
+    
+    Log.get().log("Done", LogLevel.DEBUG);
+    
+    if (speculative && diagnosticListener.hasErrors()) {
+      throw new SpeculationFailedException();
+    }
+    
+    for (final Diagnostic<? extends JavaFileObject> problem : diagnosticListener
+        .getProblems()) {
+      System.err.println(problem);
+    }
+    
+    if (diagnosticListener.hasErrors()) {
+      throw new CompilationFailedException("Compilation of "
+          + sourceFiles.size() + " source file(s) failed");
+    }
+    
+    return fileManager;
+  }
+  
+  private static StandardJavaFileManager acquireFileManager(
+      final JavaCompiler compiler, final String indexKey) throws IOException {
+    synchronized (idleFileManagers) {
+      final List<StandardJavaFileManager> fileManagers = idleFileManagers
+          .get(indexKey);
+      if (fileManagers != null && !fileManagers.isEmpty()) {
+        return fileManagers.remove(fileManagers.size() - 1);
+      }
+    }
+    return compiler.getStandardFileManager(null, null, null);
+  }
+  
+  private static void releaseFileManager(
+      final StandardJavaFileManager fileManager, final String indexKey)
+      throws IOException {
+    final List<StandardJavaFileManager> discardedFileManagers = new ArrayList<StandardJavaFileManager>();
+    synchronized (idleFileManagers) {
+      List<StandardJavaFileManager> fileManagers = idleFileManagers
+          .get(indexKey);
+      if (fileManagers == null) {
+        fileManagers = new ArrayList<StandardJavaFileManager>();
+        idleFileManagers.put(indexKey, fileManagers);
+      }
+      fileManagers.add(fileManager);
+      
+      // the least recently used classpaths are the likeliest to be outdated
+      final Iterator<List<StandardJavaFileManager>> iterator = idleFileManagers
+          .values().iterator();
+      while (idleFileManagers.size() > MAX_POOLED_CLASSPATHS) {
+        discardedFileManagers.addAll(iterator.next());
+        iterator.remove();
+      }
+    }
+    
+    for (final StandardJavaFileManager discardedFileManager : discardedFileManagers) {
+      discardedFileManager.close();
+    }
+  }
+  
+  /**
+   * Delete the class files that no source compiles into anymore. A class may
+   * have moved to another source file, even in another source path, so the
+   * class files of all sources are kept.
+   */
+  private static void deleteStaleClassFiles(final Set<File> oldClassFiles,
+      final CompilationIndex index) {
+    // compared as files, since the same file may be told by differing URIs
+    final Set<File> currentClassFiles = new HashSet<File>();
+    for (final String sourcePath : index.getSourcePaths()) {
+      for (final SourceEntry entry : index.getEntries(sourcePath).values()) {
+        for (final URI classFileUri : entry.getClassFiles()) {
+          currentClassFiles.add(new File(classFileUri));
+        }
+      }
+    }
+    
+    for (final File classFile : oldClassFiles) {
+      if (!currentClassFiles.contains(classFile) && classFile.exists()) {
+        Util.delete(classFile);
+      }
+    }
+  }
+  
+  private static void deleteClassFiles(final SourceEntry entry) {
+    for (final URI classFileUri : entry.getClassFiles()) {
+      final File classFile = new File(classFileUri);
+      if (classFile.exists()) {
+        Util.delete(classFile);
+      }
+    }
+  }
+  
+  /**
+   * Get the content hashes of all sources. The hashes of the unchanged
+   * sources are known by the index already.
+   * 
+   * @param wave
+   *          the sources to compile, mapped to their content hashes
+   * @return source path &rarr; source file &rarr; content hash
+   */
+  private static Map<String, Map<File, String>> getSourceHashes(
+      final Map<String, Set<File>> sourceFilesByPath,
+      final CompilationIndex index, final Map<String, Map<File, String>> wave) {
+    final Map<String, Map<File, String>> sourceHashesByPath = new LinkedHashMap<String, Map<File, String>>();
+    for (final Entry<String, Set<File>> sourcePathEntry : sourceFilesByPath
+        .entrySet()) {
+      final String sourcePath = sourcePathEntry.getKey();
+      final Map<File, String> sourceHashes = new HashMap<File, String>();
+      for (final File sourceFile : sourcePathEntry.getValue()) {
+        final String hash = wave.get(sourcePath).get(sourceFile);
+        if (hash != null) {
+          sourceHashes.put(sourceFile, hash);
+        } else {
+          sourceHashes.put(sourceFile, index.getEntries(sourcePath).get(
+              sourceFile).getHash());
+        }
+      }
+      sourceHashesByPath.put(sourcePath, sourceHashes);
+    }
+    return sourceHashesByPath;
+  }
+  
+  /**
+   * Get a key that describes everything the classes of the module are
+   * compiled from: Bob, the compiler options, the contents of the libraries,
+   * the APIs of the upstream modules and the sources. Unlike the index key,
+   * this doesn't depend on where the project is.
+   */
+  private static String getModuleKey(final Collection<File> jars,
+      final Map<String, String> upstreamApiHashes,
+      final Map<String, String> upstreamConstantsHashes,
+      final Map<String, Map<File, String>> sourceHashesByPath)
+      throws IOException {
+    final StringBuilder builder = new StringBuilder();
+    builder.append(Bob.getVersionString()).append('\n');
+    builder.append(Util.implode(" ", COMPILER_OPTIONS)).append('\n');
+    
+    final Map<File, String> hashes = FileStateIndex.get().getHashes(jars);
+    final List<String> jarHashes = new ArrayList<String>();
+    for (final File jar : jars) {
+      jarHashes.add(jar.getName() + ":" + hashes.get(jar));
+    }
+    Collections.sort(jarHashes);
+    builder.append(Util.implode("\n", jarHashes)).append('\n');
+    
+    builder.append(new TreeMap<String, String>(upstreamApiHashes))
+        .append('\n');
+    builder.append(new TreeMap<String, String>(upstreamConstantsHashes))
+        .append('\n');
+    
+    for (final Entry<String, Map<File, String>> sourcePathEntry : sourceHashesByPath
+        .entrySet()) {
+      final File sourceDir = new File(sourcePathEntry.getKey());
+      final Map<String, String> sourceHashes = new TreeMap<String, String>();
+      for (final Entry<File, String> sourceEntry : sourcePathEntry.getValue()
+          .entrySet()) {
+        sourceHashes.put(Util.relativeFileName(sourceDir, sourceEntry
+            .getKey()), sourceEntry.getValue());
+      }
+      builder.append(sourcePathEntry.getKey()).append(sourceHashes).append(
+          '\n');
+    }
+    
+    return Util.getHash(builder.toString());
+  }
+  
+  /**
+   * Replace the classes of the module with the ones stored in the
+   * {@link BuildCache} for <tt>moduleKey</tt>, if there are any.
+   * 
+   * @param sourceHashesByPath
+   *          source path &rarr; source file &rarr; content hash
+   * @return an index describing the restored classes, or <code>null</code> if
+   *         nothing was restored.
+   * @throws IOException
+   *           if the classes could not be restored. The index is then gone,
+   *           and the module will be compiled anew.
+   */
+  private CompilationIndex restoreFromBuildCache(final String moduleKey,
+      final String indexKey,
+      final Map<String, Map<File, String>> sourceHashesByPath)
+      throws IOException {
+    
+    final File entry;
+    final Map<String, Map<String, Set<String>>> classFilesBySource;
+    try {
+      entry = BuildCache.get().get(moduleKey);
+      if (entry == null) {
+        return null;
+      }
+      classFilesBySource = readSources(new File(entry, SOURCES_ENTRY_NAME));
+    } catch (final Exception e) {
+      Log.get().log("Could not read " + module + " from the build cache: "
+          + e, LogLevel.WARNING);
+      return null;
+    }
+    
+    // the key was built from the same sources, but the names are checked
+    // anyway, since the entry was maybe written by someone else
+    for (final Entry<String, Map<File, String>> sourcePathEntry : sourceHashesByPath
+        .entrySet()) {
+      final Map<String, Set<String>> pathClassFiles = classFilesBySource
+          .get(sourcePathEntry.getKey());
+      final File sourceDir = new File(sourcePathEntry.getKey());
+      for (final File sourceFile : sourcePathEntry.getValue().keySet()) {
+        if (pathClassFiles == null
+            || !pathClassFiles.containsKey(Util.relativeFileName(sourceDir,
+                sourceFile))) {
+          Log.get().log("The build cache entry of " + module
+              + " doesn't match its sources", LogLevel.WARNING);
+          return null;
+        }
+      }
+    }
+    
+    // without an index, a half-restored module is compiled anew next time
+    if (indexFile.exists()) {
+      Util.delete(indexFile);
+    }
+    if (classOutputDir.exists()) {
+      Util.delete(classOutputDir);
+    }
+    final Map<String, File> cachedClassFiles = BuildCache.getFiles(new File(
+        entry, CLASSES_DIR_NAME));
+    for (final Entry<String, File> cachedClassFile : cachedClassFiles
+        .entrySet()) {
+      BuildCache.copy(cachedClassFile.getValue(), new File(classOutputDir,
+          cachedClassFile.getKey()));
+    }
+    if (!classOutputDir.isDirectory() && !classOutputDir.mkdirs()) {
+      throw new IOException("could not create directory "
+          + classOutputDir.getAbsolutePath());
+    }
+    
+    final CompilationIndex index = new CompilationIndex(indexKey);
+    for (final Entry<String, Map<File, String>> sourcePathEntry : sourceHashesByPath
+        .entrySet()) {
+      final String sourcePath = sourcePathEntry.getKey();
+      final File sourceDir = new File(sourcePath);
+      final Map<File, SourceEntry> entries = index.getEntries(sourcePath);
+      for (final Entry<File, String> sourceEntry : sourcePathEntry.getValue()
+          .entrySet()) {
+        final File sourceFile = sourceEntry.getKey();
+        final Set<URI> classFiles = new HashSet<URI>();
+        for (final String classFileName : classFilesBySource.get(sourcePath)
+            .get(Util.relativeFileName(sourceDir, sourceFile))) {
+          classFiles.add(new File(classOutputDir, classFileName)
+              .getAbsoluteFile().toURI());
+        }
+        entries.put(sourceFile, createEntry(sourceFile, sourceStats
+            .get(sourceFile), sourceEntry.getValue(), classFiles));
+      }
+    }
+    
+    Log.get().log(String.format(
+        "Restored %d class file(s) of %s from the build cache",
+        cachedClassFiles.size(), module), LogLevel.VERBOSE);
+    return index;
+  }
+  
+  /**
+   * Store the classes of the module in the {@link BuildCache}, together with
+   * the knowledge of which source file they were compiled from.
+   */
+  private void storeInBuildCache(final String moduleKey,
+      final CompilationIndex index) {
+    try {
+      final Map<String, File> files = new HashMap<String, File>();
+      final Map<String, Map<String, Set<String>>> classFilesBySource = new HashMap<String, Map<String, Set<String>>>();
+      for (final String sourcePath : index.getSourcePaths()) {
+        final File sourceDir = new File(sourcePath);
+        final Map<String, Set<String>> pathClassFiles = new HashMap<String, Set<String>>();
+        for (final Entry<File, SourceEntry> entry : index.getEntries(
+            sourcePath).entrySet()) {
+          final Set<String> classFileNames = new HashSet<String>();
+          for (final URI classFileUri : entry.getValue().getClassFiles()) {
+            final File classFile = new File(classFileUri);
+            final String classFileName = Util.relativeFileName(
+                classOutputDir, classFile);
+            classFileNames.add(classFileName);
+            files.put(CLASSES_DIR_NAME + "/" + classFileName, classFile);
+          }
+          pathClassFiles.put(Util.relativeFileName(sourceDir, entry.getKey()),
+              classFileNames);
+        }
+        classFilesBySource.put(sourcePath, pathClassFiles);
+      }
+      
+      final File sourcesFile = File.createTempFile("bobSources", null);
+      try {
+        final ObjectOutputStream oos = new ObjectOutputStream(
+            new FileOutputStream(sourcesFile));
+        try {
+          oos.writeObject(classFilesBySource);
+        } finally {
+          oos.close();
+        }
+        files.put(SOURCES_ENTRY_NAME, sourcesFile);
+        BuildCache.get().put(moduleKey, files);
+      } finally {
+        sourcesFile.delete();
+      }
+    } catch (final IOException e) {
+      Log.get().log("Could not store " + module + " in the build cache: "
+          + e.getMessage(), LogLevel.WARNING);
+    }
+  }
+  
+  @SuppressWarnings("unchecked")
+  private static Map<String, Map<String, Set<String>>> readSources(
+      final File sourcesFile) throws IOException, ClassNotFoundException {
+    final ObjectInputStream ois = new ObjectInputStream(new FileInputStream(
+        sourcesFile));
+    try {
+      return (Map<String, Map<String, Set<String>>>) ois.readObject();
+    } finally {
+      ois.close();
+    }
+  }
+  
+  /**
+   * Get a key that changes whenever the compiled classes can't be trusted
+   * anymore: when Bob, the compiler options or the libraries change.
+   */
+  private static String getIndexKey(final Collection<File> jars) {
+    final List<String> classPathEntries = new ArrayList<String>();
+    for (final File classPathEntry : jars) {
+      classPathEntries.add(classPathEntry.getAbsolutePath() + ":"
+          + classPathEntry.length() + ":" + classPathEntry.lastModified());
+    }
+    Collections.sort(classPathEntries);
+    
+    return Util.getHash(Bob.getVersionString() + "\n"
+        + Util.implode(" ", COMPILER_OPTIONS) + "\n"
+        + Util.implode("\n", classPathEntries));
+  }
+}
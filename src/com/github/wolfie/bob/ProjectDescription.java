@@ -1,20 +1,34 @@
 package com.github.wolfie.bob;
 
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
+/**
+ * <p>
+ * The structure of a project: its source paths and libraries, and optionally
+ * its {@link ModuleDescription modules}.
+ * </p>
+ * 
+ * <p>
+ * The source paths and libraries defined directly in the project form a
+ * module of their own, called <tt>{@value #ROOT_MODULE_NAME}</tt>, which
+ * depends on all other modules. The libraries defined directly in the project
+ * are in the classpath of all modules.
+ * </p>
+ */
 public class ProjectDescription {
   
-  private boolean finalized = false;
+  /** The name of the module formed by the project's own source paths */
+  public static final String ROOT_MODULE_NAME = "project";
   
-  private final LinkedHashSet<String> sourcePaths = new LinkedHashSet<String>();
-  private final Set<String> sourcePathsOptional = new HashSet<String>();
-  private final Set<String> jarPaths = new HashSet<String>();
-  private final Set<String> jarPathsOptional = new HashSet<String>();
+  private boolean finalized = false;
   
-  private final Set<String> jarFiles = new HashSet<String>();
+  private final ModuleDescription rootModule = new ModuleDescription(
+      ROOT_MODULE_NAME);
+  private final Map<String, ModuleDescription> modules = new LinkedHashMap<String, ModuleDescription>();
   
   /**
    * <p>
@@ -59,14 +73,13 @@ public class ProjectDescription {
    */
   public ProjectDescription sourcePath(final String sourcePath) {
     checkFinalized();
-    Util.checkNulls(sourcePath);
-    sourcePaths.add(sourcePath);
+    rootModule.sourcePath(sourcePath);
     return this;
   }
   
   private ProjectDescription sourcePathOptional(final String sourcePath) {
-    sourcePath(sourcePath);
-    sourcePathsOptional.add(sourcePath);
+    checkFinalized();
+    rootModule.sourcePathOptional(sourcePath);
     return this;
   }
   
@@ -88,14 +101,41 @@ public class ProjectDescription {
    */
   public ProjectDescription jarPath(final String jarPath) {
     checkFinalized();
-    Util.checkNulls(jarPath);
-    jarPaths.add(jarPath);
+    rootModule.jarPath(jarPath);
     return this;
   }
   
   private ProjectDescription jarPathOptional(final String jarPath) {
-    jarPath(jarPath);
-    jarPathsOptional.add(jarPath);
+    checkFinalized();
+    rootModule.jarPathOptional(jarPath);
+    return this;
+  }
+  
+  /**
+   * <p>
+   * Add a module to the project.
+   * </p>
+   * 
+   * <p>
+   * This method may be called several times to define several modules.
+   * </p>
+   * 
+   * @throws IllegalArgumentException
+   *           if a module with the same name was already added, or the module
+   *           is named <tt>{@value #ROOT_MODULE_NAME}</tt>.
+   * @throws IllegalStateException
+   *           if method is called oustide of the
+   *           {@link BobBuild#describeProject(ProjectDescription)} method
+   */
+  public ProjectDescription module(final ModuleDescription module) {
+    checkFinalized();
+    Util.checkNulls(module);
+    if (module.getName().equals(ROOT_MODULE_NAME)
+        || modules.containsKey(module.getName())) {
+      throw new IllegalArgumentException("A module named " + module.getName()
+          + " already exists");
+    }
+    modules.put(module.getName(), module);
     return this;
   }
   
@@ -107,33 +147,51 @@ public class ProjectDescription {
   
   void setFinalized() {
     finalized = true;
+    rootModule.setFinalized();
+    for (final ModuleDescription module : modules.values()) {
+      module.setFinalized();
+    }
   }
   
   public ProjectDescription jarFile(final String jarFile) {
-    jarFiles.add(jarFile);
+    checkFinalized();
+    rootModule.jarFile(jarFile);
     return this;
   }
   
   Set<String> getSourcePaths() {
-    return Collections.unmodifiableSet(sourcePaths);
+    return rootModule.getSourcePaths();
   }
   
   boolean isSourcePathOptional(final String sourcePath) {
-    return sourcePathsOptional.contains(sourcePath);
+    return rootModule.isSourcePathOptional(sourcePath);
   }
   
   /**
    * Get all
    */
   Set<String> getJarPaths() {
-    return Collections.unmodifiableSet(jarPaths);
+    return rootModule.getJarPaths();
   }
   
   boolean isJarPathOptional(final String jarPath) {
-    return jarPathsOptional.contains(jarPath);
+    return rootModule.isJarPathOptional(jarPath);
   }
   
   Set<String> getJarFiles() {
-    return Collections.unmodifiableSet(jarFiles);
+    return rootModule.getJarFiles();
+  }
+  
+  /**
+   * The module formed by the project's own source paths and libraries. It
+   * doesn't declare its dependencies, as it depends on all other modules.
+   */
+  ModuleDescription getRootModule() {
+    return rootModule;
+  }
+  
+  /** The modules added to the project, in the order they were added */
+  Collection<ModuleDescription> getModules() {
+    return Collections.unmodifiableCollection(modules.values());
   }
 }
@@ -0,0 +1,253 @@
+package com.github.wolfie.bob;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.github.wolfie.bob.Log.LogLevel;
+import com.github.wolfie.bob.action.Action;
+import com.github.wolfie.bob.annotation.Target;
+import com.github.wolfie.bob.exception.BuildTargetException;
+import com.github.wolfie.bob.exception.ProcessingError;
+
+/**
+ * Builds a target, together with the targets it depends on.
+ * <p/>
+ * The targets form a graph by their {@link Target#dependsOn() dependencies}.
+ * A target's {@link Action} is processed as soon as the targets it depends on
+ * are built, and targets that don't depend on each other are built
+ * concurrently. Each target is built only once, and each action is processed
+ * only once, even if several targets share it.
+ * 
+ * @see ActionRunner
+ */
+final class TargetExecutor {
+  
+  private final Class<? extends BobBuild> buildClass;
+  private final int jobs;
+  
+  /** Created once needed, and shared by all targets */
+  private BobBuild build = null;
+  
+  /**
+   * @param jobs
+   *          the maximum number of targets to build concurrently
+   */
+  TargetExecutor(final Class<? extends BobBuild> buildClass, final int jobs) {
+    Util.checkNulls(buildClass);
+    this.buildClass = buildClass;
+    this.jobs = jobs;
+  }
+  
+  /**
+   * Build a target, after the targets it depends on.
+   * 
+   * @param target
+   *          the target method
+   */
+  void execute(final Method target) {
+    final Map<String, Set<String>> graph = getTargetGraph(buildClass, target
+        .getName());
+    
+    // the actions are fetched up front, so that the build object isn't used
+    // concurrently
+    final Map<String, Action> actions = new HashMap<String, Action>();
+    for (final String targetName : graph.keySet()) {
+      actions.put(targetName, getAction(getTargetMethod(buildClass,
+          targetName)));
+    }
+    
+    final Set<String> builtTargets = new HashSet<String>();
+    final List<String> waitingTargets = new ArrayList<String>(graph.keySet());
+    final Map<Future<Void>, String> runningTargets = new HashMap<Future<Void>, String>();
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+        Math.min(jobs, graph.size())));
+    final CompletionService<Void> completionService = new ExecutorCompletionService<Void>(
+        executor);
+    
+    // the first failure stops new targets from starting
+    Throwable failure = null;
+    try {
+      while (true) {
+        if (failure == null) {
+          final Iterator<String> waitingIterator = waitingTargets.iterator();
+          while (waitingIterator.hasNext()) {
+            final String targetName = waitingIterator.next();
+            if (builtTargets.containsAll(graph.get(targetName))) {
+              waitingIterator.remove();
+              runningTargets.put(completionService.submit(getBuildTask(
+                  targetName, actions.get(targetName))), targetName);
+            }
+          }
+        }
+        
+        if (runningTargets.isEmpty()) {
+          break;
+        }
+        
+        final Future<Void> future = takeCompleted(completionService);
+        final String targetName = runningTargets.remove(future);
+        try {
+          future.get();
+          builtTargets.add(targetName);
+        } catch (final ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          } else {
+            Log.get().log("Target " + targetName + " failed too: "
+                + e.getCause(), LogLevel.DEBUG);
+          }
+        } catch (final InterruptedException e) {
+          throw new ProcessingError("Interrupted while building", e);
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+    
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    } else if (failure != null) {
+      throw new ProcessingError(failure);
+    }
+  }
+  
+  private static Callable<Void> getBuildTask(final String targetName,
+      final Action action) {
+    Log.get().log("Building " + targetName + " with " + action,
+        LogLevel.DEBUG);
+    return new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        Log.get().enter(getLogLocation(action));
+        try {
+          ActionRunner.process(action);
+        } finally {
+          Log.get().exit();
+        }
+        return null;
+      }
+    };
+  }
+  
+  private static String getLogLocation(final Action action) {
+    final String name = action.getClass().getSimpleName();
+    if (name.length() > Log.MAX_LOCATION_LENGTH) {
+      return name.substring(0, Log.MAX_LOCATION_LENGTH);
+    } else {
+      return name;
+    }
+  }
+  
+  private static Future<Void> takeCompleted(
+      final CompletionService<Void> completionService) {
+    try {
+      return completionService.take();
+    } catch (final InterruptedException e) {
+      throw new ProcessingError("Interrupted while building", e);
+    }
+  }
+  
+  private Action getAction(final Method target) {
+    try {
+      final Object targetObject;
+      if (Modifier.isStatic(target.getModifiers())) {
+        targetObject = null;
+      } else {
+        if (build == null) {
+          build = buildClass.getDeclaredConstructor().newInstance();
+        }
+        targetObject = build;
+      }
+      
+      final Action action = (Action) target.invoke(targetObject);
+      if (action == null) {
+        throw new NullPointerException(String.format("%s.%s() returned null.",
+            buildClass.getName(), target.getName()));
+      }
+      return action;
+    } catch (final InvocationTargetException e) {
+      throw new BootstrapError(e.getCause());
+    } catch (final InstantiationException e) {
+      throw new BootstrapError(e);
+    } catch (final IllegalAccessException e) {
+      throw new BootstrapError(e);
+    } catch (final NoSuchMethodException e) {
+      throw new BootstrapError(e);
+    }
+  }
+  
+  /**
+   * Find out which targets need to be built for a target.
+   * 
+   * @param targetName
+   *          the name of the target to build
+   * @return target name &rarr; the names of the targets it directly depends
+   *         on, for <tt>targetName</tt> and all the targets it depends on,
+   *         directly or indirectly.
+   * @throws BuildTargetException
+   *           if a target depends on an unknown or invalid target, or the
+   *           dependencies are circular.
+   */
+  static Map<String, Set<String>> getTargetGraph(final Class<?> buildClass,
+      final String targetName) {
+    final Map<String, Set<String>> graph = new LinkedHashMap<String, Set<String>>();
+    addToTargetGraph(buildClass, targetName, graph,
+        new LinkedHashSet<String>());
+    return graph;
+  }
+  
+  private static void addToTargetGraph(final Class<?> buildClass,
+      final String targetName, final Map<String, Set<String>> graph,
+      final LinkedHashSet<String> path) {
+    
+    if (!path.add(targetName)) {
+      final List<String> cycle = new ArrayList<String>(path);
+      cycle.add(targetName);
+      throw new BuildTargetException("The targets depend on each other: "
+          + Util.implode(" -> ", cycle.subList(cycle.indexOf(targetName),
+              cycle.size())));
+    }
+    
+    if (!graph.containsKey(targetName)) {
+      final Method target = getTargetMethod(buildClass, targetName);
+      final Set<String> dependencies = new LinkedHashSet<String>(Arrays
+          .asList(target.getAnnotation(Target.class).dependsOn()));
+      for (final String dependency : dependencies) {
+        addToTargetGraph(buildClass, dependency, graph, path);
+      }
+      graph.put(targetName, dependencies);
+    }
+    
+    path.remove(targetName);
+  }
+  
+  private static Method getTargetMethod(final Class<?> buildClass,
+      final String targetName) {
+    try {
+      return Util.verifyBuildTargetMethod(buildClass.getMethod(targetName));
+    } catch (final NoSuchMethodException e) {
+      throw new BuildTargetException("No target by the name " + targetName
+          + " was found", e);
+    }
+  }
+}
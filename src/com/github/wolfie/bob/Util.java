@@ -1,19 +1,30 @@
 package com.github.wolfie.bob;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -28,10 +39,18 @@ import com.github.wolfie.bob.exception.NotADirectoryOrCouldNotReadException;
 import com.github.wolfie.bob.exception.NotAReadableDirectoryException;
 
 public class Util {
+  private static final String TEMPORARY_DIRECTORY_PREFIX = "bob";
+  private static final String TEMPORARY_DIRECTORY_SUFFIX = ".tmp";
+  
   public interface FilePredicate {
     boolean accept(File file);
   }
   
+  /** Writes the contents of a file, for {@link Util#writeAtomically} */
+  public interface ContentWriter {
+    void write(OutputStream out) throws IOException;
+  }
+  
   public static FilePredicate HIDE_DOT_FILES = new FilePredicate() {
     @Override
     public boolean accept(final File file) {
@@ -74,7 +93,8 @@ public class Util {
   }
   
   public static File getTemporaryDirectory() throws IOException {
-    final File tempDir = File.createTempFile("bob", null);
+    final File tempDir = File.createTempFile(TEMPORARY_DIRECTORY_PREFIX,
+        TEMPORARY_DIRECTORY_SUFFIX);
     
     // Delete autocreated temporary file, and try to recreate it as a
     // directory instead.
@@ -86,6 +106,29 @@ public class Util {
     return tempDir;
   }
   
+  /**
+   * Whether <tt>file</tt> is in a directory created by
+   * {@link #getTemporaryDirectory()}.
+   */
+  public static boolean isInTemporaryDirectory(final File file) {
+    try {
+      final File tempRoot = new File(System.getProperty("java.io.tmpdir"))
+          .getCanonicalFile();
+      File current = file.getCanonicalFile();
+      while (current.getParentFile() != null) {
+        if (current.getParentFile().equals(tempRoot)) {
+          final String name = current.getName();
+          return name.startsWith(TEMPORARY_DIRECTORY_PREFIX)
+              && name.endsWith(TEMPORARY_DIRECTORY_SUFFIX);
+        }
+        current = current.getParentFile();
+      }
+      return false;
+    } catch (final IOException e) {
+      return false;
+    }
+  }
+  
   /**
    * Verifies that no argument is <code>null</code>
    * 
@@ -103,7 +146,8 @@ public class Util {
   }
   
   /**
-   * Gets all files underneath a directory matching a given predicate
+   * Gets all files underneath a directory matching a given predicate. The
+   * subdirectories are read concurrently, by {@link Bob#getJobs()} threads.
    * 
    * @param baseDir
    *          The base directory in which to find the files.
@@ -124,23 +168,7 @@ public class Util {
       throw new NotADirectoryOrCouldNotReadException(baseDir);
     }
     
-    final Set<File> files = new HashSet<File>();
-    
-    final File[] filesInDir = baseDir.listFiles();
-    if (filesInDir != null) {
-      for (final File file : filesInDir) {
-        if (file.isDirectory()) {
-          files.addAll(getFilesRecursively(file, predicate));
-        } else if (predicate == null || predicate.accept(file)) {
-          
-          if (HIDE_DOT_FILES.accept(file)) {
-            files.add(file);
-          }
-        }
-      }
-    }
-    
-    return files;
+    return FileScanner.scan(baseDir, predicate);
   }
   
   public static Set<File> getFilesRecursively(final File baseDir)
@@ -419,6 +447,10 @@ public class Util {
         destChannel.close();
       }
     }
+    
+    // the copy is as old as the original, so that it looks unchanged to
+    // whoever compares timestamps, like the JarWriter
+    destination.setLastModified(source.lastModified());
   }
   
   public static void makeParentDirs(final File file) throws IOException {
@@ -441,6 +473,125 @@ public class Util {
     }
   }
   
+  /**
+   * Write a file aside and rename it into place, so that no-one ever reads a
+   * partial file. The file is written aside under a name of its own, so that
+   * several builds may write the same file at once, and the last one wins.
+   */
+  public static void writeAtomically(final File file,
+      final ContentWriter writer) throws IOException {
+    writeAtomically(file, writer, false);
+  }
+  
+  /**
+   * Write a file like {@link #writeAtomically(File, ContentWriter)}, such that
+   * only its owner may read and write it, all along. On file systems without
+   * POSIX permissions, the permissions of others are taken away as well as
+   * Java can.
+   */
+  public static void writePrivately(final File file, final ContentWriter writer)
+      throws IOException {
+    writeAtomically(file, writer, true);
+  }
+  
+  private static void writeAtomically(final File file,
+      final ContentWriter writer, final boolean ownerOnly) throws IOException {
+    makeParentDirs(file.getAbsoluteFile());
+    final Path directory = file.getAbsoluteFile().getParentFile().toPath();
+    final String prefix = file.getName() + ".";
+    final Path tempFile;
+    if (ownerOnly && isPosix(directory)) {
+      tempFile = Files.createTempFile(directory, prefix, ".tmp",
+          PosixFilePermissions.asFileAttribute(PosixFilePermissions
+              .fromString("rw-------")));
+    } else {
+      tempFile = Files.createTempFile(directory, prefix, ".tmp");
+      if (ownerOnly) {
+        final File temp = tempFile.toFile();
+        if (!temp.setReadable(false, false) || !temp.setReadable(true, true)
+            || !temp.setWritable(false, false)
+            || !temp.setWritable(true, true)) {
+          Files.delete(tempFile);
+          throw new IOException("Could not restrict the permissions of "
+              + temp.getAbsolutePath());
+        }
+      }
+    }
+    
+    boolean written = false;
+    try {
+      final OutputStream out = new BufferedOutputStream(Files
+          .newOutputStream(tempFile));
+      try {
+        writer.write(out);
+      } finally {
+        out.close();
+      }
+      
+      try {
+        Files.move(tempFile, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (final AtomicMoveNotSupportedException e) {
+        Files.move(tempFile, file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+      }
+      written = true;
+    } finally {
+      if (!written) {
+        Files.deleteIfExists(tempFile);
+      }
+    }
+  }
+  
+  /** Whether the file system of <tt>path</tt> has POSIX permissions */
+  public static boolean isPosix(final Path path) {
+    return path.getFileSystem().supportedFileAttributeViews().contains(
+        "posix");
+  }
+  
+  /**
+   * Read a properties file.
+   * 
+   * @throws IOException
+   *           if <tt>file</tt> could not be read.
+   */
+  public static Properties readProperties(final File file) throws IOException {
+    final Properties properties = new Properties();
+    final InputStream in = new FileInputStream(file);
+    try {
+      properties.load(in);
+    } finally {
+      in.close();
+    }
+    return properties;
+  }
+  
+  /**
+   * Write a properties file with
+   * {@link #writeAtomically(File, ContentWriter)}.
+   * 
+   * @param description
+   *          what the properties are, for the comment at the top of the file
+   */
+  public static void writeProperties(final File file,
+      final Properties properties, final String description)
+      throws IOException {
+    writeAtomically(file, getPropertiesWriter(properties, description));
+  }
+  
+  /**
+   * Get a writer of a properties file, with the Bob version and
+   * <tt>description</tt> in the comment at the top of the file.
+   */
+  public static ContentWriter getPropertiesWriter(
+      final Properties properties, final String description) {
+    return new ContentWriter() {
+      @Override
+      public void write(final OutputStream out) throws IOException {
+        properties.store(out, Bob.getVersionString() + " " + description);
+      }
+    };
+  }
+  
   static String getFileAsString(final File file) throws IOException {
     final StringBuilder fileData = new StringBuilder(1000);
     final BufferedReader reader = new BufferedReader(
@@ -454,6 +605,69 @@ public class Util {
     return fileData.toString();
   }
   
+  /**
+   * Calculates a digest of a file's contents.
+   * 
+   * @return the digest as a hexadecimal {@link String}
+   * @throws IOException
+   *           if <tt>file</tt> could not be read.
+   */
+  public static String getContentHash(final File file) throws IOException {
+    final MessageDigest digest = getDigest();
+    final InputStream in = new FileInputStream(file);
+    try {
+      final byte[] buffer = new byte[8192];
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, count);
+      }
+    } finally {
+      in.close();
+    }
+    return toHex(digest.digest());
+  }
+  
+  /**
+   * Calculates a digest of a {@link String}.
+   * 
+   * @return the digest as a hexadecimal {@link String}
+   */
+  public static String getHash(final String string) {
+    try {
+      return getHash(string.getBytes("UTF-8"));
+    } catch (final UnsupportedEncodingException e) {
+      throw new BobRuntimeException("UTF-8 is not supported", e);
+    }
+  }
+  
+  /**
+   * Calculates a digest of some bytes.
+   * 
+   * @return the digest as a hexadecimal {@link String}
+   */
+  public static String getHash(final byte[] bytes) {
+    final MessageDigest digest = getDigest();
+    digest.update(bytes);
+    return toHex(digest.digest());
+  }
+  
+  private static MessageDigest getDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new BobRuntimeException("SHA-1 is not supported", e);
+    }
+  }
+  
+  private static String toHex(final byte[] bytes) {
+    final StringBuilder builder = new StringBuilder(bytes.length * 2);
+    for (final byte b : bytes) {
+      builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+      builder.append(Character.forDigit(b & 0xf, 16));
+    }
+    return builder.toString();
+  }
+  
   public static String rightAlign(final String string, final int length) {
     if (string.length() < length) {
       final StringBuilder builder = new StringBuilder(length);
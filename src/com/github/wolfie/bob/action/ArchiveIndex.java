@@ -0,0 +1,260 @@
+package com.github.wolfie.bob.action;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The entries of an existing zip file, read from its central directory, so
+ * that their compressed data can be copied as is into a new archive.
+ * <p/>
+ * Only the plain zip format is understood. Archives with ZIP64 extensions or
+ * encrypted entries are read as if they had no entries at all. The index may
+ * be read by several threads at once.
+ */
+final class ArchiveIndex {
+  
+  /** An entry in the archive */
+  static final class ArchiveEntry {
+    private final int method;
+    private final long dosTime;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+    private final byte[] extra;
+    
+    private ArchiveEntry(final int method, final long dosTime, final long crc,
+        final long compressedSize, final long size,
+        final long localHeaderOffset, final byte[] extra) {
+      this.method = method;
+      this.dosTime = dosTime;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localHeaderOffset = localHeaderOffset;
+      this.extra = extra;
+    }
+    
+    int getMethod() {
+      return method;
+    }
+    
+    /** The modification time, in the MS-DOS format of the zip file */
+    long getDosTime() {
+      return dosTime;
+    }
+    
+    long getCrc() {
+      return crc;
+    }
+    
+    long getSize() {
+      return size;
+    }
+    
+    long getCompressedSize() {
+      return compressedSize;
+    }
+    
+    /**
+     * Get the data of an extra field of the entry, from its central directory
+     * header.
+     * 
+     * @return the data of the field, or <code>null</code> if the entry has no
+     *         field by <tt>headerId</tt>.
+     */
+    byte[] getExtraField(final int headerId) {
+      final ByteBuffer fields = ByteBuffer.wrap(extra).order(
+          ByteOrder.LITTLE_ENDIAN);
+      while (fields.remaining() >= 4) {
+        final int id = fields.getShort() & 0xffff;
+        final int length = fields.getShort() & 0xffff;
+        if (length > fields.remaining()) {
+          return null;
+        } else if (id == headerId) {
+          final byte[] data = new byte[length];
+          fields.get(data);
+          return data;
+        }
+        fields.position(fields.position() + length);
+      }
+      return null;
+    }
+  }
+  
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int LOCAL_HEADER_LENGTH = 30;
+  private static final int CENTRAL_HEADER_LENGTH = 46;
+  private static final int END_LENGTH = 22;
+  private static final int MAX_COMMENT_LENGTH = 0xffff;
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+  
+  private static final int FLAG_ENCRYPTED = 0x0001;
+  private static final int FLAG_UTF8 = 0x0800;
+  private static final long ZIP64_MARKER = 0xffffffffL;
+  
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final Map<String, ArchiveEntry> entries;
+  
+  private ArchiveIndex(final RandomAccessFile file,
+      final Map<String, ArchiveEntry> entries) {
+    this.file = file;
+    channel = file.getChannel();
+    this.entries = entries;
+  }
+  
+  /**
+   * Read the central directory of a zip file.
+   * 
+   * @throws IOException
+   *           if the file could not be read, or is not a zip file.
+   */
+  static ArchiveIndex read(final File zipFile) throws IOException {
+    final RandomAccessFile file = new RandomAccessFile(zipFile, "r");
+    try {
+      return new ArchiveIndex(file, readEntries(file.getChannel()));
+    } catch (final IOException e) {
+      file.close();
+      throw e;
+    } catch (final RuntimeException e) {
+      file.close();
+      throw e;
+    }
+  }
+  
+  private static Map<String, ArchiveEntry> readEntries(
+      final FileChannel channel) throws IOException {
+    final long length = channel.size();
+    final int tailLength = (int) Math.min(length, END_LENGTH
+        + MAX_COMMENT_LENGTH);
+    final ByteBuffer tail = read(channel, length - tailLength, tailLength);
+    
+    int end = -1;
+    for (int i = tailLength - END_LENGTH; i >= 0; i--) {
+      if (tail.getInt(i) == END_SIGNATURE) {
+        end = i;
+        break;
+      }
+    }
+    if (end == -1) {
+      throw new IOException("Not a zip file");
+    }
+    
+    final int entryCount = tail.getShort(end + 10) & 0xffff;
+    final long directorySize = tail.getInt(end + 12) & 0xffffffffL;
+    final long directoryOffset = tail.getInt(end + 16) & 0xffffffffL;
+    if (directorySize == ZIP64_MARKER || directoryOffset == ZIP64_MARKER
+        || entryCount == 0xffff) {
+      return Collections.emptyMap();
+    }
+    
+    final ByteBuffer directory = read(channel, directoryOffset,
+        (int) directorySize);
+    final Map<String, ArchiveEntry> entries = new HashMap<String, ArchiveEntry>();
+    int position = 0;
+    for (int i = 0; i < entryCount; i++) {
+      if (directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+        throw new IOException("Corrupt central directory");
+      }
+      
+      final int flags = directory.getShort(position + 8) & 0xffff;
+      final int method = directory.getShort(position + 10) & 0xffff;
+      final long dosTime = directory.getInt(position + 12) & 0xffffffffL;
+      final long crc = directory.getInt(position + 16) & 0xffffffffL;
+      final long compressedSize = directory.getInt(position + 20) & 0xffffffffL;
+      final long size = directory.getInt(position + 24) & 0xffffffffL;
+      final int nameLength = directory.getShort(position + 28) & 0xffff;
+      final int extraLength = directory.getShort(position + 30) & 0xffff;
+      final int commentLength = directory.getShort(position + 32) & 0xffff;
+      final long localHeaderOffset = directory.getInt(position + 42)
+          & 0xffffffffL;
+      
+      final byte[] nameBytes = new byte[nameLength];
+      directory.position(position + CENTRAL_HEADER_LENGTH);
+      directory.get(nameBytes);
+      final String name = new String(nameBytes,
+          (flags & FLAG_UTF8) != 0 ? "UTF-8" : "ISO-8859-1");
+      final byte[] extra = new byte[extraLength];
+      directory.get(extra);
+      
+      if ((flags & FLAG_ENCRYPTED) != 0 || compressedSize == ZIP64_MARKER
+          || size == ZIP64_MARKER || localHeaderOffset == ZIP64_MARKER) {
+        return Collections.emptyMap();
+      }
+      
+      if (compressedSize <= Integer.MAX_VALUE) {
+        entries.put(name, new ArchiveEntry(method, dosTime, crc,
+            compressedSize, size, localHeaderOffset, extra));
+      }
+      position += CENTRAL_HEADER_LENGTH + nameLength + extraLength
+          + commentLength;
+    }
+    return entries;
+  }
+  
+  private static ByteBuffer read(final FileChannel channel,
+      final long position, final int length) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) == -1) {
+        throw new IOException("Unexpected end of file");
+      }
+    }
+    buffer.flip();
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    return buffer;
+  }
+  
+  /**
+   * @return the entry by the name, or <code>null</code> if there's none.
+   */
+  ArchiveEntry getEntry(final String name) {
+    return entries.get(name);
+  }
+  
+  /**
+   * Copy the data of an entry as it's stored, without decompressing it, a
+   * piece at a time.
+   */
+  void copyRawData(final ArchiveEntry entry, final OutputStream out)
+      throws IOException {
+    final ByteBuffer localHeader = read(channel, entry.localHeaderOffset,
+        LOCAL_HEADER_LENGTH);
+    if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+      throw new IOException("Corrupt local header");
+    }
+    final int nameLength = localHeader.getShort(26) & 0xffff;
+    final int extraLength = localHeader.getShort(28) & 0xffff;
+    
+    long position = entry.localHeaderOffset + LOCAL_HEADER_LENGTH
+        + nameLength + extraLength;
+    long remaining = entry.compressedSize;
+    final ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+    while (remaining > 0) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), remaining));
+      final int count = channel.read(buffer, position);
+      if (count == -1) {
+        throw new IOException("Unexpected end of file");
+      }
+      out.write(buffer.array(), 0, count);
+      position += count;
+      remaining -= count;
+    }
+  }
+  
+  void close() throws IOException {
+    file.close();
+  }
+}
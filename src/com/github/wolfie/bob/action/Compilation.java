@@ -2,6 +2,8 @@ package com.github.wolfie.bob.action;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import com.github.wolfie.bob.CompilationCache;
@@ -10,7 +12,7 @@ import com.github.wolfie.bob.Defaults;
 import com.github.wolfie.bob.Util;
 import com.github.wolfie.bob.exception.ProcessingError;
 
-public class Compilation implements Action {
+public class Compilation implements IncrementalAction {
   
   private String srcPath = null;
   private String toPath = null;
@@ -26,7 +28,8 @@ public class Compilation implements Action {
       try {
         final Set<File> classFiles = CompilationCache.get()
             .getClassFiles(srcPath);
-        final File baseDir = CompilationCache.get().getBaseDirForClasses();
+        final File baseDir = CompilationCache.get().getBaseDirForClasses(
+            srcPath);
         Util.copy(classFiles, baseDir, destination);
       } catch (final NotCompiledException e) {
         throw new ProcessingError(e);
@@ -40,6 +43,47 @@ public class Compilation implements Action {
     }
   }
   
+  /**
+   * Get the class files compiled from the source path, by their paths relative
+   * to the class directory.
+   */
+  @Override
+  public Map<String, File> getInputs() {
+    // the destination is left undefined, for Jar to see
+    setSourcePathDefault();
+    
+    try {
+      final Set<File> classFiles = CompilationCache.get()
+          .getClassFiles(srcPath);
+      final File baseDir = CompilationCache.get().getBaseDirForClasses(srcPath);
+      
+      final Map<String, File> inputs = new HashMap<String, File>();
+      for (final File classFile : classFiles) {
+        inputs.put(Util.relativeFileName(baseDir, classFile), classFile);
+      }
+      return inputs;
+    } catch (final NotCompiledException e) {
+      throw new ProcessingError(e);
+    }
+  }
+  
+  @Override
+  public File getOutput() {
+    setDefaults();
+    return new File(toPath);
+  }
+  
+  @Override
+  public Set<String> getWrittenFiles() {
+    // the class files are copied by the names they're read by
+    return getInputs().keySet();
+  }
+  
+  @Override
+  public String getSettings() {
+    return "disableDebug=" + disableDebug;
+  }
+  
   /**
    * Define the source path to compile.
    * <p/>
@@ -76,21 +120,40 @@ public class Compilation implements Action {
     return this;
   }
   
+  boolean isDebugDisabled() {
+    return disableDebug;
+  }
+  
   public Compilation to(final String path) {
     toPath = path;
     return this;
   }
   
+  /** Whether a destination has been defined with {@link #to(String)} */
+  boolean hasDestination() {
+    return toPath != null;
+  }
+  
   private void setDefaults() {
-    if (srcPath == null) {
-      srcPath = Defaults.SOURCE_PATH;
-    }
+    setSourcePathDefault();
     
     if (toPath == null) {
       toPath = Defaults.ARTIFACTS_PATH;
     }
   }
   
+  private void setSourcePathDefault() {
+    if (srcPath == null) {
+      srcPath = Defaults.SOURCE_PATH;
+    }
+  }
+  
+  /** Whether the source path was compiled for this build */
+  boolean isCompiled() {
+    setSourcePathDefault();
+    return CompilationCache.get().isSrcPathCompiled(srcPath);
+  }
+  
   File getSourceDirectory() {
     return Util.checkedDirectory(new File(srcPath));
   }
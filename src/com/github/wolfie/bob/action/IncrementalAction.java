@@ -0,0 +1,54 @@
+package com.github.wolfie.bob.action;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An {@link Action} that can tell which files it reads and what it writes.
+ * <p/>
+ * Bob remembers a fingerprint of the inputs of each incremental action it
+ * has processed. If the inputs haven't changed since, and the output still
+ * exists as it was left, the action is not processed again.
+ * 
+ * @see com.github.wolfie.bob.ActionRunner
+ */
+public interface IncrementalAction extends Action {
+  
+  /**
+   * Get the files that the action reads.
+   * <p/>
+   * This is called before {@link #process()}, and may process the actions
+   * this action needs its inputs from.
+   * 
+   * @return a name that stays the same from build to build, such as a jar
+   *         entry name, &rarr; the file by that name
+   */
+  Map<String, File> getInputs();
+  
+  /**
+   * Get the file or directory the action writes.
+   * 
+   * @return the output, or <code>null</code> if the action doesn't write
+   *         anything that should be checked for existence.
+   */
+  File getOutput();
+  
+  /**
+   * Get the files the action writes into its output directory. Only these are
+   * checked for changes, since other actions may write into the same
+   * directory.
+   * 
+   * @return the names of the files, relative to {@link #getOutput()}, or an
+   *         empty set if the output is not a directory.
+   */
+  Set<String> getWrittenFiles();
+  
+  /**
+   * Describe the settings of the action that affect its output, apart from
+   * the inputs. When these change, the action is processed again.
+   * 
+   * @return the settings, or an empty string if there are none.
+   */
+  String getSettings();
+}
@@ -1,21 +1,24 @@
 package com.github.wolfie.bob.action;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 
+import com.github.wolfie.bob.ActionRunner;
 import com.github.wolfie.bob.Bob;
 import com.github.wolfie.bob.Defaults;
 import com.github.wolfie.bob.Log;
@@ -46,12 +49,22 @@ import com.github.wolfie.bob.exception.ProcessingError;
  * <li>The resulting file is <tt>artifacts/build.jar</tt></li>
  * <li>Sources are not included</li>
  * <li>Manifest file is taken from <tt>META-INF/MANIFEST.MF</tt>, if exists</li>
+ * <li>Entries have the modification times of their files, unless the jar is
+ * {@link #reproducible()}</li>
+ * <li>Entries are deflated at level 6, except for files that are already
+ * compressed, like images and nested archives, and files that deflating
+ * would make hardly any smaller. Those are stored as they are.</li>
  * </ul>
  * 
  * @author Henrik Paul
  * @since 1.0.0
  */
-public class Jar implements Action {
+public class Jar implements IncrementalAction {
+  
+  /** The extensions of files that are compressed already */
+  private static final String[] DEFAULT_STORED_EXTENSIONS = { "jar", "war",
+      "ear", "zip", "gz", "tgz", "bz2", "xz", "7z", "png", "jpg", "jpeg",
+      "gif", "ico", "webp", "mp3", "mp4", "ogg", "webm", "woff", "woff2" };
   
   protected Compilation fromCompilation;
   private String fromPath;
@@ -67,35 +80,108 @@ public class Jar implements Action {
   protected String archiveClassSourceDestination = "";
   
   private boolean manifestPathIsDefault = false;
+  private boolean reproducible = false;
+  private int compressionLevel = JarWriter.DEFAULT_COMPRESSION_LEVEL;
+  private final SortedSet<String> storedExtensions = new TreeSet<String>(
+      Arrays.asList(DEFAULT_STORED_EXTENSIONS));
+  
+  /** The entries of the jar, once they've been found */
+  private Map<String, File> inputs = null;
   
   @Override
   public final void process() {
-    setDefaults();
+    /*
+     * To make the Jar file look neater, let's sort the entries. Just for
+     * shits'n'giggles.
+     */
+    final SortedMap<String, File> entryMap = new TreeMap<String, File>(
+        getInputs());
     
-    // A map from jar entry name to file representation
-    final Map<String, File> entryMap = new HashMap<String, File>();
-    
-    final File classesDir = getClassesDirectory();
-    
-    Log.get().log("Finding classfiles from "
-        + classesDir.getAbsolutePath(), LogLevel.DEBUG);
-    Collection<File> classFiles;
     try {
-      classFiles = Util.getFilesRecursively(classesDir,
-          Util.JAVA_CLASS_FILE);
-    } catch (final NotADirectoryOrCouldNotReadException e) {
+      final File destination = getDestination();
+      
+      final Manifest manifest;
+      final File manifestFile = entryMap.get(Defaults.JAR_MANIFEST_PATH);
+      if (manifestFile != null) {
+        final FileInputStream manifestStream = new FileInputStream(
+            manifestFile);
+        try {
+          manifest = new Manifest(manifestStream);
+        } finally {
+          manifestStream.close();
+        }
+      } else {
+        manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION,
+            "1");
+      }
+      manifest.getMainAttributes().put(new Attributes.Name("Created-By"),
+          Bob.getVersionString());
+      
+      // since the manifest will be handled by the JarWriter, remove the
+      // duplicate entry for that.
+      entryMap.remove(Defaults.JAR_MANIFEST_PATH);
+      
+      final JarWriter writer = new JarWriter(destination, Bob.getJobs());
+      writer.setFixedTimes(reproducible);
+      writer.setCompressionLevel(compressionLevel);
+      writer.setStoredExtensions(storedExtensions);
+      writer.write(manifest, entryMap);
+      
+      final String shortLog = "Wrote " + destination.getPath();
+      final String longLog = "Wrote " + destination.getAbsolutePath();
+      Log.get().log(
+          new MultiLog(shortLog, LogLevel.INFO).or(longLog, LogLevel.VERBOSE));
+    } catch (final IOException e) {
       throw new ProcessingError(e);
     }
-    for (final File classFile : classFiles) {
+  }
+  
+  /**
+   * Get the files to package, by their jar entry names. The manifest file, if
+   * there is one, is included as {@value Defaults#JAR_MANIFEST_PATH}.
+   */
+  @Override
+  public final Map<String, File> getInputs() {
+    if (inputs == null) {
+      setDefaults();
+      inputs = Collections.unmodifiableMap(findEntries());
+    }
+    return inputs;
+  }
+  
+  @Override
+  public File getOutput() {
+    setDefaults();
+    return new File(toPath);
+  }
+  
+  @Override
+  public Set<String> getWrittenFiles() {
+    return Collections.emptySet();
+  }
+  
+  @Override
+  public String getSettings() {
+    return "reproducible=" + reproducible + ";level=" + compressionLevel
+        + ";stored=" + Util.implode(",", storedExtensions);
+  }
+  
+  private Map<String, File> findEntries() {
+    // A map from jar entry name to file representation
+    final Map<String, File> entryMap = new HashMap<String, File>();
+    
+    final Map<String, File> classFiles = getClassFiles();
+    for (final Entry<String, File> classFile : classFiles.entrySet()) {
       final String entryName = archiveClassSourceDestination
-          + Util.relativeFileName(classesDir, classFile);
+          + classFile.getKey();
       
       Log.get().log(new MultiLog(entryName, LogLevel.VERBOSE)
-              .or(entryName + " <- " + classFile.getAbsolutePath(),
+              .or(entryName + " <- " + classFile.getValue().getAbsolutePath(),
                   LogLevel.DEBUG)
           );
       
-      entryMap.put(entryName, classFile);
+      entryMap.put(entryName, classFile.getValue());
     }
     
     try {
@@ -128,58 +214,15 @@ public class Jar implements Action {
     // let subclasses add their own files.
     subClassProcessHook(entryMap);
     
+    // the manifest is taken from its own file, if it exists.
+    entryMap.remove(Defaults.JAR_MANIFEST_PATH);
     try {
-      final File destination = getDestination();
-      
-      final FileOutputStream fileOutputStream = new FileOutputStream(
-          destination);
-      
-      // can't be final, since Java doesn't understand the structure of the
-      // try/catch
-      JarOutputStream jarOutputStream;
-      
-      try {
-        final File manifestFile = getManifestFile();
-        final Manifest manifest = new Manifest(
-            new FileInputStream(manifestFile));
-        manifest.getMainAttributes().put(new Attributes.Name("Created-By"),
-            Bob.getVersionString());
-        jarOutputStream = new JarOutputStream(fileOutputStream, manifest);
-        
-      } catch (final NoManifestFileFoundException e) {
-        final Manifest emptyManifest = new Manifest();
-        emptyManifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION,
-            "1");
-        emptyManifest.getMainAttributes().put(
-            new Attributes.Name("Created-By"), Bob.getVersionString());
-        jarOutputStream = new JarOutputStream(fileOutputStream, emptyManifest);
-      }
-      
-      // since the manifest will be handled by the JarOutputStream, remove the
-      // duplicate entry for that.
-      entryMap.remove("META-INF/MANIFEST.MF");
-      
-      /*
-       * To make the Jar file look neater, let's sort the entries. Just for
-       * shits'n'giggles.
-       */
-      final List<String> entries = new ArrayList<String>(entryMap.keySet());
-      Collections.sort(entries);
-      
-      for (final String entry : entries) {
-        final File file = entryMap.get(entry);
-        add(entry, file, jarOutputStream);
-      }
-      
-      jarOutputStream.close();
-      
-      final String shortLog = "Wrote " + destination.getPath();
-      final String longLog = "Wrote " + destination.getAbsolutePath();
-      Log.get().log(
-          new MultiLog(shortLog, LogLevel.INFO).or(longLog, LogLevel.VERBOSE));
-    } catch (final Exception e) {
-      throw new ProcessingError(e);
+      entryMap.put(Defaults.JAR_MANIFEST_PATH, getManifestFile());
+    } catch (final NoManifestFileFoundException e) {
+      // okay, an empty manifest then.
     }
+    
+    return entryMap;
   }
   
   /**
@@ -243,7 +286,7 @@ public class Jar implements Action {
    */
   protected void setDefaults() {
     if (fromCompilation == null && fromPath == null) {
-      fromCompilation = new Compilation();
+      fromCompilation = ActionRunner.getDefault(Compilation.class);
     }
     
     if (manifestPath == null) {
@@ -262,11 +305,12 @@ public class Jar implements Action {
     if (toPath != null) {
       final File destination = new File(toPath);
       
-      if (destination.exists()) {
+      // an existing file is replaced by the JarWriter, reusing what it can
+      if (destination.isDirectory()) {
         Util.delete(destination);
       }
       
-      final File parentFile = destination.getParentFile();
+      final File parentFile = destination.getAbsoluteFile().getParentFile();
       if (!parentFile.exists()) {
         Util.createDir(parentFile);
       }
@@ -279,23 +323,72 @@ public class Jar implements Action {
   }
   
   /**
-   * Resolve the directory in which the classes will be found.
+   * Resolve the class files to package.
    * 
-   * @return a {@link File} representing the directory containing the classfiles
+   * @return class file path, relative to its class directory &rarr; class
+   *         file
    * @throws NotAReadableDirectoryException
-   *           if the resulting directory is not, in fact, a readable directory
-   *           at all.
+   *           if the classes are taken from a directory that is not, in fact, a
+   *           readable directory at all.
    */
-  private File getClassesDirectory() {
+  private Map<String, File> getClassFiles() {
     if (fromCompilation != null) {
-      return getClassesDirectoryFromCompilation(fromCompilation);
+      return getClassFilesFromCompilation(fromCompilation);
     } else if (fromPath != null) {
-      return getClassesDirectoryFromPath(fromPath);
+      return getClassFilesFromDirectory(getClassesDirectoryFromPath(fromPath));
     } else {
       throw new InternalConsistencyException("No class source defined");
     }
   }
   
+  private static Map<String, File> getClassFilesFromDirectory(
+      final File classesDir) {
+    Log.get().log("Finding classfiles from "
+        + classesDir.getAbsolutePath(), LogLevel.DEBUG);
+    Collection<File> classFiles;
+    try {
+      classFiles = Util.getFilesRecursively(classesDir,
+          Util.JAVA_CLASS_FILE);
+    } catch (final NotADirectoryOrCouldNotReadException e) {
+      throw new ProcessingError(e);
+    }
+    
+    final Map<String, File> classFilesByName = new HashMap<String, File>();
+    for (final File classFile : classFiles) {
+      classFilesByName.put(Util.relativeFileName(classesDir, classFile),
+          classFile);
+    }
+    return classFilesByName;
+  }
+  
+  /**
+   * Get the classes from a {@link Compilation}.
+   * <p/>
+   * The class files are packaged straight from the compilation cache, where
+   * the compilation would only copy them from. The compilation is processed
+   * only if it has a destination of its own, to have the classes there too.
+   * Classes that are compiled differently than those in the cache, like
+   * without debug information, are taken from the compilation's destination.
+   */
+  private static Map<String, File> getClassFilesFromCompilation(
+      final Compilation compilation) {
+    if (compilation.isDebugDisabled()) {
+      return getClassFilesFromDirectory(
+          getClassesDirectoryFromCompilation(compilation));
+    }
+    
+    final boolean hasDestination;
+    synchronized (compilation) {
+      hasDestination = compilation.hasDestination();
+    }
+    if (hasDestination) {
+      ActionRunner.process(compilation);
+    }
+    Log.get().log("Taking classfiles from the compilation cache",
+        LogLevel.DEBUG);
+    return compilation.getInputs();
+  }
+  
   /**
    * @param path
    * @return
@@ -308,6 +401,10 @@ public class Jar implements Action {
   }
   
   /**
+   * Get the classes from a {@link Compilation}. The compilation is processed
+   * only if it hasn't been already during this build, and into a temporary
+   * directory, unless it has a destination of its own.
+   * 
    * @param compilation
    * @return
    * @throws NotAReadableDirectoryException
@@ -316,58 +413,19 @@ public class Jar implements Action {
    */
   private static File getClassesDirectoryFromCompilation(
       final Compilation compilation) {
-    try {
-      final File temporaryDirectory = Util.getTemporaryDirectory();
-      compilation.to(temporaryDirectory.getAbsolutePath());
-      compilation.process();
-      
-      return Util.checkedDirectory(temporaryDirectory);
-    } catch (final IOException e) {
-      throw new ProcessingError("Could not create a temporary directory.", e);
-    }
-  }
-  
-  /**
-   * See <a href=
-   * "http://stackoverflow.com/questions/1281229/how-to-use-jaroutputstream-to-create-a-jar-file"
-   * >Stack Overflow</a> for explanation on method.
-   * 
-   * @param baseDir
-   * @param source
-   *          The {@link File} to add to the Jar.
-   * @param archiveDestinationPrefix
-   * @param target
-   *          The Jar's {@link JarOutputStream}.
-   * @throws IOException
-   */
-  protected static void add(final String entryName, final File source,
-      final JarOutputStream target) throws IOException {
-    
-    // Adjusted Jar entry name (for Windows-style paths)
-    final String adjustedEntryName = entryName.replace('\\', '/');
-    
-    Log.get().log("Compressing " + adjustedEntryName, LogLevel.DEBUG);
-    
-    final JarEntry entry = new JarEntry(adjustedEntryName);
-    entry.setTime(source.lastModified());
-    target.putNextEntry(entry);
-    
-    final BufferedInputStream in = new BufferedInputStream(new FileInputStream(
-        source));
-    
-    try {
-      final byte[] buffer = new byte[1024];
-      while (true) {
-        final int count = in.read(buffer);
-        if (count == -1) {
-          break;
+    synchronized (compilation) {
+      if (!compilation.hasDestination()) {
+        try {
+          compilation.to(Util.getTemporaryDirectory().getAbsolutePath());
+        } catch (final IOException e) {
+          throw new ProcessingError("Could not create a temporary directory.",
+              e);
         }
-        target.write(buffer, 0, count);
       }
-      target.closeEntry();
-    } finally {
-      in.close();
     }
+    
+    ActionRunner.process(compilation);
+    return Util.checkedDirectory(compilation.getDestinationDir());
   }
   
   /**
@@ -429,6 +487,57 @@ public class Jar implements Action {
     return this;
   }
   
+  /**
+   * Make the resulting file depend on nothing but the contents of its
+   * entries, so that building the same contents twice gives identical files.
+   * <p/>
+   * All entries get the same fixed time, instead of the modification times
+   * of their files.
+   * 
+   * @return <code>this</code>
+   */
+  public Jar reproducible() {
+    reproducible = true;
+    return this;
+  }
+  
+  /**
+   * Set how hard the entries are compressed.
+   * 
+   * @param level
+   *          from 0 to 9, as in {@link java.util.zip.Deflater}. 1 is the
+   *          fastest, 9 gives the smallest file and 0 stores all entries
+   *          without compressing them.
+   * @return <code>this</code>
+   * @throws IllegalArgumentException
+   *           if <tt>level</tt> is not between 0 and 9
+   */
+  public Jar compressionLevel(final int level) {
+    if (level < 0 || level > 9) {
+      throw new IllegalArgumentException("Invalid compression level: "
+          + level);
+    }
+    compressionLevel = level;
+    return this;
+  }
+  
+  /**
+   * Store files with the given extensions without compressing them, in
+   * addition to the files that are compressed already, like images and
+   * nested archives.
+   * 
+   * @param extensions
+   *          file name extensions without the dot, like <tt>"dat"</tt>
+   * @return <code>this</code>
+   */
+  public Jar storeUncompressed(final String... extensions) {
+    Util.checkNulls((Object[]) extensions);
+    for (final String extension : extensions) {
+      storedExtensions.add(extension.toLowerCase(Locale.ENGLISH));
+    }
+    return this;
+  }
+  
   /**
    * Include sources to the resulting jar from a chained supplier.
    * 
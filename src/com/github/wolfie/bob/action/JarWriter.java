@@ -0,0 +1,907 @@
+package com.github.wolfie.bob.action;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import com.github.wolfie.bob.Log;
+import com.github.wolfie.bob.Log.LogLevel;
+import com.github.wolfie.bob.Util;
+import com.github.wolfie.bob.Util.ContentWriter;
+import com.github.wolfie.bob.action.ArchiveIndex.ArchiveEntry;
+import com.github.wolfie.bob.exception.ProcessingError;
+
+/**
+ * Writes a Jar-format file, compressing its entries concurrently.
+ * <p/>
+ * A {@link java.util.jar.JarOutputStream} compresses one entry at a time.
+ * Instead, each entry is compressed on its own into a buffer of its own, on a
+ * pool of threads, and the compressed entries are written into the file in
+ * order as soon as they're ready. Only a limited number of entries is
+ * compressed ahead of the one being written, and only small entries are held
+ * in memory: a large entry is compressed into a temporary file beside the
+ * archive, and an entry that is stored, or copied from the old file, is
+ * streamed into the archive when its turn comes. So only a bounded amount of
+ * the archive is ever held in memory.
+ * <p/>
+ * Files that are already compressed, like images and nested archives, are
+ * stored as they are, by their extensions. So is any entry that deflating
+ * would make hardly any smaller. Storing them spares the effort of
+ * compressing them, now and whenever they're read.
+ * <p/>
+ * If the file already exists, it's used as a source of compressed entries:
+ * an entry whose file has the same size, modification time and CRC as the
+ * entry by the same name in the old file is copied from there without
+ * compressing it again, provided that the old file was written with the same
+ * compression settings. The new file is written beside the old one, and
+ * replaces it once it's complete.
+ * <p/>
+ * The zip format is written as is, without the ZIP64 extensions, so an
+ * archive may hold at most 65535 entries and 4 GB.
+ */
+final class JarWriter {
+  
+  /** The data of an entry, as it's written into the file */
+  private interface EntryData {
+    /** The length of the data, compressed if the entry is */
+    long getLength();
+    
+    void writeTo(OutputStream out) throws IOException;
+  }
+  
+  /** Data that is held in memory */
+  private static final class BytesData implements EntryData {
+    private final byte[] bytes;
+    
+    private BytesData(final byte[] bytes) {
+      this.bytes = bytes;
+    }
+    
+    @Override
+    public long getLength() {
+      return bytes.length;
+    }
+    
+    @Override
+    public void writeTo(final OutputStream out) throws IOException {
+      out.write(bytes);
+    }
+  }
+  
+  /**
+   * The contents of a file, stored as they are. They're read only once the
+   * entry is written, and must not have changed since their CRC was taken.
+   */
+  private static final class FileData implements EntryData {
+    private final File file;
+    private final long size;
+    private final long crc;
+    
+    private FileData(final File file, final long size, final long crc) {
+      this.file = file;
+      this.size = size;
+      this.crc = crc;
+    }
+    
+    @Override
+    public long getLength() {
+      return size;
+    }
+    
+    @Override
+    public void writeTo(final OutputStream out) throws IOException {
+      final CheckedInputStream in = new CheckedInputStream(
+          new FileInputStream(file), new CRC32());
+      final long copied;
+      try {
+        copied = copy(in, out);
+      } finally {
+        in.close();
+      }
+      if (copied != size || in.getChecksum().getValue() != crc) {
+        throw new IOException(file.getAbsolutePath()
+            + " changed while it was being archived");
+      }
+    }
+  }
+  
+  /**
+   * Compressed data in a temporary file, which is deleted once it's been
+   * written.
+   */
+  private static final class TemporaryFileData implements EntryData {
+    private final File file;
+    
+    private TemporaryFileData(final File file) {
+      this.file = file;
+    }
+    
+    @Override
+    public long getLength() {
+      return file.length();
+    }
+    
+    @Override
+    public void writeTo(final OutputStream out) throws IOException {
+      final InputStream in = new FileInputStream(file);
+      try {
+        copy(in, out);
+      } finally {
+        in.close();
+      }
+      file.delete();
+    }
+  }
+  
+  /** The data of an entry in the old file, copied as it is */
+  private static final class PreviousData implements EntryData {
+    private final ArchiveIndex previous;
+    private final ArchiveEntry entry;
+    
+    private PreviousData(final ArchiveIndex previous, final ArchiveEntry entry) {
+      this.previous = previous;
+      this.entry = entry;
+    }
+    
+    @Override
+    public long getLength() {
+      return entry.getCompressedSize();
+    }
+    
+    @Override
+    public void writeTo(final OutputStream out) throws IOException {
+      previous.copyRawData(entry, out);
+    }
+  }
+  
+  /** An entry, compressed and ready to be written */
+  private static final class CompressedEntry {
+    private final String name;
+    private final int method;
+    private final long dosTime;
+    private final long crc;
+    private final long size;
+    private final EntryData data;
+    
+    private CompressedEntry(final String name, final int method,
+        final long dosTime, final long crc, final long size,
+        final EntryData data) {
+      this.name = name;
+      this.method = method;
+      this.dosTime = dosTime;
+      this.crc = crc;
+      this.size = size;
+      this.data = data;
+    }
+  }
+  
+  /**
+   * An entry that has been written, for the central directory. Its data is not
+   * kept.
+   */
+  private static final class WrittenEntry {
+    private final String name;
+    private final int method;
+    private final long dosTime;
+    private final long crc;
+    private final long size;
+    private final long compressedSize;
+    private final long offset;
+    
+    private WrittenEntry(final CompressedEntry entry,
+        final long compressedSize, final long offset) {
+      name = entry.name;
+      method = entry.method;
+      dosTime = entry.dosTime;
+      crc = entry.crc;
+      size = entry.size;
+      this.compressedSize = compressedSize;
+      this.offset = offset;
+    }
+  }
+  
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_SIGNATURE = 0x06054b50;
+  
+  /** The version of the zip format needed for deflated entries */
+  private static final int VERSION = 20;
+  /** The version of the zip format needed for stored entries */
+  private static final int VERSION_STORED = 10;
+  
+  /** The names are encoded in UTF-8 */
+  private static final int FLAG_UTF8 = 0x0800;
+  private static final int METHOD_STORED = 0;
+  private static final int METHOD_DEFLATED = 8;
+  
+  /** The extra field that marks a file as a Jar, in the first entry */
+  private static final int JAR_MAGIC = 0xcafe;
+  
+  /**
+   * The extra field that records the compression settings, in the central
+   * directory header of the first entry. Tools ignore fields they don't know.
+   */
+  private static final int SETTINGS_FIELD = 0x4c42;
+  
+  private static final long MAX_ENTRIES = 0xffff;
+  private static final long MAX_SIZE = 0xffffffffL;
+  
+  /**
+   * The default compression level is given explicitly, so that the same
+   * contents are always compressed the same way, even if the default of
+   * {@link Deflater} would change.
+   */
+  static final int DEFAULT_COMPRESSION_LEVEL = 6;
+  
+  /**
+   * An entry is stored instead, if deflating it would save less than this
+   * share of its size, in percent.
+   */
+  private static final int MIN_SAVINGS_PERCENT = 5;
+  
+  /** The time of all entries when the times are fixed: 1980-02-01 00:00 */
+  private static final long FIXED_DOS_TIME = 2 << 21 | 1 << 16;
+  
+  /** How many entries are compressed ahead, per thread */
+  private static final int ENTRIES_AHEAD_PER_JOB = 4;
+  
+  /**
+   * Entries at least this large, in bytes, are never held in memory as a
+   * whole.
+   */
+  static final long LARGE_ENTRY_SIZE = 1024 * 1024;
+  
+  private static final int BUFFER_SIZE = 8192;
+  
+  private final File destination;
+  private final int jobs;
+  private boolean fixedTimes = false;
+  private int compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+  private SortedSet<String> storedExtensions = new TreeSet<String>();
+  
+  /** The names of the entries copied from the old file */
+  private final SortedSet<String> reusedEntries = Collections
+      .synchronizedSortedSet(new TreeSet<String>());
+  
+  /**
+   * @param jobs
+   *          the maximum number of entries to compress concurrently
+   */
+  JarWriter(final File destination, final int jobs) {
+    this.destination = destination;
+    this.jobs = Math.max(1, jobs);
+  }
+  
+  /**
+   * Give all entries the same time, instead of the modification times of
+   * their files. Together with the sorted entries and the fixed compression
+   * level, this makes the same contents always produce the same file.
+   */
+  void setFixedTimes(final boolean fixedTimes) {
+    this.fixedTimes = fixedTimes;
+  }
+  
+  /**
+   * @param compressionLevel
+   *          the level of {@link Deflater}, from 0 to 9. At 0, all entries are
+   *          stored.
+   */
+  void setCompressionLevel(final int compressionLevel) {
+    if (compressionLevel < Deflater.NO_COMPRESSION
+        || compressionLevel > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("Invalid compression level: "
+          + compressionLevel);
+    }
+    this.compressionLevel = compressionLevel;
+  }
+  
+  /**
+   * @param storedExtensions
+   *          the file name extensions, in lower case and without the dot, of
+   *          the entries to store without compressing them.
+   */
+  void setStoredExtensions(final Set<String> storedExtensions) {
+    this.storedExtensions = new TreeSet<String>(storedExtensions);
+  }
+  
+  /**
+   * The settings that decide how the entries are compressed, to be recorded
+   * in the file.
+   */
+  private byte[] getSettings() throws IOException {
+    return (compressionLevel + ":" + Util.implode(",", storedExtensions))
+        .getBytes("UTF-8");
+  }
+  
+  /**
+   * @return the names of the entries that the last {@link #write} copied from
+   *         the old file, instead of compressing them again.
+   */
+  SortedSet<String> getReusedEntries() {
+    synchronized (reusedEntries) {
+      return new TreeSet<String>(reusedEntries);
+    }
+  }
+  
+  /**
+   * Write the file.
+   * 
+   * @param entries
+   *          Jar entry name &rarr; the file to store by that name. The entries
+   *          are written in this order, after the manifest.
+   */
+  void write(final Manifest manifest, final SortedMap<String, File> entries)
+      throws IOException {
+    if (entries.size() + 1 > MAX_ENTRIES) {
+      throw new ProcessingError(destination.getPath() + " would have "
+          + (entries.size() + 1) + " entries, but at most " + MAX_ENTRIES
+          + " are supported");
+    }
+    
+    final ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+    manifest.write(manifestBytes);
+    
+    final ArchiveIndex previous = readPrevious();
+    reusedEntries.clear();
+    try {
+      Util.writeAtomically(destination, new ContentWriter() {
+        @Override
+        public void write(final OutputStream out) throws IOException {
+          writeEntries(new CountingOutputStream(out), manifestBytes
+              .toByteArray(), entries, previous);
+        }
+      });
+    } finally {
+      if (previous != null) {
+        previous.close();
+      }
+    }
+    
+    if (previous != null) {
+      Log.get().log(String.format(
+          "Reused %d of %d compressed entries from the previous %s",
+          reusedEntries.size(), entries.size(), destination.getPath()),
+          LogLevel.VERBOSE);
+    }
+  }
+  
+  private void writeEntries(final CountingOutputStream out,
+      final byte[] manifest, final SortedMap<String, File> entries,
+      final ArchiveIndex previous) throws IOException {
+    // the temporary files of large entries, deleted as they're written
+    final Set<File> spilledFiles = Collections
+        .synchronizedSet(new HashSet<File>());
+    
+    final ExecutorService executor = Executors.newFixedThreadPool(jobs);
+    try {
+      final List<WrittenEntry> writtenEntries = new ArrayList<WrittenEntry>();
+      writtenEntries.add(writeLocal(out, compress(JarFile.MANIFEST_NAME,
+          fixedTimes ? FIXED_DOS_TIME : toDosTime(System.currentTimeMillis()),
+          manifest, false), true));
+      
+      final Queue<Future<CompressedEntry>> pending = new LinkedList<Future<CompressedEntry>>();
+      for (final Entry<String, File> entry : entries.entrySet()) {
+        pending.add(executor.submit(getCompressTask(entry.getKey(), entry
+            .getValue(), previous, spilledFiles)));
+        if (pending.size() >= jobs * ENTRIES_AHEAD_PER_JOB) {
+          writtenEntries.add(writeLocal(out, get(pending.remove()), false));
+        }
+      }
+      while (!pending.isEmpty()) {
+        writtenEntries.add(writeLocal(out, get(pending.remove()), false));
+      }
+      
+      writeCentralDirectory(out, writtenEntries);
+    } finally {
+      executor.shutdownNow();
+      // no task may be left to spill a file once they're deleted
+      awaitTermination(executor);
+      synchronized (spilledFiles) {
+        for (final File spilledFile : spilledFiles) {
+          spilledFile.delete();
+        }
+      }
+    }
+  }
+  
+  /**
+   * @return the index of the existing file, or <code>null</code> if there's
+   *         none that can be read, or it was written with other compression
+   *         settings.
+   */
+  private ArchiveIndex readPrevious() throws IOException {
+    if (!destination.isFile()) {
+      return null;
+    }
+    
+    final ArchiveIndex index;
+    try {
+      index = ArchiveIndex.read(destination);
+    } catch (final IOException e) {
+      Log.get().log("Compressing all entries, since " + destination.getPath()
+          + " could not be read: " + e.getMessage(), LogLevel.DEBUG);
+      return null;
+    }
+    
+    final ArchiveEntry manifestEntry = index.getEntry(JarFile.MANIFEST_NAME);
+    final byte[] settings = manifestEntry != null ? manifestEntry
+        .getExtraField(SETTINGS_FIELD) : null;
+    if (!Arrays.equals(settings, getSettings())) {
+      Log.get().log("Compressing all entries, since " + destination.getPath()
+          + " was written with other compression settings", LogLevel.DEBUG);
+      close(index);
+      return null;
+    }
+    return index;
+  }
+  
+  private static void close(final ArchiveIndex index) {
+    try {
+      index.close();
+    } catch (final IOException e) {
+      Log.get().log("Could not close an archive: " + e.getMessage(),
+          LogLevel.DEBUG);
+    }
+  }
+  
+  private static void awaitTermination(final ExecutorService executor) {
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  private Callable<CompressedEntry> getCompressTask(
+      final String entryName, final File file, final ArchiveIndex previous,
+      final Set<File> spilledFiles) {
+    return new Callable<CompressedEntry>() {
+      @Override
+      public CompressedEntry call() throws Exception {
+        // Adjusted Jar entry name (for Windows-style paths)
+        final String adjustedEntryName = entryName.replace('\\', '/');
+        final long dosTime = fixedTimes ? FIXED_DOS_TIME : toDosTime(file
+            .lastModified());
+        final ArchiveEntry previousEntry = previous != null ? previous
+            .getEntry(adjustedEntryName) : null;
+        
+        if (file.length() >= LARGE_ENTRY_SIZE) {
+          return getLargeEntry(adjustedEntryName, file, dosTime, previous,
+              previousEntry, spilledFiles);
+        }
+        
+        final byte[] bytes = readFully(file);
+        
+        if (isStored(adjustedEntryName)) {
+          Log.get().log("Storing " + adjustedEntryName, LogLevel.DEBUG);
+          return new CompressedEntry(adjustedEntryName, METHOD_STORED,
+              dosTime, getCrc(bytes), bytes.length, new BytesData(bytes));
+        }
+        
+        if (previousEntry != null && previousEntry.getSize() == bytes.length
+            && previousEntry.getDosTime() == dosTime
+            && previousEntry.getCrc() == getCrc(bytes)) {
+          final CompressedEntry reused = reuse(adjustedEntryName, previous,
+              previousEntry, new BytesData(bytes));
+          if (reused != null) {
+            reusedEntries.add(adjustedEntryName);
+            return reused;
+          }
+        }
+        
+        Log.get().log("Compressing " + adjustedEntryName, LogLevel.DEBUG);
+        return compress(adjustedEntryName, dosTime, bytes, true);
+      }
+    };
+  }
+  
+  /**
+   * Get an entry that is too large to hold in memory. Its contents are
+   * streamed into the archive, or compressed into a temporary file.
+   */
+  private CompressedEntry getLargeEntry(final String name, final File file,
+      final long dosTime, final ArchiveIndex previous,
+      final ArchiveEntry previousEntry, final Set<File> spilledFiles)
+      throws IOException {
+    if (isStored(name)) {
+      Log.get().log("Storing " + name, LogLevel.DEBUG);
+      return getStoredEntry(name, file, dosTime);
+    }
+    
+    if (previousEntry != null && previousEntry.getSize() == file.length()
+        && previousEntry.getDosTime() == dosTime) {
+      final CompressedEntry stored = getStoredEntry(name, file, dosTime);
+      if (previousEntry.getCrc() == stored.crc
+          && previousEntry.getSize() == stored.size) {
+        final CompressedEntry reused = reuse(name, previous, previousEntry,
+            stored.data);
+        if (reused != null) {
+          reusedEntries.add(name);
+          return reused;
+        }
+      }
+    }
+    
+    Log.get().log("Compressing " + name, LogLevel.DEBUG);
+    final File spilledFile = File.createTempFile("bob", ".part", destination
+        .getAbsoluteFile().getParentFile());
+    spilledFiles.add(spilledFile);
+    
+    final CheckedInputStream in = new CheckedInputStream(new FileInputStream(
+        file), new CRC32());
+    final long size;
+    final Deflater deflater = new Deflater(compressionLevel, true);
+    try {
+      final OutputStream out = new DeflaterOutputStream(new FileOutputStream(
+          spilledFile), deflater, BUFFER_SIZE);
+      try {
+        size = copy(in, out);
+      } finally {
+        out.close();
+      }
+    } finally {
+      deflater.end();
+      in.close();
+    }
+    final long crc = in.getChecksum().getValue();
+    
+    if (size - spilledFile.length() < size * MIN_SAVINGS_PERCENT / 100) {
+      spilledFile.delete();
+      return new CompressedEntry(name, METHOD_STORED, dosTime, crc, size,
+          new FileData(file, size, crc));
+    } else {
+      return new CompressedEntry(name, METHOD_DEFLATED, dosTime, crc, size,
+          new TemporaryFileData(spilledFile));
+    }
+  }
+  
+  /** Get an entry that stores a file as it is, once it's written */
+  private static CompressedEntry getStoredEntry(final String name,
+      final File file, final long dosTime) throws IOException {
+    final CheckedInputStream in = new CheckedInputStream(new FileInputStream(
+        file), new CRC32());
+    final long size;
+    try {
+      size = copy(in, null);
+    } finally {
+      in.close();
+    }
+    final long crc = in.getChecksum().getValue();
+    return new CompressedEntry(name, METHOD_STORED, dosTime, crc, size,
+        new FileData(file, size, crc));
+  }
+  
+  /**
+   * Reuse an entry of the old file, whose contents are known to be the same.
+   * 
+   * @param contents
+   *          the contents, for when the entry was stored
+   * @return the entry, or <code>null</code> if it can't be reused.
+   */
+  private static CompressedEntry reuse(final String name,
+      final ArchiveIndex previous, final ArchiveEntry previousEntry,
+      final EntryData contents) {
+    if (previousEntry.getMethod() == METHOD_STORED) {
+      Log.get().log("Reusing " + name, LogLevel.DEBUG);
+      // it was found not to be worth compressing, and still isn't
+      return new CompressedEntry(name, METHOD_STORED,
+          previousEntry.getDosTime(), previousEntry.getCrc(),
+          previousEntry.getSize(), contents);
+    } else if (previousEntry.getMethod() == METHOD_DEFLATED) {
+      Log.get().log("Reusing " + name, LogLevel.DEBUG);
+      return new CompressedEntry(name, METHOD_DEFLATED, previousEntry
+          .getDosTime(), previousEntry.getCrc(), previousEntry.getSize(),
+          new PreviousData(previous, previousEntry));
+    } else {
+      return null;
+    }
+  }
+  
+  /**
+   * Copy a stream into another.
+   * 
+   * @param out
+   *          the stream to copy into, or <code>null</code> to just read
+   *          through <code>in</code>
+   * @return the number of bytes copied
+   */
+  private static long copy(final InputStream in, final OutputStream out)
+      throws IOException {
+    final byte[] buffer = new byte[BUFFER_SIZE];
+    long total = 0;
+    int count;
+    while ((count = in.read(buffer)) != -1) {
+      if (out != null) {
+        out.write(buffer, 0, count);
+      }
+      total += count;
+    }
+    return total;
+  }
+  
+  private static long getCrc(final byte[] bytes) {
+    final CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return crc.getValue();
+  }
+  
+  /**
+   * Whether an entry is stored without even trying to compress it, by its
+   * extension.
+   */
+  private boolean isStored(final String entryName) {
+    if (compressionLevel == Deflater.NO_COMPRESSION) {
+      return true;
+    }
+    
+    final String fileName = entryName.substring(entryName.lastIndexOf('/') + 1);
+    final int dot = fileName.lastIndexOf('.');
+    return dot != -1
+        && storedExtensions.contains(fileName.substring(dot + 1).toLowerCase(
+            Locale.ENGLISH));
+  }
+  
+  /**
+   * @param storeIfPoor
+   *          whether to store the entry instead, if compressing it doesn't
+   *          pay off.
+   */
+  private CompressedEntry compress(final String name, final long dosTime,
+      final byte[] bytes, final boolean storeIfPoor) {
+    if (compressionLevel == Deflater.NO_COMPRESSION) {
+      return new CompressedEntry(name, METHOD_STORED, dosTime, getCrc(bytes),
+          bytes.length, new BytesData(bytes));
+    }
+    
+    final Deflater deflater = new Deflater(compressionLevel, true);
+    try {
+      deflater.setInput(bytes);
+      deflater.finish();
+      final ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math
+          .max(64, bytes.length / 2));
+      final byte[] buffer = new byte[BUFFER_SIZE];
+      while (!deflater.finished()) {
+        final int count = deflater.deflate(buffer);
+        compressed.write(buffer, 0, count);
+      }
+      
+      if (storeIfPoor
+          && bytes.length - compressed.size() < (long) bytes.length
+              * MIN_SAVINGS_PERCENT / 100) {
+        return new CompressedEntry(name, METHOD_STORED, dosTime,
+            getCrc(bytes), bytes.length, new BytesData(bytes));
+      } else {
+        return new CompressedEntry(name, METHOD_DEFLATED, dosTime,
+            getCrc(bytes), bytes.length, new BytesData(compressed
+                .toByteArray()));
+      }
+    } finally {
+      deflater.end();
+    }
+  }
+  
+  private static byte[] readFully(final File file) throws IOException {
+    final long length = file.length();
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException(file.getAbsolutePath() + " is too large");
+    }
+    
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) length);
+    final InputStream in = new FileInputStream(file);
+    try {
+      copy(in, bytes);
+    } finally {
+      in.close();
+    }
+    return bytes.toByteArray();
+  }
+  
+  private static CompressedEntry get(final Future<CompressedEntry> future)
+      throws IOException {
+    try {
+      return future.get();
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      } else if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else {
+        throw new ProcessingError(e.getCause());
+      }
+    } catch (final InterruptedException e) {
+      throw new ProcessingError("Interrupted while compressing", e);
+    }
+  }
+  
+  private WrittenEntry writeLocal(final CountingOutputStream out,
+      final CompressedEntry entry, final boolean first) throws IOException {
+    final long offset = out.getCount();
+    final long compressedSize = entry.data.getLength();
+    if (offset > MAX_SIZE || compressedSize > MAX_SIZE
+        || entry.size > MAX_SIZE) {
+      throw new ProcessingError(destination.getPath()
+          + " would be larger than the supported 4 GB");
+    }
+    
+    final byte[] name = entry.name.getBytes("UTF-8");
+    writeInt(out, LOCAL_HEADER_SIGNATURE);
+    writeShort(out, getVersion(entry.method));
+    writeShort(out, FLAG_UTF8);
+    writeShort(out, entry.method);
+    writeInt(out, entry.dosTime);
+    writeInt(out, entry.crc);
+    writeInt(out, compressedSize);
+    writeInt(out, entry.size);
+    writeShort(out, name.length);
+    writeShort(out, first ? 4 : 0);
+    out.write(name);
+    if (first) {
+      writeShort(out, JAR_MAGIC);
+      writeShort(out, 0);
+    }
+    final long dataOffset = out.getCount();
+    entry.data.writeTo(out);
+    if (out.getCount() - dataOffset != compressedSize) {
+      throw new IOException("The data of " + entry.name
+          + " changed while it was being archived");
+    }
+    
+    return new WrittenEntry(entry, compressedSize, offset);
+  }
+  
+  private void writeCentralDirectory(final CountingOutputStream out,
+      final List<WrittenEntry> writtenEntries) throws IOException {
+    final long offset = out.getCount();
+    boolean first = true;
+    for (final WrittenEntry entry : writtenEntries) {
+      final byte[] name = entry.name.getBytes("UTF-8");
+      final byte[] extra = first ? getFirstEntryExtra() : new byte[0];
+      writeInt(out, CENTRAL_HEADER_SIGNATURE);
+      writeShort(out, VERSION);
+      writeShort(out, getVersion(entry.method));
+      writeShort(out, FLAG_UTF8);
+      writeShort(out, entry.method);
+      writeInt(out, entry.dosTime);
+      writeInt(out, entry.crc);
+      writeInt(out, entry.compressedSize);
+      writeInt(out, entry.size);
+      writeShort(out, name.length);
+      writeShort(out, extra.length);
+      // comment length, disk number, internal and external attributes
+      writeShort(out, 0);
+      writeShort(out, 0);
+      writeShort(out, 0);
+      writeInt(out, 0);
+      writeInt(out, entry.offset);
+      out.write(name);
+      out.write(extra);
+      first = false;
+    }
+    final long size = out.getCount() - offset;
+    if (out.getCount() > MAX_SIZE) {
+      throw new ProcessingError(destination.getPath()
+          + " would be larger than the supported 4 GB");
+    }
+    
+    writeInt(out, END_SIGNATURE);
+    // disk numbers
+    writeShort(out, 0);
+    writeShort(out, 0);
+    writeShort(out, writtenEntries.size());
+    writeShort(out, writtenEntries.size());
+    writeInt(out, size);
+    writeInt(out, offset);
+    // comment length
+    writeShort(out, 0);
+  }
+  
+  /**
+   * The extra fields of the first entry in the central directory: the Jar
+   * marker and the compression settings.
+   */
+  private byte[] getFirstEntryExtra() throws IOException {
+    final byte[] settings = getSettings();
+    final ByteArrayOutputStream extra = new ByteArrayOutputStream();
+    writeShort(extra, JAR_MAGIC);
+    writeShort(extra, 0);
+    writeShort(extra, SETTINGS_FIELD);
+    writeShort(extra, settings.length);
+    extra.write(settings);
+    return extra.toByteArray();
+  }
+  
+  private static int getVersion(final int method) {
+    return method == METHOD_STORED ? VERSION_STORED : VERSION;
+  }
+  
+  /** The time in the MS-DOS format used by zip files, in local time */
+  private static long toDosTime(final long time) {
+    final Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(time);
+    final int year = calendar.get(Calendar.YEAR);
+    if (year < 1980) {
+      return (1 << 21) | (1 << 16);
+    }
+    return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21
+        | calendar.get(Calendar.DAY_OF_MONTH) << 16
+        | calendar.get(Calendar.HOUR_OF_DAY) << 11
+        | calendar.get(Calendar.MINUTE) << 5
+        | calendar.get(Calendar.SECOND) >> 1;
+  }
+  
+  private static void writeShort(final OutputStream out, final int value)
+      throws IOException {
+    out.write(value & 0xff);
+    out.write((value >>> 8) & 0xff);
+  }
+  
+  private static void writeInt(final OutputStream out, final long value)
+      throws IOException {
+    out.write((int) (value & 0xff));
+    out.write((int) ((value >>> 8) & 0xff));
+    out.write((int) ((value >>> 16) & 0xff));
+    out.write((int) ((value >>> 24) & 0xff));
+  }
+  
+  /** An {@link OutputStream} that knows how much has been written to it */
+  private static final class CountingOutputStream extends OutputStream {
+    private final OutputStream out;
+    private long count = 0;
+    
+    private CountingOutputStream(final OutputStream out) {
+      this.out = out;
+    }
+    
+    @Override
+    public void write(final int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+    
+    @Override
+    public void write(final byte[] b, final int off, final int len)
+        throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+    
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+    
+    long getCount() {
+      return count;
+    }
+  }
+}
@@ -34,6 +34,8 @@ import com.github.wolfie.bob.exception.ProcessingError;
  * exists</li>
  * <li><tt>web.xml</tt> is taken from <tt>WebContent/WEB-INF/web.xml</tt>, if
  * exists</li>
+ * <li>Libraries in <tt>WEB-INF/lib</tt>, images and other files that are
+ * compressed already are stored without compressing them again</li>
  * </ul>
  * 
  * @author Henrik Paul
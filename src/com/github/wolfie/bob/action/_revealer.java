@@ -21,4 +21,9 @@ public class _revealer {
   public static File getDestinationDir(final Compilation compilation) {
     return compilation.getDestinationDir();
   }
+  
+  /** @see Compilation#isCompiled() */
+  public static boolean isCompiled(final Compilation compilation) {
+    return compilation.isCompiled();
+  }
 }
@@ -0,0 +1,232 @@
+package com.github.wolfie.bob.action.optional;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.github.wolfie.bob.Bob;
+import com.github.wolfie.bob.ClassFileInfo;
+import com.github.wolfie.bob.Log;
+import com.github.wolfie.bob.Log.LogLevel;
+import com.github.wolfie.bob.Tuple;
+import com.github.wolfie.bob.Util;
+import com.github.wolfie.bob.exception.ProcessingError;
+
+/**
+ * Finds the JUnit test classes among compiled classes by reading their
+ * bytecode, without loading them or running their static initializers.
+ * <p/>
+ * A test class is a public class that isn't abstract, and that has a method
+ * annotated with <tt>@Test</tt>, is annotated with <tt>@RunWith</tt>, or
+ * extends <tt>TestCase</tt>. A superclass among the compiled classes counts
+ * too, so that a test class may inherit its tests.
+ * <p/>
+ * What was read from each class file is kept in a properties file of digest
+ * of the class file &rarr; summary, so that only the class files that have
+ * changed since the last time are read through again.
+ */
+class JUnitTestDiscovery {
+  
+  private static final String TEST_ANNOTATION = "org.junit.Test";
+  private static final String RUN_WITH_ANNOTATION = "org.junit.runner.RunWith";
+  private static final String TEST_CASE_CLASS = "junit.framework.TestCase";
+  
+  /** What a class file says about whether its class is a test class */
+  private static final class Summary {
+    private final String className;
+    private final int accessFlags;
+    private final String superClassName;
+    
+    /** the class has test methods or a runner of its own */
+    private final boolean declaresTests;
+    
+    private Summary(final ClassFileInfo info) {
+      className = info.getClassName();
+      accessFlags = info.getAccessFlags();
+      superClassName = info.getSuperClassName();
+      declaresTests = info.getMethodAnnotationNames().contains(
+          TEST_ANNOTATION)
+          || info.getAnnotationNames().contains(RUN_WITH_ANNOTATION);
+    }
+    
+    /** Read a summary written by {@link #toString()} */
+    private Summary(final String string) {
+      final String[] parts = string.split(" ");
+      accessFlags = Integer.parseInt(parts[0]);
+      declaresTests = Boolean.parseBoolean(parts[1]);
+      className = parts[2];
+      superClassName = parts.length > 3 ? parts[3] : null;
+    }
+    
+    private boolean isRunnable() {
+      return Modifier.isPublic(accessFlags)
+          && !Modifier.isAbstract(accessFlags)
+          && !Modifier.isInterface(accessFlags);
+    }
+    
+    @Override
+    public String toString() {
+      return accessFlags + " " + declaresTests + " " + className
+          + (superClassName != null ? " " + superClassName : "");
+    }
+  }
+  
+  private JUnitTestDiscovery() {
+  }
+  
+  /**
+   * Find the test classes among compiled classes.
+   * 
+   * @param cacheFile
+   *          where the summaries of the class files are kept
+   * @return the names of the test classes, sorted
+   */
+  static List<String> findTestClasses(final File cacheFile,
+      final Collection<File> classFiles) {
+    final Properties cache = load(cacheFile);
+    
+    // class file digest -> summary, of the classes there now
+    final Map<String, String> current = summarize(classFiles, cache);
+    
+    final Map<String, Summary> summaries = new HashMap<String, Summary>();
+    for (final String summary : current.values()) {
+      final Summary parsed = new Summary(summary);
+      summaries.put(parsed.className, parsed);
+    }
+    
+    final List<String> testClasses = new ArrayList<String>();
+    for (final Summary summary : summaries.values()) {
+      if (summary.isRunnable() && hasTests(summary, summaries)) {
+        testClasses.add(summary.className);
+      }
+    }
+    Collections.sort(testClasses);
+    
+    if (!cache.equals(current)) {
+      // the summaries of classes that are gone are forgotten
+      final Properties properties = new Properties();
+      properties.putAll(current);
+      store(cacheFile, properties);
+    }
+    
+    return testClasses;
+  }
+  
+  private static boolean hasTests(final Summary summary,
+      final Map<String, Summary> summaries) {
+    final Set<String> visited = new HashSet<String>();
+    Summary current = summary;
+    while (current != null && visited.add(current.className)) {
+      if (current.declaresTests
+          || TEST_CASE_CLASS.equals(current.superClassName)) {
+        return true;
+      }
+      current = summaries.get(current.superClassName);
+    }
+    return false;
+  }
+  
+  /**
+   * Get the summaries of class files, from the cache where the same class file
+   * has been read before. The rest are read several at once.
+   * 
+   * @return the digest of each class file &rarr; its summary
+   */
+  private static Map<String, String> summarize(
+      final Collection<File> classFiles, final Properties cache) {
+    final int threads = Math.min(Math.max(1, Bob.getJobs()), classFiles
+        .size());
+    final Map<String, String> summaries = new HashMap<String, String>();
+    if (threads == 0) {
+      return summaries;
+    }
+    
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<Tuple<String, String>>> futures = new ArrayList<Future<Tuple<String, String>>>();
+      for (final File classFile : classFiles) {
+        futures.add(executor.submit(new Callable<Tuple<String, String>>() {
+          @Override
+          public Tuple<String, String> call() throws IOException {
+            return summarize(classFile, cache);
+          }
+        }));
+      }
+      
+      for (final Future<Tuple<String, String>> future : futures) {
+        final Tuple<String, String> summary = future.get();
+        if (summary != null) {
+          summaries.put(summary.getFirst(), summary.getSecond());
+        }
+      }
+      return summaries;
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessingError(e);
+    } catch (final ExecutionException e) {
+      throw new ProcessingError(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+  
+  /**
+   * @return the digest of the class file and its summary, or
+   *         <code>null</code> if it's not a class file Bob can read
+   */
+  private static Tuple<String, String> summarize(final File classFile,
+      final Properties cache) throws IOException {
+    final byte[] bytes = Files.readAllBytes(classFile.toPath());
+    final String hash = Util.getHash(bytes);
+    
+    String summary = cache.getProperty(hash);
+    if (summary == null) {
+      try {
+        summary = new Summary(ClassFileInfo.read(bytes)).toString();
+      } catch (final IOException e) {
+        Log.get().log("Not looking for tests in "
+            + classFile.getAbsolutePath() + ": " + e.getMessage(),
+            LogLevel.DEBUG);
+        return null;
+      }
+    }
+    return Tuple.of(hash, summary);
+  }
+  
+  private static Properties load(final File file) {
+    if (file.exists()) {
+      try {
+        return Util.readProperties(file);
+      } catch (final IOException e) {
+        Log.get().log("Could not read " + file.getAbsolutePath()
+            + ", reading all test classes: " + e.getMessage(),
+            LogLevel.WARNING);
+      }
+    }
+    return new Properties();
+  }
+  
+  private static void store(final File file, final Properties properties) {
+    try {
+      Util.writeProperties(file, properties, "test classes");
+    } catch (final IOException e) {
+      Log.get().log("Could not write " + file.getAbsolutePath() + ": "
+          + e.getMessage(), LogLevel.WARNING);
+    }
+  }
+}
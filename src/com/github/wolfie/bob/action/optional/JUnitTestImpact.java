@@ -0,0 +1,206 @@
+package com.github.wolfie.bob.action.optional;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import com.github.wolfie.bob.ClassFileInfo;
+import com.github.wolfie.bob.Log;
+import com.github.wolfie.bob.Log.LogLevel;
+import com.github.wolfie.bob.Util;
+
+/**
+ * Which test classes are affected by what has changed since they last passed.
+ * <p/>
+ * A test class depends on every compiled class it refers to, and on every
+ * class those refer to, and so on. It also depends on every jar file on the
+ * tests' classpath, since references into jars aren't followed. The digest of
+ * a test class is a digest of the class files of all of these and of the
+ * jars. When a test class passes, its digest is remembered, and the test
+ * class needs to be run again only once its digest changes.
+ * <p/>
+ * Only references in the bytecode are followed. A class that is only loaded
+ * by reflection, or a resource that is read, is not seen as a dependency.
+ * <p/>
+ * The digests are kept in a properties file of class name &rarr; digest.
+ */
+class JUnitTestImpact {
+  
+  private static final String CLASS_SUFFIX = ".class";
+  
+  private final File file;
+  private final Properties properties = new Properties();
+  
+  /** binary name &rarr; class file */
+  private final Map<String, File> classFiles;
+  
+  /** the jar files on the tests' classpath */
+  private final Collection<File> jars;
+  
+  /** the digest lines of the jars, once read */
+  private List<String> jarLines = null;
+  
+  /** binary name &rarr; digest of the class file */
+  private final Map<String, String> hashes = new HashMap<String, String>();
+  
+  /** binary name &rarr; the compiled classes the class refers to */
+  private final Map<String, Set<String>> references = new HashMap<String, Set<String>>();
+  
+  /** test class name &rarr; digest of the class and its dependencies */
+  private final Map<String, String> digests = new HashMap<String, String>();
+  
+  /**
+   * @param classFiles
+   *          the compiled classes, both tests and targets, by their paths
+   *          relative to their class directories, as given by
+   *          {@link com.github.wolfie.bob.action.Compilation#getInputs()}
+   * @param jars
+   *          the jar files on the tests' classpath
+   */
+  JUnitTestImpact(final File file, final Map<String, File> classFiles,
+      final Collection<File> jars) {
+    Util.checkNulls(file, classFiles, jars);
+    this.file = file;
+    this.jars = jars;
+    this.classFiles = new HashMap<String, File>();
+    for (final Map.Entry<String, File> entry : classFiles.entrySet()) {
+      final String path = entry.getKey();
+      if (path.endsWith(CLASS_SUFFIX)) {
+        this.classFiles.put(path.substring(0,
+            path.length() - CLASS_SUFFIX.length()).replace(File.separatorChar,
+            '.'), entry.getValue());
+      }
+    }
+    
+    if (file.exists()) {
+      try {
+        properties.putAll(Util.readProperties(file));
+      } catch (final IOException e) {
+        Log.get().log("Could not read " + file.getAbsolutePath()
+            + ", running all tests: " + e.getMessage(), LogLevel.WARNING);
+      }
+    }
+  }
+  
+  /**
+   * Get the test classes that haven't passed since they, or something they
+   * depend on, last changed.
+   * 
+   * @return the affected classes, in the order given
+   */
+  List<String> getAffected(final List<String> classNames) {
+    final List<String> affected = new ArrayList<String>();
+    for (final String className : classNames) {
+      final String digest = getDigest(className);
+      if (digest == null
+          || !digest.equals(properties.getProperty(className))) {
+        affected.add(className);
+      }
+    }
+    return affected;
+  }
+  
+  /**
+   * Remember that test classes passed, as they were when
+   * {@link #getAffected(List)} was called.
+   */
+  void update(final Collection<String> passedClassNames) {
+    for (final String className : passedClassNames) {
+      final String digest = digests.get(className);
+      if (digest != null) {
+        properties.setProperty(className, digest);
+      }
+    }
+    
+    try {
+      Util.writeProperties(file, properties, "test digests");
+    } catch (final IOException e) {
+      Log.get().log("Could not write " + file.getAbsolutePath() + ": "
+          + e.getMessage(), LogLevel.WARNING);
+    }
+  }
+  
+  /**
+   * @return the digest of the test class, all the compiled classes it
+   *         depends on and the jars, or <code>null</code> if the test class
+   *         isn't among the compiled classes, or some class or jar couldn't
+   *         be read.
+   */
+  private String getDigest(final String className) {
+    if (digests.containsKey(className)) {
+      return digests.get(className);
+    }
+    
+    String digest = null;
+    if (classFiles.containsKey(className)) {
+      try {
+        final Set<String> closure = new HashSet<String>();
+        final LinkedList<String> queue = new LinkedList<String>();
+        closure.add(className);
+        queue.add(className);
+        while (!queue.isEmpty()) {
+          for (final String reference : getReferences(queue.removeFirst())) {
+            if (closure.add(reference)) {
+              queue.add(reference);
+            }
+          }
+        }
+        
+        final List<String> lines = new ArrayList<String>(getJarLines());
+        for (final String dependency : closure) {
+          lines.add(dependency + "=" + hashes.get(dependency));
+        }
+        Collections.sort(lines);
+        digest = Util.getHash(Util.implode("\n", lines));
+      } catch (final IOException e) {
+        Log.get().log("Could not read the dependencies of " + className
+            + ": " + e.getMessage(), LogLevel.DEBUG);
+      }
+    }
+    
+    digests.put(className, digest);
+    return digest;
+  }
+  
+  private List<String> getJarLines() throws IOException {
+    if (jarLines == null) {
+      final List<String> lines = new ArrayList<String>();
+      for (final File jar : jars) {
+        lines.add("jar:" + jar.getPath() + "=" + Util.getContentHash(jar));
+      }
+      jarLines = lines;
+    }
+    return jarLines;
+  }
+  
+  /** Get the compiled classes a compiled class refers to */
+  private Set<String> getReferences(final String className)
+      throws IOException {
+    Set<String> classReferences = references.get(className);
+    if (classReferences == null) {
+      final byte[] bytes = Files.readAllBytes(classFiles.get(className)
+          .toPath());
+      hashes.put(className, Util.getHash(bytes));
+      
+      classReferences = new HashSet<String>();
+      for (final String reference : ClassFileInfo.read(bytes)
+          .getReferencedClassNames()) {
+        if (classFiles.containsKey(reference)) {
+          classReferences.add(reference);
+        }
+      }
+      references.put(className, classReferences);
+    }
+    return classReferences;
+  }
+}
@@ -11,6 +11,7 @@ package com.github.wolfie.bob.action.optional;
  * runtime = [long: run time in milliseconds]
  * failedtests = [string: comma-separated list of failed test_headers in the order of execution]
  * [test_header] = [string: failure_message]
+ * time.[class_name] = [long: run time of the class' tests in milliseconds]
  * </pre>
  */
 class JUnitTestResultConstants {
@@ -21,5 +22,6 @@ class JUnitTestResultConstants {
   static final String TOTAL = "total";
   static final String RUNTIME = "runtime";
   static final String FAILEDTESTS = "failedtests";
+  static final String CLASS_RUNTIME_PREFIX = "time.";
   
 }
@@ -0,0 +1,123 @@
+package com.github.wolfie.bob.action.optional;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * The results of one or more {@link JUnitTestRunner} runs.
+ * 
+ * @see JUnitTestResultConstants
+ */
+class JUnitTestResults {
+  
+  private boolean success = true;
+  private int failed = 0;
+  private int ignored = 0;
+  private int total = 0;
+  private long runtime = 0;
+  
+  /** test header &rarr; failure message, in the order of execution */
+  private final Map<String, String> failures = new LinkedHashMap<String, String>();
+  
+  /** test class name &rarr; run time in milliseconds */
+  private final Map<String, Long> classRuntimes = new HashMap<String, Long>();
+  
+  /**
+   * Get the results of a run.
+   * 
+   * @return the results, or <code>null</code> if <tt>properties</tt> don't
+   *         hold the results of a finished run.
+   */
+  static JUnitTestResults from(final Properties properties) {
+    if (properties.getProperty(JUnitTestResultConstants.SUCCESS) == null) {
+      return null;
+    }
+    
+    final JUnitTestResults results = new JUnitTestResults();
+    results.success = Boolean.parseBoolean(properties
+        .getProperty(JUnitTestResultConstants.SUCCESS));
+    results.failed = Integer.parseInt(properties
+        .getProperty(JUnitTestResultConstants.FAILED));
+    results.ignored = Integer.parseInt(properties
+        .getProperty(JUnitTestResultConstants.IGNORED));
+    results.total = Integer.parseInt(properties
+        .getProperty(JUnitTestResultConstants.TOTAL));
+    results.runtime = Long.parseLong(properties
+        .getProperty(JUnitTestResultConstants.RUNTIME));
+    
+    final String failedTests = properties
+        .getProperty(JUnitTestResultConstants.FAILEDTESTS);
+    if (failedTests != null && !failedTests.isEmpty()) {
+      for (final String header : failedTests.split(",")) {
+        results.failures.put(header, properties.getProperty(header));
+      }
+    }
+    
+    for (final String key : properties.stringPropertyNames()) {
+      if (key.startsWith(JUnitTestResultConstants.CLASS_RUNTIME_PREFIX)) {
+        results.classRuntimes.put(key
+            .substring(JUnitTestResultConstants.CLASS_RUNTIME_PREFIX.length()),
+            Long.valueOf(properties.getProperty(key)));
+      }
+    }
+    return results;
+  }
+  
+  /**
+   * Add the results of another run into these. The run time is the longest
+   * of the two, since the runs are made concurrently.
+   */
+  void add(final JUnitTestResults other) {
+    success &= other.success;
+    failed += other.failed;
+    ignored += other.ignored;
+    total += other.total;
+    runtime = Math.max(runtime, other.runtime);
+    failures.putAll(other.failures);
+    classRuntimes.putAll(other.classRuntimes);
+  }
+  
+  boolean wasSuccessful() {
+    return success;
+  }
+  
+  /** @return test header &rarr; failure message */
+  Map<String, String> getFailures() {
+    return Collections.unmodifiableMap(failures);
+  }
+  
+  /**
+   * Get the names of the test classes with failed tests. A test header is the
+   * name of the test method, followed by the class name in parentheses, or
+   * just the class name when the class as a whole failed.
+   */
+  Set<String> getFailedClassNames() {
+    final Set<String> classNames = new HashSet<String>();
+    for (final String header : failures.keySet()) {
+      final int start = header.lastIndexOf('(');
+      final int end = header.lastIndexOf(')');
+      if (start != -1 && end > start) {
+        classNames.add(header.substring(start + 1, end));
+      } else {
+        classNames.add(header);
+      }
+    }
+    return classNames;
+  }
+  
+  /** @return test class name &rarr; run time in milliseconds */
+  Map<String, Long> getClassRuntimes() {
+    return Collections.unmodifiableMap(classRuntimes);
+  }
+  
+  @Override
+  public String toString() {
+    return String.format("%d tests run, %d failed, %d ignored, in %.1f s",
+        total, failed, ignored, runtime / 1000.0);
+  }
+}
@@ -2,26 +2,47 @@ package com.github.wolfie.bob.action.optional;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import com.github.wolfie.bob.ActionRunner;
+import com.github.wolfie.bob.Bob;
+import com.github.wolfie.bob.CompilationCache;
 import com.github.wolfie.bob.Defaults;
+import com.github.wolfie.bob.Log;
+import com.github.wolfie.bob.Log.LogLevel;
 import com.github.wolfie.bob.Util;
-import com.github.wolfie.bob.action.Action;
 import com.github.wolfie.bob.action.Compilation;
+import com.github.wolfie.bob.action.IncrementalAction;
 import com.github.wolfie.bob.action._revealer;
 import com.github.wolfie.bob.exception.ProcessingError;
 
-public class JUnitTestRun implements Action {
+public class JUnitTestRun implements IncrementalAction {
   
-  private static final String JUNITCORE_CLASSNAME = "org.junit.runner.JUnitCore";
+  static final String JUNITCORE_CLASSNAME = "org.junit.runner.JUnitCore";
   
   private final LinkedHashSet<Class<?>> classesToTest = new LinkedHashSet<Class<?>>();
   private Compilation tests = null;
   private Compilation targets = null;
   
+  /** The number of JVMs to run the tests in, or zero for the default */
+  private int forks = 0;
+  
+  private boolean affectedOnly = true;
+  
   public JUnitTestRun testsFrom(final Compilation compilation) {
     tests = compilation;
     return this;
@@ -32,6 +53,13 @@ public class JUnitTestRun implements Action {
     return this;
   }
   
+  /**
+   * Run only the given test classes. By default, every test class among the
+   * compiled tests is run. They are found by reading the class files, without
+   * loading the classes.
+   * 
+   * @return <code>this</code>
+   */
   public JUnitTestRun run(final Class<?>... classes) {
     for (final Class<?> clazz : classes) {
       classesToTest.add(clazz);
@@ -39,41 +67,311 @@ public class JUnitTestRun implements Action {
     return this;
   }
   
+  /**
+   * Run the tests in <tt>forks</tt> JVMs at once. The test classes are split
+   * between them by how long each class took to run the last time, so that
+   * the JVMs finish at about the same time. By default, there are as many
+   * JVMs as Bob may do things concurrently.
+   * 
+   * @return <code>this</code>
+   * @throws IllegalArgumentException
+   *           if <tt>forks</tt> is less than one
+   */
+  public JUnitTestRun forks(final int forks) {
+    if (forks < 1) {
+      throw new IllegalArgumentException("At least one JVM is needed, not "
+          + forks);
+    }
+    this.forks = forks;
+    return this;
+  }
+  
+  /**
+   * Whether to run only the test classes affected by what has changed since
+   * they last passed, which is the default. A test class is affected when its
+   * class file, or the class file of any compiled test or target class it
+   * refers to, directly or through other classes, has changed. A change in
+   * any jar on the tests' classpath affects all test classes. Classes that
+   * are only loaded by reflection, and resources, aren't followed, so tests
+   * depending on them should be run with <code>affectedOnly(false)</code>.
+   * <p/>
+   * When only a shard of the tests is run, all of its classes are run. What
+   * is affected depends on what each machine has run before, so filtering
+   * would leave the shards uneven.
+   * 
+   * @return <code>this</code>
+   */
+  public JUnitTestRun affectedOnly(final boolean affectedOnly) {
+    this.affectedOnly = affectedOnly;
+    return this;
+  }
+  
   @Override
   public void process() {
     setDefaults();
     
-    if (classesToTest.isEmpty()) {
-      System.err.println("No tests marked to run");
+    ActionRunner.process(tests);
+    
+    final String testsClassPath = _revealer.getDestinationDir(tests)
+        .getAbsolutePath();
+    final JUnitTestTimings timings = new JUnitTestTimings(new File(
+        Defaults.TEST_TIMINGS_PATH));
+    
+    List<String> classNames = getClassNamesToTest();
+    if (classNames.isEmpty()) {
+      System.err.println("No tests to run");
       return;
     }
     
-    tests.process();
+    final int total = classNames.size();
+    final boolean sharded = Bob.getShardCount() > 1;
+    if (sharded) {
+      classNames = getShard(classNames, Bob.getShardIndex(), Bob
+          .getShardCount(), getShardTimings());
+      Log.get().log("Running shard " + Bob.getShardIndex() + "/"
+          + Bob.getShardCount() + ": " + classNames.size() + " of "
+          + total + " test classes", LogLevel.INFO);
+      if (classNames.isEmpty()) {
+        return;
+      }
+    }
+    
+    JUnitTestImpact impact = null;
+    if (affectedOnly) {
+      // a shard is run whole, but its passes are still remembered
+      impact = new JUnitTestImpact(new File(Defaults.TEST_IMPACT_PATH),
+          getClassFiles(), getClassPathJars());
+      if (!sharded) {
+        final int count = classNames.size();
+        classNames = impact.getAffected(classNames);
+        Log.get().log(classNames.size() + " of " + count
+            + " test classes are affected by changes since they last passed",
+            LogLevel.INFO);
+        if (classNames.isEmpty()) {
+          return;
+        }
+      }
+    }
+    
+    final List<List<String>> partitions = timings.partition(classNames, Math
+        .min(classNames.size(), forks > 0 ? forks : Math.max(1, Bob
+            .getJobs())));
+    
+    Log.get().log("Running " + classNames.size() + " test classes in "
+        + partitions.size() + " JVMs", LogLevel.VERBOSE);
     
-    int exitCode = 0;
+    final JUnitTestResults results = new JUnitTestResults();
+    final ExecutorService executor = Executors.newFixedThreadPool(partitions
+        .size());
     try {
-      final String testsClassPath = _revealer.getDestinationDir(tests)
-          .getAbsolutePath();
+      final List<Future<JUnitTestResults>> futures = new ArrayList<Future<JUnitTestResults>>();
+      for (final List<String> partition : partitions) {
+        futures.add(executor.submit(new Callable<JUnitTestResults>() {
+          @Override
+          public JUnitTestResults call() throws IOException {
+            return runTests(testsClassPath, partition);
+          }
+        }));
+      }
       
-      exitCode = new JavaLauncher(JUnitTestRunner.class)
-          .ensureClassCanBeLoaded(JUNITCORE_CLASSNAME)
-          .userProvidedForcedClassPath(
-              testsClassPath)
-          .addAppArg(File.createTempFile("bobJUnitResults", ".properties")
-                  .getAbsolutePath())
-          .addAppArgs(getClassNamesToTest())
-          .run();
-    } catch (final Exception e) {
-      e.printStackTrace();
+      for (final Future<JUnitTestResults> future : futures) {
+        results.add(future.get());
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
       throw new ProcessingError(e);
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof ProcessingError) {
+        throw (ProcessingError) e.getCause();
+      }
+      throw new ProcessingError(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    
+    timings.update(results.getClassRuntimes());
+    if (impact != null) {
+      final List<String> passed = new ArrayList<String>(classNames);
+      passed.removeAll(results.getFailedClassNames());
+      impact.update(passed);
     }
     
-    if (exitCode != 0) {
-      throw new ProcessingError("thread didn't exit properly");
+    Log.get().log(results.toString(), LogLevel.INFO);
+    for (final String failedTest : results.getFailures().keySet()) {
+      Log.get().log("Failed: " + failedTest, LogLevel.SEVERE);
+    }
+    
+    if (!results.wasSuccessful()) {
+      throw new ProcessingError(results.getFailures().size()
+          + " test(s) failed");
+    }
+  }
+  
+  /** Run some of the test classes in a worker JVM */
+  private static JUnitTestResults runTests(final String testsClassPath,
+      final List<String> classNames) throws IOException {
+    final JUnitTestResults results = JUnitTestWorkers.run(testsClassPath,
+        classNames);
+    if (results == null) {
+      throw new ProcessingError("The JVM running "
+          + Util.implode(", ", classNames) + " didn't exit properly");
     }
+    return results;
   }
   
-  private Collection<String> getClassNamesToTest() {
+  /**
+   * Get the compiled tests and targets, the test classes to run, and the jars
+   * on the tests' classpath. Once the tests have passed, they aren't run again
+   * until one of these changes.
+   */
+  @Override
+  public Map<String, File> getInputs() {
+    setDefaults();
+    
+    final Map<String, File> inputs = new HashMap<String, File>();
+    for (final Map.Entry<String, File> entry : tests.getInputs().entrySet()) {
+      inputs.put("tests/" + entry.getKey(), entry.getValue());
+    }
+    if (_revealer.isCompiled(targets)) {
+      for (final Map.Entry<String, File> entry : targets.getInputs()
+          .entrySet()) {
+        inputs.put("targets/" + entry.getKey(), entry.getValue());
+      }
+    }
+    for (final Class<?> clazz : classesToTest) {
+      final File classFile = getClassFile(clazz);
+      if (classFile != null) {
+        inputs.put("run/" + clazz.getName(), classFile);
+      }
+    }
+    for (final File jar : getClassPathJars()) {
+      inputs.put("classpath/" + jar.getPath(), jar);
+    }
+    if (Bob.getShardCount() > 1 && Bob.getShardTimings() != null
+        && Bob.getShardTimings().isFile()) {
+      inputs.put("shard-timings", Bob.getShardTimings());
+    }
+    return inputs;
+  }
+  
+  /** A test run doesn't write anything */
+  @Override
+  public File getOutput() {
+    return null;
+  }
+  
+  @Override
+  public Set<String> getWrittenFiles() {
+    return Collections.emptySet();
+  }
+  
+  /**
+   * Get the test classes of one shard. Given timings, the classes are split
+   * into shards that take about as long to run, as by
+   * {@link JUnitTestTimings#partition(List, int)}. Without them, a class is put
+   * in a shard by a digest of its name alone, and the shards have about as
+   * many classes each, but not necessarily as much to run. Either way, every
+   * machine running a shard of the same classes puts each class in the same
+   * one, as long as all of them are given the same timings.
+   * 
+   * @param index
+   *          the shard, from 1 up to <tt>count</tt>
+   * @param timings
+   *          the timings shared by all the machines, or <code>null</code> to
+   *          split by name
+   */
+  static List<String> getShard(final List<String> classNames,
+      final int index, final int count, final JUnitTestTimings timings) {
+    if (timings != null) {
+      return timings.partition(classNames, count).get(index - 1);
+    }
+    
+    final List<String> shard = new ArrayList<String>();
+    for (final String className : classNames) {
+      final long digest = Long.parseLong(Util.getHash(className).substring(0,
+          8), 16);
+      if (digest % count == index - 1) {
+        shard.add(className);
+      }
+    }
+    return shard;
+  }
+  
+  /**
+   * Get the timings given to split the shards by.
+   * 
+   * @return the timings, or <code>null</code> if none were given
+   */
+  private static JUnitTestTimings getShardTimings() {
+    final File file = Bob.getShardTimings();
+    if (file == null) {
+      return null;
+    } else if (!file.isFile()) {
+      Log.get().log(file.getPath() + " doesn't exist, splitting the shards "
+          + "as if all test classes took as long to run", LogLevel.WARNING);
+    }
+    return new JUnitTestTimings(file);
+  }
+  
+  /** Another shard runs other tests */
+  @Override
+  public String getSettings() {
+    return "shard=" + Bob.getShardIndex() + "/" + Bob.getShardCount()
+        + ";affectedOnly=" + affectedOnly;
+  }
+  
+  /**
+   * Get the compiled targets and tests, by their paths relative to their
+   * class directories.
+   */
+  private Map<String, File> getClassFiles() {
+    final Map<String, File> classFiles = new HashMap<String, File>();
+    if (_revealer.isCompiled(targets)) {
+      classFiles.putAll(targets.getInputs());
+    }
+    classFiles.putAll(tests.getInputs());
+    return classFiles;
+  }
+  
+  /**
+   * Get the jar files on the tests' classpath: the ones the project is
+   * compiled against, and the ones the test JVMs are started with, such as
+   * JUnit's.
+   */
+  private static Set<File> getClassPathJars() {
+    final Set<File> jars = new HashSet<File>(CompilationCache.get().getJars());
+    for (final String jar : JUnitTestWorkers.getLauncher()
+        .getJarsToAddToClasspath()) {
+      jars.add(new File(jar));
+    }
+    return jars;
+  }
+  
+  /**
+   * @return the file the class was loaded from, or <code>null</code> if it
+   *         wasn't loaded from a file of its own.
+   */
+  private static File getClassFile(final Class<?> clazz) {
+    final URL url = clazz.getResource(clazz.getName().substring(
+        clazz.getName().lastIndexOf('.') + 1)
+        + ".class");
+    if (url == null || !"file".equals(url.getProtocol())) {
+      return null;
+    }
+    
+    try {
+      return new File(url.toURI());
+    } catch (final URISyntaxException e) {
+      return null;
+    }
+  }
+  
+  private List<String> getClassNamesToTest() {
+    if (classesToTest.isEmpty()) {
+      return JUnitTestDiscovery.findTestClasses(new File(
+          Defaults.TEST_CLASSES_PATH), tests.getInputs().values());
+    }
+    
     final List<String> names = new ArrayList<String>();
     for (final Class<?> clazz : classesToTest) {
       names.add(clazz.getName());
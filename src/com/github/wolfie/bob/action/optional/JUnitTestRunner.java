@@ -28,24 +28,59 @@ class JUnitTestRunner {
     verifyResultsFileExists();
     
     final Class<?>[] classesToTest = getClassesToTestFromArgs(args);
+    final Properties properties = runTests(classesToTest);
     
+    final FileWriter writer = new FileWriter(resultsFile);
+    try {
+      properties.store(writer, null);
+    } finally {
+      writer.close();
+    }
+    
+    System.out.println(properties);
+    
+    if (!Boolean.parseBoolean(properties
+        .getProperty(JUnitTestResultConstants.SUCCESS))) {
+      System.exit(1);
+    }
+  }
+  
+  /**
+   * Run the tests of some classes.
+   * 
+   * @return the results, as described in {@link JUnitTestResultConstants}
+   */
+  static Properties runTests(final Class<?>[] classesToTest) {
     final Properties properties = new Properties();
-    final Result results = JUnitCore.runClasses(classesToTest);
+    
+    // the classes are run one by one, to know how long each one takes
+    final JUnitCore core = new JUnitCore();
+    final List<Failure> failures = new ArrayList<Failure>();
+    int runCount = 0;
+    int ignoreCount = 0;
+    long runTime = 0;
+    for (final Class<?> classToTest : classesToTest) {
+      final Result result = core.run(classToTest);
+      failures.addAll(result.getFailures());
+      runCount += result.getRunCount();
+      ignoreCount += result.getIgnoreCount();
+      runTime += result.getRunTime();
+      properties.setProperty(JUnitTestResultConstants.CLASS_RUNTIME_PREFIX
+          + classToTest.getName(), String.valueOf(result.getRunTime()));
+    }
     
     properties.setProperty(JUnitTestResultConstants.SUCCESS,
-        String.valueOf(results.wasSuccessful()));
+        String.valueOf(failures.isEmpty()));
     properties.setProperty(JUnitTestResultConstants.FAILED,
-        String.valueOf(results.getFailureCount()));
+        String.valueOf(failures.size()));
     properties.setProperty(JUnitTestResultConstants.IGNORED,
-        String.valueOf(results.getIgnoreCount()));
+        String.valueOf(ignoreCount));
     properties.setProperty(JUnitTestResultConstants.TOTAL,
-        String.valueOf(results.getRunCount()));
+        String.valueOf(runCount));
     properties.setProperty(JUnitTestResultConstants.RUNTIME,
-        String.valueOf(results.getRunTime()));
+        String.valueOf(runTime));
     
-    final List<String> testHeaders = new ArrayList<String>(results
-        .getFailureCount());
-    final List<Failure> failures = results.getFailures();
+    final List<String> testHeaders = new ArrayList<String>(failures.size());
     for (final Failure failure : failures) {
       properties.put(failure.getTestHeader(), failure.getTrace());
       testHeaders.add(failure.getTestHeader());
@@ -53,19 +88,7 @@ class JUnitTestRunner {
     
     properties.setProperty(JUnitTestResultConstants.FAILEDTESTS,
         Util.implode(",", testHeaders));
-    
-    final FileWriter writer = new FileWriter(resultsFile);
-    try {
-      properties.store(writer, null);
-    } finally {
-      writer.close();
-    }
-    
-    System.out.println(properties);
-    
-    if (!results.wasSuccessful()) {
-      System.exit(1);
-    }
+    return properties;
   }
   
   private static File getResultsFileFromArgs(final String[] args) {
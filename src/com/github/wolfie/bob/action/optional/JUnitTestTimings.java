@@ -0,0 +1,133 @@
+package com.github.wolfie.bob.action.optional;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.github.wolfie.bob.Log;
+import com.github.wolfie.bob.Log.LogLevel;
+import com.github.wolfie.bob.Util;
+
+/**
+ * How long each test class took to run the last time it was run, and the
+ * splitting of test classes into groups that take about as long to run.
+ * <p/>
+ * The timings are kept in a properties file of class name &rarr; milliseconds.
+ */
+class JUnitTestTimings {
+  
+  /** How long a class is expected to take when nothing is known */
+  private static final long DEFAULT_RUNTIME_MILLIS = 1000;
+  
+  private final File file;
+  private final Properties properties = new Properties();
+  
+  JUnitTestTimings(final File file) {
+    Util.checkNulls(file);
+    this.file = file;
+    
+    if (file.exists()) {
+      try {
+        properties.putAll(Util.readProperties(file));
+      } catch (final IOException e) {
+        Log.get().log("Could not read " + file.getAbsolutePath()
+            + ", splitting tests without timings: " + e.getMessage(),
+            LogLevel.WARNING);
+      }
+    }
+  }
+  
+  /**
+   * Split the test classes into <tt>count</tt> groups that take about as
+   * long to run. The classes are handed out longest first, each to the group
+   * that has the least to run so far. A class without a timing is expected to
+   * take as long as the average class with one.
+   * <p/>
+   * The groups depend only on the class names and the timings, so machines
+   * given the same timings file split the same classes the same way.
+   * 
+   * @return <tt>count</tt> groups of class names, some of which are empty if
+   *         there are fewer classes than groups
+   */
+  List<List<String>> partition(final List<String> classNames, final int count) {
+    final Map<String, Long> estimates = getEstimates(classNames);
+    
+    final List<String> longestFirst = new ArrayList<String>(classNames);
+    Collections.sort(longestFirst, new Comparator<String>() {
+      @Override
+      public int compare(final String o1, final String o2) {
+        final int byTime = estimates.get(o2).compareTo(estimates.get(o1));
+        return byTime != 0 ? byTime : o1.compareTo(o2);
+      }
+    });
+    
+    final List<List<String>> groups = new ArrayList<List<String>>();
+    final long[] totals = new long[count];
+    for (int i = 0; i < count; i++) {
+      groups.add(new ArrayList<String>());
+    }
+    for (final String className : longestFirst) {
+      int shortest = 0;
+      for (int i = 1; i < count; i++) {
+        if (totals[i] < totals[shortest]) {
+          shortest = i;
+        }
+      }
+      groups.get(shortest).add(className);
+      totals[shortest] += estimates.get(className);
+    }
+    return groups;
+  }
+  
+  private Map<String, Long> getEstimates(final List<String> classNames) {
+    final Map<String, Long> known = new HashMap<String, Long>();
+    long knownTotal = 0;
+    for (final String className : classNames) {
+      final String value = properties.getProperty(className);
+      if (value != null) {
+        try {
+          final long runtime = Long.parseLong(value);
+          known.put(className, runtime);
+          knownTotal += runtime;
+        } catch (final NumberFormatException e) {
+          // treated as unknown
+        }
+      }
+    }
+    
+    final long unknownEstimate = known.isEmpty() ? DEFAULT_RUNTIME_MILLIS
+        : knownTotal / known.size();
+    final Map<String, Long> estimates = new HashMap<String, Long>();
+    for (final String className : classNames) {
+      final Long runtime = known.get(className);
+      estimates.put(className, runtime != null ? runtime : unknownEstimate);
+    }
+    return estimates;
+  }
+  
+  /**
+   * Remember new timings, keeping the ones of the classes that weren't run.
+   * 
+   * @param classRuntimes
+   *          class name &rarr; run time in milliseconds
+   */
+  void update(final Map<String, Long> classRuntimes) {
+    for (final Map.Entry<String, Long> entry : classRuntimes.entrySet()) {
+      properties.setProperty(entry.getKey(), String.valueOf(entry
+          .getValue()));
+    }
+    
+    try {
+      Util.writeProperties(file, properties, "test timings");
+    } catch (final IOException e) {
+      Log.get().log("Could not write " + file.getAbsolutePath() + ": "
+          + e.getMessage(), LogLevel.WARNING);
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package com.github.wolfie.bob.action.optional;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A Java executable that stays running, and runs one batch of JUnit tests
+ * after another, so that JUnit and the JIT stay warm between test runs.
+ * <p/>
+ * The batches are read from the standard input. Each one is a classpath and
+ * the test classes to run from it, which are loaded into a class loader of
+ * their own, so that every batch sees the classes as they are at the time.
+ * Everything the tests print, and finally the results of the batch, are sent
+ * back through the standard output, in frames of a type byte, a length and
+ * that many bytes. The worker exits once its standard input is closed.
+ * 
+ * @see JUnitTestWorkers
+ */
+class JUnitTestWorker {
+  
+  static final int OUT_FRAME = 1;
+  static final int ERR_FRAME = 2;
+  
+  /** The results of a batch, as a properties file. Always the last frame. */
+  static final int RESULTS_FRAME = 3;
+  
+  /** Sends everything written to it back, in frames of the given type */
+  private static class FrameOutputStream extends OutputStream {
+    private final DataOutputStream out;
+    private final int frameType;
+    
+    public FrameOutputStream(final DataOutputStream out, final int frameType) {
+      this.out = out;
+      this.frameType = frameType;
+    }
+    
+    @Override
+    public void write(final int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+    
+    @Override
+    public void write(final byte[] b, final int off, final int len)
+        throws IOException {
+      writeFrame(out, frameType, b, off, len);
+    }
+    
+    @Override
+    public void flush() throws IOException {
+      synchronized (out) {
+        out.flush();
+      }
+    }
+  }
+  
+  public static void main(final String[] args) throws Exception {
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(FileDescriptor.in)));
+    final DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+    
+    System.setOut(new PrintStream(new FrameOutputStream(out, OUT_FRAME), true));
+    System.setErr(new PrintStream(new FrameOutputStream(out, ERR_FRAME), true));
+    
+    while (true) {
+      final List<String> classPath;
+      final List<String> classNames;
+      try {
+        classPath = readStrings(in);
+        classNames = readStrings(in);
+      } catch (final EOFException e) {
+        return;
+      }
+      
+      final Properties properties;
+      try {
+        properties = runBatch(classPath, classNames);
+      } catch (final IOException e) {
+        // sent back before the worker exits
+        e.printStackTrace();
+        throw e;
+      }
+      
+      final ByteArrayOutputStream results = new ByteArrayOutputStream();
+      properties.store(results, null);
+      System.out.flush();
+      System.err.flush();
+      writeFrame(out, RESULTS_FRAME, results.toByteArray(), 0, results.size());
+      synchronized (out) {
+        out.flush();
+      }
+    }
+  }
+  
+  private static Properties runBatch(final List<String> classPath,
+      final List<String> classNames) throws IOException {
+    final URL[] urls = new URL[classPath.size()];
+    for (int i = 0; i < urls.length; i++) {
+      urls[i] = new File(classPath.get(i)).toURI().toURL();
+    }
+    
+    final URLClassLoader classLoader = new URLClassLoader(urls,
+        JUnitTestWorker.class.getClassLoader());
+    final Thread thread = Thread.currentThread();
+    final ClassLoader originalContextClassLoader = thread
+        .getContextClassLoader();
+    thread.setContextClassLoader(classLoader);
+    try {
+      final Class<?>[] classesToTest = new Class<?>[classNames.size()];
+      for (int i = 0; i < classesToTest.length; i++) {
+        try {
+          classesToTest[i] = Class.forName(classNames.get(i), true,
+              classLoader);
+        } catch (final ClassNotFoundException e) {
+          throw new IOException("Could not load " + classNames.get(i), e);
+        }
+      }
+      return JUnitTestRunner.runTests(classesToTest);
+    } finally {
+      thread.setContextClassLoader(originalContextClassLoader);
+      classLoader.close();
+    }
+  }
+  
+  static void writeStrings(final DataOutputStream out,
+      final List<String> strings) throws IOException {
+    out.writeInt(strings.size());
+    for (final String string : strings) {
+      out.writeUTF(string);
+    }
+  }
+  
+  static List<String> readStrings(final DataInputStream in)
+      throws IOException {
+    final int count = in.readInt();
+    final List<String> strings = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      strings.add(in.readUTF());
+    }
+    return strings;
+  }
+  
+  private static void writeFrame(final DataOutputStream out,
+      final int frameType, final byte[] b, final int off, final int len)
+      throws IOException {
+    synchronized (out) {
+      out.writeByte(frameType);
+      out.writeInt(len);
+      out.write(b, off, len);
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package com.github.wolfie.bob.action.optional;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import com.github.wolfie.bob.Log;
+import com.github.wolfie.bob.Log.LogLevel;
+
+/**
+ * The {@link JUnitTestWorker} processes tests are run in.
+ * <p/>
+ * A worker is put back into the pool once it has run its batch, and is given
+ * the next batch that comes, for as long as this JVM runs. In the daemon and
+ * in watch mode, that means that only the first test run pays for starting
+ * the JVMs and warming them up. A worker that exits while running its batch,
+ * for example because a test calls {@link System#exit(int)}, is forgotten.
+ */
+final class JUnitTestWorkers {
+  
+  private static final class Worker {
+    /** How the worker was started, to tell apart differently started ones */
+    private final String command;
+    private final Process process;
+    private final DataOutputStream toWorker;
+    private final DataInputStream fromWorker;
+    
+    private Worker(final JavaLauncher launcher) throws IOException {
+      command = launcher.toString();
+      process = launcher.start();
+      toWorker = new DataOutputStream(new BufferedOutputStream(process
+          .getOutputStream()));
+      fromWorker = new DataInputStream(new BufferedInputStream(process
+          .getInputStream()));
+      
+      // whatever the JVM itself has to say, like why it crashed
+      final InputStream errorStream = process.getErrorStream();
+      final Thread errorPump = new Thread("Test worker error pump") {
+        @Override
+        public void run() {
+          try {
+            final byte[] buffer = new byte[1024];
+            int count;
+            while ((count = errorStream.read(buffer)) != -1) {
+              System.err.write(buffer, 0, count);
+            }
+          } catch (final IOException e) {
+            // the worker is gone
+          }
+        }
+      };
+      errorPump.setDaemon(true);
+      errorPump.start();
+    }
+    
+    /**
+     * @return the results, or <code>null</code> if the worker exited before
+     *         finishing the batch
+     */
+    private JUnitTestResults run(final List<String> classPath,
+        final List<String> classNames) throws IOException {
+      try {
+        JUnitTestWorker.writeStrings(toWorker, classPath);
+        JUnitTestWorker.writeStrings(toWorker, classNames);
+        toWorker.flush();
+        
+        while (true) {
+          final int frameType = fromWorker.readByte();
+          final byte[] bytes = new byte[fromWorker.readInt()];
+          fromWorker.readFully(bytes);
+          
+          switch (frameType) {
+          case JUnitTestWorker.OUT_FRAME:
+            System.out.write(bytes);
+            System.out.flush();
+            break;
+          case JUnitTestWorker.ERR_FRAME:
+            System.err.write(bytes);
+            System.err.flush();
+            break;
+          case JUnitTestWorker.RESULTS_FRAME:
+            final Properties properties = new Properties();
+            properties.load(new ByteArrayInputStream(bytes));
+            return JUnitTestResults.from(properties);
+          default:
+            throw new IOException("Unknown frame type " + frameType
+                + " from a test worker");
+          }
+        }
+      } catch (final EOFException e) {
+        return null;
+      }
+    }
+    
+    private boolean isRunning() {
+      try {
+        process.exitValue();
+        return false;
+      } catch (final IllegalThreadStateException e) {
+        return true;
+      }
+    }
+  }
+  
+  private static final List<Worker> idleWorkers = new ArrayList<Worker>();
+  private static boolean shutdownHookAdded = false;
+  
+  private JUnitTestWorkers() {
+  }
+  
+  /**
+   * Run test classes in a worker.
+   * 
+   * @return the results, or <code>null</code> if the worker exited before
+   *         finishing.
+   */
+  static JUnitTestResults run(final String testsClassPath,
+      final List<String> classNames) throws IOException {
+    final Worker worker = acquire(getLauncher());
+    JUnitTestResults results = null;
+    try {
+      results = worker.run(Collections.singletonList(testsClassPath),
+          classNames);
+      return results;
+    } finally {
+      if (results != null) {
+        release(worker);
+      } else {
+        worker.process.destroy();
+      }
+    }
+  }
+  
+  /** Get the launcher of the worker JVMs */
+  static JavaLauncher getLauncher() {
+    return new JavaLauncher(JUnitTestWorker.class)
+        .ensureClassCanBeLoaded(JUnitTestRun.JUNITCORE_CLASSNAME);
+  }
+  
+  private static Worker acquire(final JavaLauncher launcher)
+      throws IOException {
+    final String command = launcher.toString();
+    synchronized (idleWorkers) {
+      for (final Iterator<Worker> i = idleWorkers.iterator(); i.hasNext();) {
+        final Worker worker = i.next();
+        if (!worker.isRunning()) {
+          i.remove();
+        } else if (worker.command.equals(command)) {
+          i.remove();
+          Log.get().log("Reusing a test worker", LogLevel.DEBUG);
+          return worker;
+        }
+      }
+      
+      if (!shutdownHookAdded) {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+          @Override
+          public void run() {
+            synchronized (idleWorkers) {
+              for (final Worker worker : idleWorkers) {
+                worker.process.destroy();
+              }
+            }
+          }
+        });
+        shutdownHookAdded = true;
+      }
+    }
+    
+    Log.get().log("Starting a test worker", LogLevel.DEBUG);
+    return new Worker(launcher);
+  }
+  
+  private static void release(final Worker worker) {
+    synchronized (idleWorkers) {
+      idleWorkers.add(worker);
+    }
+  }
+}
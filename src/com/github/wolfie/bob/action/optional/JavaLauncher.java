@@ -110,13 +110,7 @@ public class JavaLauncher {
   }
   
   public int run() throws IOException {
-    final String[] cmd = getCommands();
-    
-    for (final String string : cmd) {
-      Log.get().log(string, LogLevel.DEBUG);
-    }
-    
-    final Process process = Runtime.getRuntime().exec(cmd, null, null);
+    final Process process = start();
     final PumpStreamHandler streamHandler = setupPumpStreamHandler(process);
     
     try {
@@ -130,6 +124,20 @@ public class JavaLauncher {
     return process.exitValue();
   }
   
+  /**
+   * Start the java code, without waiting for it to finish. The caller is
+   * responsible for the streams of the returned process.
+   */
+  public Process start() throws IOException {
+    final String[] cmd = getCommands();
+    
+    for (final String string : cmd) {
+      Log.get().log(string, LogLevel.DEBUG);
+    }
+    
+    return Runtime.getRuntime().exec(cmd, null, null);
+  }
+  
   private PumpStreamHandler setupPumpStreamHandler(final Process process) {
     final PumpStreamHandler streamHandler = new PumpStreamHandler();
     streamHandler.setProcessErrorStream(process.getErrorStream());
@@ -181,7 +189,8 @@ public class JavaLauncher {
     return Util.implode(CLASSPATH_SEPARATOR, classPath);
   }
   
-  private Set<String> getJarsToAddToClasspath() {
+  /** Get the jar files that are put into the launched JVM's classpath */
+  Set<String> getJarsToAddToClasspath() {
     final Set<String> jarsToAddToClasspath = new HashSet<String>();
     final Set<String> classesUnableToLoad = new HashSet<String>();
     
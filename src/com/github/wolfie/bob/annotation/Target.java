@@ -8,4 +8,11 @@ import java.lang.annotation.RetentionPolicy;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Target {
   boolean defaultTarget() default false;
+  
+  /**
+   * The names of the targets that need to be built before this one. Targets
+   * that don't depend on each other may be built concurrently, and a target
+   * that several others depend on is built only once.
+   */
+  String[] dependsOn() default {};
 }
@@ -0,0 +1,161 @@
+package com.github.wolfie.bob;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.wolfie.bob.action.IncrementalAction;
+
+public class ActionFingerprintsTest {
+  
+  private static class FileCopy implements IncrementalAction {
+    private final File input;
+    private final File output;
+    private final Set<String> writtenFiles;
+    
+    public FileCopy(final File input, final File output) {
+      this(input, output, Collections.<String> emptySet());
+    }
+    
+    public FileCopy(final File input, final File output,
+        final Set<String> writtenFiles) {
+      this.input = input;
+      this.output = output;
+      this.writtenFiles = writtenFiles;
+    }
+    
+    @Override
+    public void process() {
+    }
+    
+    @Override
+    public Map<String, File> getInputs() {
+      return Collections.singletonMap("input", input);
+    }
+    
+    @Override
+    public File getOutput() {
+      return output;
+    }
+    
+    @Override
+    public Set<String> getWrittenFiles() {
+      return writtenFiles;
+    }
+    
+    @Override
+    public String getSettings() {
+      return "";
+    }
+  }
+  
+  private File dir;
+  private File input;
+  private File output;
+  private File fingerprintsFile;
+  
+  @Before
+  public void setUp() throws IOException {
+    // not from Util.getTemporaryDirectory(), since fingerprints aren't
+    // remembered for outputs in there
+    dir = File.createTempFile("fingerprints", "");
+    assertTrue(dir.delete() && dir.mkdir());
+    input = new File(dir, "input");
+    output = new File(dir, "output");
+    fingerprintsFile = new File(dir, "actions.properties");
+    write(input, "input");
+    write(output, "output");
+  }
+  
+  @After
+  public void tearDown() {
+    Util.delete(dir);
+  }
+  
+  private static void write(final File file, final String contents)
+      throws IOException {
+    final FileWriter writer = new FileWriter(file);
+    try {
+      writer.write(contents);
+    } finally {
+      writer.close();
+    }
+  }
+  
+  private boolean isUpToDate(final IncrementalAction action)
+      throws IOException {
+    return new ActionFingerprints(fingerprintsFile).isUpToDate(action,
+        ActionFingerprints.getFingerprint(action));
+  }
+  
+  private void remember(final IncrementalAction action) throws IOException {
+    new ActionFingerprints(fingerprintsFile).remember(action,
+        ActionFingerprints.getFingerprint(action));
+  }
+  
+  @Test
+  public void unchangedInputsAreUpToDate() throws IOException {
+    final FileCopy action = new FileCopy(input, output);
+    assertFalse(isUpToDate(action));
+    remember(action);
+    assertTrue(isUpToDate(action));
+  }
+  
+  @Test
+  public void changedInputIsNotUpToDate() throws IOException {
+    final FileCopy action = new FileCopy(input, output);
+    remember(action);
+    write(input, "changed");
+    assertFalse(isUpToDate(action));
+  }
+  
+  @Test
+  public void outputDirectoryIsUpToDateWhenWrittenInto() throws IOException {
+    final File outputDir = new File(dir, "outputDir");
+    assertTrue(outputDir.mkdir());
+    final FileCopy action = new FileCopy(input, outputDir);
+    remember(action);
+    
+    // another action writes next to this one's output
+    write(new File(outputDir, "other"), "other");
+    assertTrue(isUpToDate(action));
+    
+    Util.delete(outputDir);
+    assertFalse(isUpToDate(action));
+  }
+  
+  @Test
+  public void deletedFileInOutputDirectoryIsNotUpToDate() throws IOException {
+    final File outputDir = new File(dir, "outputDir");
+    assertTrue(new File(outputDir, "p").mkdirs());
+    write(new File(outputDir, "p/A.class"), "A");
+    write(new File(outputDir, "p/B.class"), "B");
+    final FileCopy action = new FileCopy(input, outputDir, new HashSet<String>(
+        Arrays.asList("p/A.class", "p/B.class")));
+    remember(action);
+    assertTrue(isUpToDate(action));
+    
+    assertTrue(new File(outputDir, "p/B.class").delete());
+    assertFalse(isUpToDate(action));
+  }
+  
+  @Test
+  public void deletedOutputIsNotUpToDate() throws IOException {
+    final FileCopy action = new FileCopy(input, output);
+    remember(action);
+    assertTrue(output.delete());
+    assertFalse(isUpToDate(action));
+  }
+}
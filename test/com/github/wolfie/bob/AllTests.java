@@ -4,7 +4,17 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import com.github.wolfie.bob.action.JarWriterTest;
+import com.github.wolfie.bob.action.optional.JUnitTestImpactTest;
+import com.github.wolfie.bob.action.optional.JUnitTestRunTest;
+import com.github.wolfie.bob.action.optional.JUnitTestTimingsTest;
+
 @RunWith(Suite.class)
-@SuiteClasses({ UtilTest.class })
+@SuiteClasses({ UtilTest.class, ClassFileInfoTest.class,
+    ModuleSchedulerTest.class, TargetExecutorTest.class,
+    ActionFingerprintsTest.class, BuildCacheTest.class, JarWriterTest.class,
+    InMemoryJavaFileManagerTest.class, FileStateIndexTest.class,
+    JUnitTestTimingsTest.class, JUnitTestImpactTest.class,
+    ProjectCompilerTest.class, JUnitTestRunTest.class })
 public class AllTests {
 }
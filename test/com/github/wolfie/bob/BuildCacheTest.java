@@ -0,0 +1,69 @@
+package com.github.wolfie.bob;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BuildCacheTest {
+  
+  private static final String KEY = "0123456789abcdef";
+  
+  private File dir;
+  private File file;
+  
+  @Before
+  public void setUp() throws IOException {
+    dir = Util.getTemporaryDirectory();
+    file = new File(dir, "file");
+    final FileWriter writer = new FileWriter(file);
+    try {
+      writer.write("contents");
+    } finally {
+      writer.close();
+    }
+  }
+  
+  @After
+  public void tearDown() {
+    Util.delete(dir);
+  }
+  
+  @Test
+  public void storedEntryIsFound() throws IOException {
+    final BuildCache cache = new BuildCache(new File(dir, "local"), null);
+    assertNull(cache.get(KEY));
+    
+    cache.put(KEY, Collections.singletonMap("a/b", file));
+    final File entry = cache.get(KEY);
+    assertNotNull(entry);
+    assertEquals(Util.getContentHash(file), Util.getContentHash(new File(
+        entry, "a/b")));
+  }
+  
+  @Test
+  public void entryIsFetchedFromRemote() throws IOException {
+    final File remoteDir = new File(dir, "remote");
+    new BuildCache(new File(dir, "other"), remoteDir).put(KEY, Collections
+        .singletonMap("a", file));
+    
+    final File localDir = new File(dir, "local");
+    final File entry = new BuildCache(localDir, remoteDir).get(KEY);
+    assertEquals(new File(localDir, KEY), entry);
+    assertTrue(new File(entry, "a").isFile());
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void keyMustBeHexadecimal() throws IOException {
+    new BuildCache(new File(dir, "local"), null).get("../etc");
+  }
+}
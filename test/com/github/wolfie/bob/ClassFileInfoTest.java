@@ -0,0 +1,97 @@
+package com.github.wolfie.bob;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class ClassFileInfoTest {
+  
+  private static ClassFileInfo read(final Class<?> clazz) throws IOException {
+    final String resourceName = clazz.getName().replace('.', '/') + ".class";
+    final InputStream in = clazz.getClassLoader().getResourceAsStream(
+        resourceName);
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[1024];
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        out.write(buffer, 0, count);
+      }
+      return ClassFileInfo.read(out.toByteArray());
+    } finally {
+      in.close();
+    }
+  }
+  
+  @Test(expected = IOException.class)
+  public void testReadNotAClassFile() throws IOException {
+    ClassFileInfo.read(new byte[] { 1, 2, 3, 4 });
+  }
+  
+  @Test
+  public void testClassName() throws IOException {
+    assertEquals(Tuple.class.getName(), read(Tuple.class).getClassName());
+  }
+  
+  @Test
+  public void testNestedClassName() throws IOException {
+    assertEquals(Log.LogLevel.class.getName(), read(Log.LogLevel.class)
+        .getClassName());
+  }
+  
+  @Test
+  public void testSuperClassName() throws IOException {
+    assertEquals(Enum.class.getName(), read(Log.LogLevel.class)
+        .getSuperClassName());
+  }
+  
+  @Test
+  public void testMethodAnnotationNames() throws IOException {
+    assertTrue(read(ClassFileInfoTest.class).getMethodAnnotationNames()
+        .contains(Test.class.getName()));
+    assertTrue(read(Tuple.class).getMethodAnnotationNames().isEmpty());
+  }
+  
+  @Test
+  public void testReferencesFromCode() throws IOException {
+    assertTrue(read(UtilTest.class).getReferencedClassNames().contains(
+        Util.class.getName()));
+  }
+  
+  @Test
+  public void testReferencesFromAnnotations() throws IOException {
+    assertTrue(read(UtilTest.class).getReferencedClassNames().contains(
+        Test.class.getName()));
+  }
+  
+  @Test
+  public void testReferencesFromDescriptors() throws IOException {
+    // from the descriptor of Util.copy(Iterable, File, File)
+    assertTrue(read(Util.class).getReferencedClassNames().contains(
+        Iterable.class.getName()));
+  }
+  
+  @Test
+  public void testReferencesExcludeSelf() throws IOException {
+    assertFalse(read(Tuple.class).getReferencedClassNames().contains(
+        Tuple.class.getName()));
+  }
+  
+  @Test
+  public void testConstantsFingerprint() throws IOException {
+    assertNotNull(read(Defaults.class).getConstantsFingerprint());
+  }
+  
+  @Test
+  public void testNoConstantsFingerprint() throws IOException {
+    assertNull(read(Tuple.class).getConstantsFingerprint());
+  }
+}
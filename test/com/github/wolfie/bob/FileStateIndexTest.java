@@ -0,0 +1,96 @@
+package com.github.wolfie.bob;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileStateIndexTest {
+  
+  /** Long enough ago not to be racy */
+  private static final long PAST = System.currentTimeMillis() - 60000;
+  
+  private File dir;
+  private File indexFile;
+  
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("bob-index-test").toFile();
+    indexFile = new File(dir, "index");
+  }
+  
+  @After
+  public void tearDown() {
+    Util.delete(dir);
+  }
+  
+  @Test
+  public void filesAreReadOnlyWhenTheirStatChanges() throws IOException {
+    final File file = new File(dir, "a.txt");
+    write(file, "aaaa");
+    final String originalHash = Util.getContentHash(file);
+    
+    FileStateIndex index = new FileStateIndex(indexFile);
+    assertEquals(originalHash, index.getHash(file));
+    
+    // same size and modification time, so it's not read again
+    write(file, "bbbb");
+    assertEquals(originalHash, index.getHash(file));
+    index.store();
+    
+    index = new FileStateIndex(indexFile);
+    assertEquals(originalHash, index.getHash(file));
+    
+    file.setLastModified(PAST + 1000);
+    assertEquals(Util.getContentHash(file), index.getHashes(
+        Arrays.asList(file)).get(file));
+  }
+  
+  @Test
+  public void listingsAreForgottenWhenTheDirectoryChanges()
+      throws IOException {
+    final File listedDir = new File(dir, "listed");
+    listedDir.mkdir();
+    listedDir.setLastModified(PAST);
+    final Path path = listedDir.toPath();
+    
+    FileStateIndex index = new FileStateIndex(indexFile);
+    index.putListing(path, getAttributes(path), Arrays.asList("a.txt"),
+        Collections.<String> emptyList());
+    index.store();
+    
+    index = new FileStateIndex(indexFile);
+    assertNotNull(index.getListing(path, getAttributes(path)));
+    
+    listedDir.setLastModified(PAST + 1000);
+    assertNull(index.getListing(path, getAttributes(path)));
+  }
+  
+  private static void write(final File file, final String contents)
+      throws IOException {
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(contents.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+    file.setLastModified(PAST);
+  }
+  
+  private static BasicFileAttributes getAttributes(final Path path)
+      throws IOException {
+    return Files.readAttributes(path, BasicFileAttributes.class);
+  }
+}
@@ -0,0 +1,44 @@
+package com.github.wolfie.bob;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+
+public class InMemoryJavaFileManagerTest {
+  
+  @Test
+  public void compiledClassesAreLoadedFromMemory() throws Exception {
+    final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    final InMemoryJavaFileManager fileManager = new InMemoryJavaFileManager(
+        compiler.getStandardFileManager(null, null, null));
+    
+    final String source = "package a; public class Outer {"
+        + " public static class Inner {}"
+        + " @Override public String toString() { return \"outer\"; } }";
+    final boolean success;
+    try {
+      success = compiler.getTask(null, fileManager, null, null, null,
+          Collections.singleton(InMemoryJavaFileManager.getSource("a.Outer",
+              source))).call();
+    } finally {
+      fileManager.close();
+    }
+    assertTrue(success);
+    
+    final Map<String, byte[]> classes = fileManager.getClasses();
+    assertEquals(2, classes.size());
+    assertTrue(classes.containsKey("a.Outer$Inner"));
+    
+    final ClassLoader classLoader = BootClassLoader.get(classes, getClass()
+        .getClassLoader());
+    assertEquals("outer", classLoader.loadClass("a.Outer")
+        .getDeclaredConstructor().newInstance().toString());
+  }
+}
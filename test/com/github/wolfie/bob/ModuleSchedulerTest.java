@@ -0,0 +1,67 @@
+package com.github.wolfie.bob;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class ModuleSchedulerTest {
+  
+  private static Map<String, Set<String>> getUpstreamModules(
+      final ProjectDescription desc) {
+    return ModuleScheduler.getUpstreamModules(ModuleScheduler
+        .getModules(desc));
+  }
+  
+  @Test
+  public void testUpstreamModulesAreTransitive() {
+    final Map<String, Set<String>> upstream = getUpstreamModules(new ProjectDescription()
+        .module(new ModuleDescription("app").dependsOn("util"))
+        .module(new ModuleDescription("util").dependsOn("core"))
+        .module(new ModuleDescription("core")));
+    
+    assertEquals(Arrays.asList("core", "util"), Arrays.asList(upstream.get(
+        "app").toArray()));
+    assertEquals(Arrays.asList("core"), Arrays.asList(upstream.get("util")
+        .toArray()));
+    assertEquals(0, upstream.get("core").size());
+  }
+  
+  @Test
+  public void testRootModuleDependsOnAllModules() {
+    final Map<String, Set<String>> upstream = getUpstreamModules(new ProjectDescription()
+        .module(new ModuleDescription("a"))
+        .module(new ModuleDescription("b")));
+    
+    assertEquals(2, upstream.get(ProjectDescription.ROOT_MODULE_NAME).size());
+  }
+  
+  @Test(expected = BootstrapError.class)
+  public void testCircularDependencies() {
+    getUpstreamModules(new ProjectDescription()
+        .module(new ModuleDescription("a").dependsOn("b"))
+        .module(new ModuleDescription("b").dependsOn("a")));
+  }
+  
+  @Test(expected = BootstrapError.class)
+  public void testUnknownDependency() {
+    getUpstreamModules(new ProjectDescription()
+        .module(new ModuleDescription("a").dependsOn("b")));
+  }
+  
+  @Test(expected = BootstrapError.class)
+  public void testDependencyOnRootModule() {
+    getUpstreamModules(new ProjectDescription()
+        .module(new ModuleDescription("a")
+            .dependsOn(ProjectDescription.ROOT_MODULE_NAME)));
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateModuleName() {
+    new ProjectDescription().module(new ModuleDescription("a")).module(
+        new ModuleDescription("a"));
+  }
+}
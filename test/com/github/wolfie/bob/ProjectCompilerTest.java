@@ -0,0 +1,66 @@
+package com.github.wolfie.bob;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.wolfie.bob.ProjectCompiler.CompiledModule;
+
+public class ProjectCompilerTest {
+  
+  private File dir;
+  private File srcDir;
+  
+  @Before
+  public void setUp() throws IOException {
+    dir = Util.getTemporaryDirectory();
+    srcDir = new File(dir, "src");
+    BuildCache.set(new BuildCache(new File(dir, "build-cache"), null));
+  }
+  
+  @After
+  public void tearDown() {
+    BuildCache.reset();
+    Util.delete(dir);
+  }
+  
+  private void write(final String path, final String contents)
+      throws IOException {
+    final File file = new File(srcDir, path);
+    Util.makeParentDirs(file);
+    final FileWriter writer = new FileWriter(file);
+    try {
+      writer.write(contents);
+    } finally {
+      writer.close();
+    }
+  }
+  
+  private CompiledModule compile() throws IOException {
+    return new ProjectCompiler(new ModuleDescription("module")
+        .sourcePath(srcDir.getAbsolutePath()), new File(dir, "cache"), 1)
+        .compile(Collections.<File> emptyList(), Collections
+            .<CompiledModule> emptyList());
+  }
+  
+  @Test
+  public void classMovedToAnotherSourceFileIsKept() throws IOException {
+    write("p/A.java", "package p; public class A {} class B {}");
+    compile();
+    
+    write("p/A.java", "package p; public class A {}");
+    write("p/B.java", "package p; class B {}");
+    final CompiledModule module = compile();
+    assertTrue(new File(module.getClassOutputDir(), "p/B.class").isFile());
+    
+    // the index is still usable
+    compile();
+  }
+}
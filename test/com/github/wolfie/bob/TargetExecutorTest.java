@@ -0,0 +1,106 @@
+package com.github.wolfie.bob;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.wolfie.bob.action.Action;
+import com.github.wolfie.bob.annotation.Target;
+import com.github.wolfie.bob.exception.BuildTargetException;
+
+public class TargetExecutorTest {
+  
+  private static final List<String> processed = Collections
+      .synchronizedList(new ArrayList<String>());
+  
+  private static class RecordingAction implements Action {
+    private final String name;
+    
+    public RecordingAction(final String name) {
+      this.name = name;
+    }
+    
+    @Override
+    public void process() {
+      processed.add(name);
+    }
+  }
+  
+  public static class TestBuild extends BobBuild {
+    private final Action shared = new RecordingAction("shared");
+    
+    @Target
+    public Action compile() {
+      return shared;
+    }
+    
+    @Target(dependsOn = "compile")
+    public Action jar() {
+      return new RecordingAction("jar");
+    }
+    
+    @Target(dependsOn = "compile")
+    public Action test() {
+      return shared;
+    }
+    
+    @Target(dependsOn = { "jar", "test" })
+    public Action dist() {
+      return new RecordingAction("dist");
+    }
+    
+    @Target(dependsOn = "circular2")
+    public Action circular1() {
+      return shared;
+    }
+    
+    @Target(dependsOn = "circular1")
+    public Action circular2() {
+      return shared;
+    }
+    
+    @Target(dependsOn = "missing")
+    public Action broken() {
+      return shared;
+    }
+  }
+  
+  @After
+  public void tearDown() {
+    processed.clear();
+    ActionRunner.reset();
+  }
+  
+  @Test
+  public void testTargetGraph() {
+    assertEquals(Arrays.asList("compile", "jar", "test", "dist"),
+        new ArrayList<String>(TargetExecutor.getTargetGraph(TestBuild.class,
+            "dist").keySet()));
+  }
+  
+  @Test(expected = BuildTargetException.class)
+  public void testCircularTargets() {
+    TargetExecutor.getTargetGraph(TestBuild.class, "circular1");
+  }
+  
+  @Test(expected = BuildTargetException.class)
+  public void testUnknownTarget() {
+    TargetExecutor.getTargetGraph(TestBuild.class, "broken");
+  }
+  
+  @Test
+  public void testSharedActionIsProcessedOnce() throws Exception {
+    new TargetExecutor(TestBuild.class, 4).execute(TestBuild.class
+        .getMethod("dist"));
+    
+    assertEquals(3, processed.size());
+    assertEquals("shared", processed.get(0));
+    assertEquals("dist", processed.get(2));
+  }
+}
@@ -4,14 +4,25 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 
 import org.junit.Test;
 
+import com.github.wolfie.bob.Util.ContentWriter;
+
 public class UtilTest {
   
   @Test(expected = NullPointerException.class)
@@ -217,4 +228,84 @@ public class UtilTest {
   public void testIsAnyOfNotMatchingNeedleMultipleHaystack() {
     assertFalse(Util.isAnyOf("foo", "bar", "baz"));
   }
+  
+  @Test
+  public void testGetFilesRecursively() throws Exception {
+    final File dir = Util.getTemporaryDirectory();
+    try {
+      final Set<File> expected = new HashSet<File>();
+      for (int i = 0; i < 3; i++) {
+        final File subDir = new File(dir, "a" + i + File.separator + "b");
+        assertTrue(subDir.mkdirs());
+        expected.add(createFile(new File(subDir, "C" + i + ".java")));
+        createFile(new File(subDir, "C" + i + ".class"));
+        createFile(new File(subDir, ".C" + i + ".java"));
+      }
+      expected.add(createFile(new File(dir, "D.java")));
+      
+      assertEquals(expected, Util.getFilesRecursively(dir,
+          Util.JAVA_SOURCE_FILE));
+      assertEquals(7, Util.getFilesRecursively(dir).size());
+    } finally {
+      Util.delete(dir);
+    }
+  }
+  
+  @Test
+  public void testWriteAtomically() throws Exception {
+    final File dir = Util.getTemporaryDirectory();
+    try {
+      final File file = new File(dir, "sub" + File.separator + "file");
+      final Properties properties = new Properties();
+      properties.setProperty("key", "old");
+      Util.writeProperties(file, properties, "test");
+      properties.setProperty("key", "new");
+      Util.writeProperties(file, properties, "test");
+      assertEquals("new", Util.readProperties(file).getProperty("key"));
+      
+      try {
+        Util.writeAtomically(file, new ContentWriter() {
+          @Override
+          public void write(final OutputStream out) throws IOException {
+            out.write(1);
+            throw new IOException("failed");
+          }
+        });
+        fail();
+      } catch (final IOException e) {
+        // a failed write leaves the file as it was, and nothing beside it
+        assertEquals("new", Util.readProperties(file).getProperty("key"));
+        assertEquals(Arrays.asList("file"), Arrays.asList(file
+            .getParentFile().list()));
+      }
+    } finally {
+      Util.delete(dir);
+    }
+  }
+  
+  @Test
+  public void testWritePrivately() throws Exception {
+    final File dir = Util.getTemporaryDirectory();
+    try {
+      final File file = new File(dir, "file");
+      Util.writePrivately(file, new ContentWriter() {
+        @Override
+        public void write(final OutputStream out) throws IOException {
+          out.write(1);
+        }
+      });
+      assertEquals(1, file.length());
+      if (Util.isPosix(file.toPath())) {
+        assertEquals(PosixFilePermissions.fromString("rw-------"), Files
+            .getPosixFilePermissions(file.toPath()));
+      }
+    } finally {
+      Util.delete(dir);
+    }
+  }
+  
+  private static File createFile(final File file) throws IOException {
+    assertTrue(file.createNewFile());
+    return file;
+  }
 }
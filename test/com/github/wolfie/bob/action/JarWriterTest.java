@@ -0,0 +1,313 @@
+package com.github.wolfie.bob.action;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.wolfie.bob.Util;
+
+public class JarWriterTest {
+  
+  private File dir;
+  
+  @Before
+  public void setUp() throws IOException {
+    dir = Util.getTemporaryDirectory();
+  }
+  
+  @After
+  public void tearDown() {
+    Util.delete(dir);
+  }
+  
+  private File createFile(final String name, final String contents)
+      throws IOException {
+    final File file = new File(dir, name);
+    final FileWriter writer = new FileWriter(file);
+    try {
+      writer.write(contents);
+    } finally {
+      writer.close();
+    }
+    return file;
+  }
+  
+  private static byte[] readBytes(final JarInputStream in)
+      throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[1024];
+    int count;
+    while ((count = in.read(buffer)) != -1) {
+      bytes.write(buffer, 0, count);
+    }
+    return bytes.toByteArray();
+  }
+  
+  private static String read(final JarInputStream in) throws IOException {
+    return new String(readBytes(in), "UTF-8");
+  }
+  
+  @Test
+  public void entriesAreWrittenInOrder() throws IOException {
+    final StringBuilder longContents = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      longContents.append("line ").append(i).append('\n');
+    }
+    
+    final SortedMap<String, File> entries = new TreeMap<String, File>();
+    for (int i = 0; i < 50; i++) {
+      entries.put(String.format("dir/entry%02d.txt", i), createFile("file"
+          + i, i % 10 == 0 ? longContents.toString() : "contents " + i));
+    }
+    
+    final Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1");
+    manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "a.Main");
+    
+    final File jar = new File(dir, "test.jar");
+    new JarWriter(jar, 3).write(manifest, entries);
+    
+    final JarInputStream in = new JarInputStream(new FileInputStream(jar));
+    try {
+      assertEquals("a.Main", in.getManifest().getMainAttributes().get(
+          Attributes.Name.MAIN_CLASS));
+      for (int i = 0; i < 50; i++) {
+        final JarEntry entry = in.getNextJarEntry();
+        assertEquals(String.format("dir/entry%02d.txt", i), entry.getName());
+        assertEquals(i % 10 == 0 ? longContents.toString() : "contents " + i,
+            read(in));
+      }
+      assertNull(in.getNextJarEntry());
+    } finally {
+      in.close();
+    }
+  }
+  
+  @Test
+  public void fixedTimesGiveIdenticalFiles() throws IOException {
+    final SortedMap<String, File> entries = new TreeMap<String, File>();
+    entries.put("a", createFile("a", "a"));
+    entries.put("b/c", createFile("c", "c"));
+    
+    final Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1");
+    
+    final File jar1 = new File(dir, "1.jar");
+    final JarWriter writer1 = new JarWriter(jar1, 2);
+    writer1.setFixedTimes(true);
+    writer1.write(manifest, entries);
+    
+    for (final File file : entries.values()) {
+      file.setLastModified(file.lastModified() - 60 * 60 * 1000);
+    }
+    
+    final File jar2 = new File(dir, "2.jar");
+    final JarWriter writer2 = new JarWriter(jar2, 1);
+    writer2.setFixedTimes(true);
+    writer2.write(manifest, entries);
+    
+    assertEquals(Util.getContentHash(jar1), Util.getContentHash(jar2));
+  }
+  
+  @Test
+  public void compressedAndIncompressibleEntriesAreStored()
+      throws IOException {
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      text.append("line ").append(i).append('\n');
+    }
+    final byte[] noise = new byte[1000];
+    new Random(0).nextBytes(noise);
+    final File noiseFile = new File(dir, "noise");
+    final FileOutputStream noiseOut = new FileOutputStream(noiseFile);
+    try {
+      noiseOut.write(noise);
+    } finally {
+      noiseOut.close();
+    }
+    
+    final SortedMap<String, File> entries = new TreeMap<String, File>();
+    entries.put("WEB-INF/lib/nested.JAR", createFile("nested", text
+        .toString()));
+    entries.put("noise.dat", noiseFile);
+    entries.put("text.txt", createFile("text", text.toString()));
+    
+    final Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1");
+    
+    final File jar = new File(dir, "test.jar");
+    final JarWriter writer = new JarWriter(jar, 2);
+    writer.setStoredExtensions(Collections.singleton("jar"));
+    writer.write(manifest, entries);
+    
+    final ZipFile zipFile = new ZipFile(jar);
+    try {
+      assertEquals(ZipEntry.STORED, zipFile.getEntry("WEB-INF/lib/nested.JAR")
+          .getMethod());
+      assertEquals(ZipEntry.STORED, zipFile.getEntry("noise.dat").getMethod());
+      assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("text.txt")
+          .getMethod());
+    } finally {
+      zipFile.close();
+    }
+    
+    final JarInputStream in = new JarInputStream(new FileInputStream(jar));
+    try {
+      assertEquals(text.toString(), read(in, "WEB-INF/lib/nested.JAR"));
+      assertEquals("noise.dat", in.getNextJarEntry().getName());
+      assertArrayEquals(noise, readBytes(in));
+      assertEquals(text.toString(), read(in, "text.txt"));
+    } finally {
+      in.close();
+    }
+  }
+  
+  @Test
+  public void largeEntriesAreWrittenAndReused() throws IOException {
+    final StringBuilder text = new StringBuilder();
+    while (text.length() < 2 * JarWriter.LARGE_ENTRY_SIZE) {
+      text.append("line ").append(text.length()).append('\n');
+    }
+    final byte[] noise = new byte[(int) JarWriter.LARGE_ENTRY_SIZE + 1];
+    new Random(0).nextBytes(noise);
+    final File noiseFile = new File(dir, "noise");
+    final FileOutputStream noiseOut = new FileOutputStream(noiseFile);
+    try {
+      noiseOut.write(noise);
+    } finally {
+      noiseOut.close();
+    }
+    
+    final SortedMap<String, File> entries = new TreeMap<String, File>();
+    entries.put("nested.jar", createFile("nested", text.toString()));
+    entries.put("noise.dat", noiseFile);
+    entries.put("text.txt", createFile("text", text.toString()));
+    
+    final Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1");
+    
+    final File jar = new File(dir, "test.jar");
+    for (int i = 0; i < 2; i++) {
+      final JarWriter writer = new JarWriter(jar, 2);
+      writer.setStoredExtensions(Collections.singleton("jar"));
+      writer.write(manifest, entries);
+      assertEquals(i == 0 ? Collections.emptySet() : new TreeSet<String>(
+          Arrays.asList("noise.dat", "text.txt")), writer.getReusedEntries());
+      
+      final ZipFile zipFile = new ZipFile(jar);
+      try {
+        assertEquals(ZipEntry.STORED, zipFile.getEntry("nested.jar")
+            .getMethod());
+        assertEquals(ZipEntry.STORED, zipFile.getEntry("noise.dat")
+            .getMethod());
+        assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("text.txt")
+            .getMethod());
+      } finally {
+        zipFile.close();
+      }
+      
+      final JarInputStream in = new JarInputStream(new FileInputStream(jar));
+      try {
+        assertEquals(text.toString(), read(in, "nested.jar"));
+        assertEquals("noise.dat", in.getNextJarEntry().getName());
+        assertArrayEquals(noise, readBytes(in));
+        assertEquals(text.toString(), read(in, "text.txt"));
+      } finally {
+        in.close();
+      }
+    }
+    
+    // no temporary files are left behind
+    final List<String> files = Arrays.asList(dir.list());
+    Collections.sort(files);
+    assertEquals(Arrays.asList("nested", "noise", "test.jar", "text"), files);
+  }
+  
+  private static String read(final JarInputStream in, final String name)
+      throws IOException {
+    assertEquals(name, in.getNextJarEntry().getName());
+    return read(in);
+  }
+  
+  @Test
+  public void existingFileIsUpdated() throws IOException {
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      text.append("line ").append(i).append('\n');
+    }
+    
+    final SortedMap<String, File> entries = new TreeMap<String, File>();
+    entries.put("changed", createFile("changed", "old " + text));
+    entries.put("removed", createFile("removed", "removed"));
+    entries.put("unchanged", createFile("unchanged", text.toString()));
+    entries.put("unchanged-stored", createFile("unchanged-stored",
+        "unchanged-stored"));
+    
+    final Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1");
+    
+    final File jar = new File(dir, "test.jar");
+    final JarWriter firstWriter = new JarWriter(jar, 2);
+    firstWriter.write(manifest, entries);
+    assertEquals(Collections.emptySet(), firstWriter.getReusedEntries());
+    final byte[] oldUnchangedData = readRawData(jar, "unchanged");
+    
+    entries.put("changed", createFile("changed", "new " + text));
+    entries.remove("removed");
+    entries.put("added", createFile("added", "added"));
+    final JarWriter secondWriter = new JarWriter(jar, 2);
+    secondWriter.write(manifest, entries);
+    
+    assertEquals(new TreeSet<String>(Arrays.asList("unchanged",
+        "unchanged-stored")), secondWriter.getReusedEntries());
+    assertArrayEquals(oldUnchangedData, readRawData(jar, "unchanged"));
+    
+    final JarInputStream in = new JarInputStream(new FileInputStream(jar));
+    try {
+      assertEquals("added", read(in, "added"));
+      assertEquals("new " + text, read(in, "changed"));
+      assertEquals(text.toString(), read(in, "unchanged"));
+      assertEquals("unchanged-stored", read(in, "unchanged-stored"));
+      assertNull(in.getNextJarEntry());
+    } finally {
+      in.close();
+    }
+  }
+  
+  /** Read the data of an entry as it's stored in an archive */
+  private static byte[] readRawData(final File archive, final String name)
+      throws IOException {
+    final ArchiveIndex index = ArchiveIndex.read(archive);
+    try {
+      final ByteArrayOutputStream data = new ByteArrayOutputStream();
+      index.copyRawData(index.getEntry(name), data);
+      return data.toByteArray();
+    } finally {
+      index.close();
+    }
+  }
+}
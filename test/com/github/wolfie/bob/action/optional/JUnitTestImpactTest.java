@@ -0,0 +1,91 @@
+package com.github.wolfie.bob.action.optional;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.github.wolfie.bob.Util;
+
+public class JUnitTestImpactTest {
+  
+  static class Dependency {
+  }
+  
+  static class Dependent {
+    Dependency dependency;
+  }
+  
+  static class Independent {
+  }
+  
+  @Test
+  public void onlyClassesDependingOnAChangeAreAffected() throws Exception {
+    final File dir = Util.getTemporaryDirectory();
+    try {
+      final Map<String, File> classFiles = new HashMap<String, File>();
+      for (final Class<?> clazz : Arrays.asList(Dependency.class,
+          Dependent.class, Independent.class)) {
+        classFiles.put(clazz.getName().replace('.', File.separatorChar)
+            + ".class", copyClassFile(clazz, dir));
+      }
+      final File file = new File(dir, "impact.properties");
+      final File jar = new File(dir, "library.jar");
+      Files.write(jar.toPath(), new byte[] { 1 });
+      final List<File> jars = Arrays.asList(jar);
+      final List<String> testClasses = Arrays.asList(Dependent.class
+          .getName(), Independent.class.getName());
+      
+      final JUnitTestImpact firstRun = new JUnitTestImpact(file, classFiles,
+          jars);
+      assertEquals(testClasses, firstRun.getAffected(testClasses));
+      firstRun.update(testClasses);
+      
+      assertEquals(Collections.emptyList(), new JUnitTestImpact(file,
+          classFiles, jars).getAffected(testClasses));
+      
+      // any change in the class file will do
+      final File dependencyFile = new File(dir,
+          "JUnitTestImpactTest$Dependency.class");
+      Files.write(dependencyFile.toPath(), new byte[] { 0 },
+          StandardOpenOption.APPEND);
+      final JUnitTestImpact thirdRun = new JUnitTestImpact(file, classFiles,
+          jars);
+      assertEquals(Arrays.asList(Dependent.class.getName()), thirdRun
+          .getAffected(testClasses));
+      thirdRun.update(testClasses);
+      
+      // every class depends on the jars
+      Files.write(jar.toPath(), new byte[] { 2 });
+      assertEquals(testClasses, new JUnitTestImpact(file, classFiles, jars)
+          .getAffected(testClasses));
+    } finally {
+      Util.delete(dir);
+    }
+  }
+  
+  private static File copyClassFile(final Class<?> clazz, final File dir)
+      throws Exception {
+    final String name = clazz.getName().substring(
+        clazz.getName().lastIndexOf('.') + 1)
+        + ".class";
+    final File file = new File(dir, name);
+    final InputStream in = clazz.getResourceAsStream(name);
+    try {
+      Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      in.close();
+    }
+    return file;
+  }
+}
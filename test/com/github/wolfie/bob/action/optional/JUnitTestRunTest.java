@@ -0,0 +1,83 @@
+package com.github.wolfie.bob.action.optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class JUnitTestRunTest {
+  
+  @Test
+  public void shardsCoverAllClassesOnce() {
+    final List<String> classNames = new ArrayList<String>();
+    for (int i = 0; i < 100; i++) {
+      classNames.add("p.Test" + i);
+    }
+    
+    final List<String> covered = new ArrayList<String>();
+    for (int i = 1; i <= 4; i++) {
+      final List<String> shard = JUnitTestRun.getShard(classNames, i, 4,
+          null);
+      assertTrue(shard.size() > 10);
+      
+      // a class stays in its shard, whatever else there is to run
+      for (final String className : shard) {
+        assertEquals(Collections.singletonList(className), JUnitTestRun
+            .getShard(Collections.singletonList(className), i, 4, null));
+      }
+      covered.addAll(shard);
+    }
+    Collections.sort(covered);
+    Collections.sort(classNames);
+    assertEquals(classNames, covered);
+  }
+  
+  @Test
+  public void sharedTimingsGiveShardsOfEqualRuntime() throws Exception {
+    final File file = File.createTempFile("timings", ".properties");
+    try {
+      final List<String> classNames = new ArrayList<String>();
+      final Map<String, Long> runtimes = new HashMap<String, Long>();
+      for (int i = 0; i < 4; i++) {
+        classNames.add("p.Slow" + i);
+        runtimes.put("p.Slow" + i, 10000L);
+      }
+      for (int i = 0; i < 40; i++) {
+        classNames.add("p.Fast" + i);
+        runtimes.put("p.Fast" + i, 100L);
+      }
+      new JUnitTestTimings(file).update(runtimes);
+      
+      final List<String> covered = new ArrayList<String>();
+      for (int i = 1; i <= 4; i++) {
+        final List<String> shard = JUnitTestRun.getShard(classNames, i, 4,
+            new JUnitTestTimings(file));
+        
+        // the same on every machine, whatever order the classes are found in
+        final List<String> reversed = new ArrayList<String>(classNames);
+        Collections.reverse(reversed);
+        assertEquals(shard, JUnitTestRun.getShard(reversed, i, 4,
+            new JUnitTestTimings(file)));
+        
+        long runtime = 0;
+        for (final String className : shard) {
+          runtime += runtimes.get(className);
+        }
+        assertEquals(11000L, runtime);
+        covered.addAll(shard);
+      }
+      Collections.sort(covered);
+      Collections.sort(classNames);
+      assertEquals(classNames, covered);
+    } finally {
+      file.delete();
+    }
+  }
+}
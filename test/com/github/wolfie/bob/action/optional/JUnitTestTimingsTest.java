@@ -0,0 +1,37 @@
+package com.github.wolfie.bob.action.optional;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class JUnitTestTimingsTest {
+  
+  @Test
+  public void slowClassesAreSpreadOutLongestFirst() throws Exception {
+    final File file = File.createTempFile("timings", ".properties");
+    try {
+      final Map<String, Long> runtimes = new HashMap<String, Long>();
+      runtimes.put("Slow", 9000L);
+      runtimes.put("A", 2000L);
+      runtimes.put("B", 2000L);
+      runtimes.put("C", 2000L);
+      new JUnitTestTimings(file).update(runtimes);
+      
+      final List<List<String>> groups = new JUnitTestTimings(file).partition(
+          Arrays.asList("A", "B", "C", "Slow", "New"), 2);
+      assertEquals(Arrays.asList("Slow"), groups.get(0));
+      
+      // the unknown class is expected to take as long as the average one,
+      // which is longer than the rest
+      assertEquals(Arrays.asList("New", "A", "B", "C"), groups.get(1));
+    } finally {
+      file.delete();
+    }
+  }
+}